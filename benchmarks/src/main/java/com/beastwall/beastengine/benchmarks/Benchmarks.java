@@ -0,0 +1,27 @@
+package com.beastwall.beastengine.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the JMH command line, the GC profiler is always on so every run
+ * reports the allocation rate ({@code gc.alloc.rate.norm} is the bytes allocated per operation).
+ * e.g. {@code java -jar benchmarks/target/benchmarks.jar ForLoop -p items=1000}
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+public final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
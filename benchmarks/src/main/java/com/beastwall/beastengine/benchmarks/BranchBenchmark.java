@@ -0,0 +1,36 @@
+package com.beastwall.beastengine.benchmarks;
+
+import com.beastwall.beastengine.BeastHtmlEngine;
+import com.beastwall.beastengine.Context;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A table of 1k users with a {@code bs:switch} and three {@code bs:if} per row.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BranchBenchmark {
+
+    private BeastHtmlEngine engine;
+    private Context context;
+
+    @Setup
+    public void setup() {
+        engine = new BeastHtmlEngine(Fixtures.COMPONENTS);
+        context = Fixtures.context(1000);
+    }
+
+    @Benchmark
+    public String branches() throws Exception {
+        return engine.processComponent("branches", context);
+    }
+}
@@ -0,0 +1,40 @@
+package com.beastwall.beastengine.benchmarks;
+
+import com.beastwall.beastengine.BeastHtmlEngine;
+import com.beastwall.beastengine.Context;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BeastHtmlEngine#processComponent(String, Context)} on a page nesting a header and one card per user,
+ * every card nesting a badge.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ComponentBenchmark {
+
+    @Param({"10", "100"})
+    int cards;
+
+    private BeastHtmlEngine engine;
+    private Context context;
+
+    @Setup
+    public void setup() {
+        engine = new BeastHtmlEngine(Fixtures.COMPONENTS);
+        context = Fixtures.context(cards);
+    }
+
+    @Benchmark
+    public String processComponent() throws Exception {
+        return engine.processComponent("page", context);
+    }
+}
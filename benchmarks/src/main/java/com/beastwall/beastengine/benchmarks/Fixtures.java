@@ -0,0 +1,124 @@
+package com.beastwall.beastengine.benchmarks;
+
+import com.beastwall.beastengine.Context;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Data and templates shared by the benchmarks, the templates are the components under {@code components/}.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class Fixtures {
+    static final String COMPONENTS = "components";
+    private static final String[] ROLES = {"admin", "editor", "viewer", "guest"};
+
+    private Fixtures() {
+    }
+
+    /**
+     * Read the template of a component.
+     *
+     * @param name The name of the component, {@code large} is the medium component repeated 50 times.
+     * @return The template.
+     */
+    static String template(String name) {
+        if (name.equals("large")) {
+            String medium = template("medium");
+            StringBuilder sb = new StringBuilder("<div class=\"profiles\">\n");
+            for (int i = 0; i < 50; i++) {
+                sb.append(medium);
+            }
+            return sb.append("</div>\n").toString();
+        }
+        String path = COMPONENTS + "/" + name + "/" + name + ".component.html";
+        try (InputStream in = Fixtures.class.getClassLoader().getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Unknown fixture: " + path);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A context holding {@code users} and everything the fixtures reference.
+     *
+     * @param users The number of users.
+     * @return The context.
+     */
+    static Context context(int users) {
+        Context context = new Context(Locale.ENGLISH);
+        List<User> list = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            list.add(new User(i, "User " + i, "user" + i + "@beastwall.com", ROLES[i % ROLES.length], i % 3 != 0, (i * 37) % 1000));
+        }
+        context.put("users", list);
+        context.put("user", list.isEmpty() ? new User(0, "Ann", "ann@beastwall.com", "admin", true, 640) : list.get(0));
+        context.put("unread", 12);
+        context.put("title", "Beast Engine");
+        context.put("site", "beastwall.com");
+        context.put("roles", Map.of("admin", "admin", "editor", "editor", "viewer", "viewer"));
+        context.put("theme", Map.of("primary", "#0b5fff", "secondary", "#e3e8ef", "font", "Inter, sans-serif",
+                "text", "#1b1f24", "background", "#ffffff", "radius", 6));
+        return context;
+    }
+
+    /**
+     * A JavaBean, so script expressions can read it too.
+     */
+    public static final class User {
+        private final int id;
+        private final String name;
+        private final String email;
+        private final String role;
+        private final boolean active;
+        private final int score;
+
+        User(int id, String name, String email, String role, boolean active, int score) {
+            this.id = id;
+            this.name = name;
+            this.email = email;
+            this.role = role;
+            this.active = active;
+            this.score = score;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public String getRole() {
+            return role;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public String getSince() {
+            return "2019-0" + (id % 9 + 1);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.beastwall.beastengine.benchmarks;
+
+import com.beastwall.beastengine.BeastHtmlEngine;
+import com.beastwall.beastengine.Context;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code bs:for} over 10, 1k and 100k items.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ForLoopBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    int items;
+
+    private BeastHtmlEngine engine;
+    private Context context;
+
+    @Setup
+    public void setup() {
+        engine = new BeastHtmlEngine(Fixtures.COMPONENTS);
+        context = Fixtures.context(items);
+    }
+
+    @Benchmark
+    public String loop() throws Exception {
+        return engine.processComponent("loop", context);
+    }
+}
@@ -0,0 +1,44 @@
+package com.beastwall.beastengine.benchmarks;
+
+import com.beastwall.beastengine.BeastHtmlEngine;
+import com.beastwall.beastengine.Context;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same number of interpolations, evaluated natively ({@code simple}) or by Nashorn ({@code script},
+ * method calls aren't supported natively).
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class InterpolationBenchmark {
+    private static final String SIMPLE = "<p>{{ user.name }} has {{ user.score + 1 }} points</p>\n";
+    private static final String SCRIPT = "<p>{{ user.name.toUpperCase() }} has {{ Math.max(user.score, 1) }} points</p>\n";
+
+    @Param({"simple", "script"})
+    String kind;
+
+    private BeastHtmlEngine engine;
+    private String template;
+    private Context context;
+
+    @Setup
+    public void setup() {
+        engine = new BeastHtmlEngine(Fixtures.COMPONENTS);
+        template = (kind.equals("simple") ? SIMPLE : SCRIPT).repeat(20);
+        context = Fixtures.context(1);
+    }
+
+    @Benchmark
+    public String interpolate() throws Exception {
+        return engine.process(template, context);
+    }
+}
@@ -0,0 +1,41 @@
+package com.beastwall.beastengine.benchmarks;
+
+import com.beastwall.beastengine.BeastHtmlEngine;
+import com.beastwall.beastengine.Context;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BeastHtmlEngine#process(String, Context)} on small, medium and large templates.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ProcessBenchmark {
+
+    @Param({"small", "medium", "large"})
+    String size;
+
+    private BeastHtmlEngine engine;
+    private String template;
+    private Context context;
+
+    @Setup
+    public void setup() {
+        engine = new BeastHtmlEngine(Fixtures.COMPONENTS);
+        template = Fixtures.template(size);
+        context = Fixtures.context(1);
+    }
+
+    @Benchmark
+    public String process() throws Exception {
+        return engine.process(template, context);
+    }
+}
@@ -0,0 +1,44 @@
+package com.beastwall.beastengine.benchmarks;
+
+import com.beastwall.beastengine.BeastCssEngine;
+import com.beastwall.beastengine.BeastTextEngine;
+import com.beastwall.beastengine.Context;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BeastTextEngine} on a mail and {@link BeastCssEngine} on a theme.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TextBenchmark {
+
+    private BeastTextEngine textEngine;
+    private BeastCssEngine cssEngine;
+    private Context context;
+
+    @Setup
+    public void setup() {
+        textEngine = new BeastTextEngine(Fixtures.COMPONENTS);
+        cssEngine = new BeastCssEngine(Fixtures.COMPONENTS);
+        context = Fixtures.context(1);
+    }
+
+    @Benchmark
+    public String text() throws Exception {
+        return textEngine.processComponent("mail", context);
+    }
+
+    @Benchmark
+    public String css() throws Exception {
+        return cssEngine.processComponent("theme", context);
+    }
+}
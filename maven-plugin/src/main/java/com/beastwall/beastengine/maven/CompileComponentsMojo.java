@@ -0,0 +1,69 @@
+package com.beastwall.beastengine.maven;
+
+import com.beastwall.beastengine.ComponentCompiler;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Validates the HTML components of the project and packages their compiled plans,
+ * a template error fails the build.
+ * <pre>
+ * &lt;plugin&gt;
+ *     &lt;groupId&gt;com.beastwall&lt;/groupId&gt;
+ *     &lt;artifactId&gt;beast-engine-maven-plugin&lt;/artifactId&gt;
+ *     &lt;executions&gt;&lt;execution&gt;&lt;goals&gt;&lt;goal&gt;compile-components&lt;/goal&gt;&lt;/goals&gt;&lt;/execution&gt;&lt;/executions&gt;
+ * &lt;/plugin&gt;
+ * </pre>
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+@Mojo(name = "compile-components", defaultPhase = LifecyclePhase.PROCESS_RESOURCES, threadSafe = true)
+public class CompileComponentsMojo extends AbstractMojo {
+
+    /**
+     * The folder of the components, the root of the engine's component source.
+     */
+    @Parameter(defaultValue = "${project.basedir}/src/main/resources/components", required = true)
+    private File componentsDirectory;
+
+    /**
+     * The classes folder the plans are packaged from.
+     */
+    @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+    private File outputDirectory;
+
+    /**
+     * Skip compiling the components.
+     */
+    @Parameter(property = "beastengine.skip", defaultValue = "false")
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skip) {
+            getLog().info("Skipping component compilation");
+            return;
+        }
+        if (!componentsDirectory.isDirectory()) {
+            getLog().info("No components in " + componentsDirectory);
+            return;
+        }
+        File output = new File(outputDirectory, ComponentCompiler.RESOURCE);
+        try {
+            int compiled = new ComponentCompiler(componentsDirectory.toPath()).compile(output.toPath());
+            getLog().info("Compiled " + compiled + " component(s) to " + output);
+        } catch (IllegalStateException e) {
+            throw new MojoFailureException(e.getMessage());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to compile the components of " + componentsDirectory, e);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.beastwall.beastengine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Renders one compiled template against every context of a batch.
+ * Each worker, the calling thread or the tasks the batch fans out to, pulls the next context from the shared iterator
+ * and renders it reusing its buffer and resolution cache; a failing context is reported and the worker carries on.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class BatchRenderer {
+    static final int MAX_RECORDED_FAILURES = 1000;
+
+    private final BeastHtmlEngine engine;
+    private final Template template;
+    private final Iterator<Context> contexts;
+    private final BatchSink sink;
+    private final LongAdder rendered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder chars = new LongAdder();
+    private final List<BatchResult.Failure> failures = new ArrayList<>();
+    private int nextIndex;
+
+    BatchRenderer(BeastHtmlEngine engine, Template template, Iterable<Context> contexts, BatchSink sink) {
+        this.engine = engine;
+        this.template = template;
+        this.contexts = contexts.iterator();
+        this.sink = sink;
+    }
+
+    /**
+     * @param parallelism The number of workers, 1 renders on the calling thread.
+     * @param executor    The executor the workers run on when there are several.
+     * @return The counters of the batch.
+     */
+    BatchResult run(int parallelism, Executor executor) {
+        long start = System.nanoTime();
+        if (parallelism <= 1) {
+            work(false);
+        } else {
+            CompletableFuture<?>[] workers = new CompletableFuture<?>[parallelism];
+            for (int i = 0; i < parallelism; i++) {
+                workers[i] = CompletableFuture.runAsync(() -> work(true), executor);
+            }
+            CompletableFuture.allOf(workers).join();
+        }
+        synchronized (failures) {
+            return new BatchResult(rendered.sum(), failed.sum(), chars.sum(), System.nanoTime() - start, new ArrayList<>(failures));
+        }
+    }
+
+    private void work(boolean fannedOut) {
+        StringBuilder buffer = BeastEngine.renderBuffers.acquire();
+        try {
+            while (true) {
+                Context context;
+                int index;
+                synchronized (contexts) {
+                    if (!contexts.hasNext()) {
+                        return;
+                    }
+                    context = contexts.next();
+                    index = nextIndex++;
+                }
+                buffer.setLength(0);
+                try {
+                    render(context, buffer, fannedOut);
+                    String output = buffer.toString();
+                    sink.accept(index, context, output);
+                    rendered.increment();
+                    chars.add(output.length());
+                } catch (Exception e) {
+                    failed.increment();
+                    synchronized (failures) {
+                        if (failures.size() < MAX_RECORDED_FAILURES) {
+                            failures.add(new BatchResult.Failure(index, e));
+                        }
+                    }
+                    sink.failed(index, context, e);
+                }
+            }
+        } finally {
+            BeastEngine.renderBuffers.release(buffer);
+        }
+    }
+
+    private void render(Context context, StringBuilder buffer, boolean fannedOut) throws Exception {
+        RenderState state = new RenderState(engine, context, new DeferredValues(), fannedOut);
+        RenderOutput out = new CharRenderOutput(buffer);
+        state.started(out);
+        boolean failed = true;
+        try {
+            template.render(state, out);
+            failed = false;
+        } finally {
+            state.release();
+            state.completed(template.getName(), out, failed);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.beastwall.beastengine;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The counters of a batch render.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+public final class BatchResult {
+    private final long renderedCount;
+    private final long failedCount;
+    private final long outputChars;
+    private final long elapsedNanos;
+    private final List<Failure> failures;
+
+    BatchResult(long renderedCount, long failedCount, long outputChars, long elapsedNanos, List<Failure> failures) {
+        this.renderedCount = renderedCount;
+        this.failedCount = failedCount;
+        this.outputChars = outputChars;
+        this.elapsedNanos = elapsedNanos;
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * @return The number of contexts rendered and handed to the sink.
+     */
+    public long getRenderedCount() {
+        return renderedCount;
+    }
+
+    /**
+     * @return The number of contexts that failed.
+     */
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @return The number of chars rendered.
+     */
+    public long getOutputChars() {
+        return outputChars;
+    }
+
+    /**
+     * @param unit The unit of the result.
+     * @return How long the batch took.
+     */
+    public long getElapsedTime(TimeUnit unit) {
+        return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return The number of contexts processed per second, failed ones included.
+     */
+    public double getItemsPerSecond() {
+        return elapsedNanos == 0 ? 0 : (renderedCount + failedCount) * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return The number of chars rendered per second.
+     */
+    public double getCharsPerSecond() {
+        return elapsedNanos == 0 ? 0 : outputChars * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return The first 1000 failures, in no particular order when the batch fans out,
+     * the sink is told about all of them.
+     */
+    public List<Failure> getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{rendered=" + renderedCount + ", failed=" + failedCount + ", chars=" + outputChars
+                + ", elapsedMs=" + getElapsedTime(TimeUnit.MILLISECONDS) + ", itemsPerSecond=" + Math.round(getItemsPerSecond()) + "}";
+    }
+
+    /**
+     * A context of the batch that failed.
+     */
+    public static final class Failure {
+        private final int index;
+        private final Exception error;
+
+        Failure(int index, Exception error) {
+            this.index = index;
+            this.error = error;
+        }
+
+        /**
+         * @return The position of the context in the batch.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return What went wrong.
+         */
+        public Exception getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.beastwall.beastengine;
+
+/**
+ * Receives the outputs of a batch render, see {@link BeastHtmlEngine#renderAll(String, Iterable, BatchSink)}.
+ * When the batch fans out, it is called from several threads at once.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+@FunctionalInterface
+public interface BatchSink {
+
+    /**
+     * Called with the output of every context that rendered.
+     *
+     * @param index   The position of the context in the batch.
+     * @param context The context.
+     * @param output  The rendered output.
+     * @throws Exception If the output can't be handled, the item is then reported as failed.
+     */
+    void accept(int index, Context context, String output) throws Exception;
+
+    /**
+     * Called for every context that failed to render, or whose output the sink failed to handle.
+     * The batch carries on with the next context.
+     *
+     * @param index   The position of the context in the batch.
+     * @param context The context.
+     * @param error   What went wrong.
+     */
+    default void failed(int index, Context context, Exception error) {
+    }
+}
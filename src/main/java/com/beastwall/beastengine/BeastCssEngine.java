@@ -1,6 +1,37 @@
 package com.beastwall.beastengine;
 
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Renders stylesheet templates, e.g. a theme whose colors and sizes are variables of the {@link Context}:
+ * <pre>
+ * .button { background: {{ primaryColor }}; }
+ * </pre>
+ * Templates use the syntax of {@link BeastTextEngine}. Rendered stylesheets can be scoped to their component
+ * and minified, and are cached by template and by the values of the variables the template references,
+ * so rendering the same theme again is a lookup. Only stylesheets whose variables all hold strings, numbers,
+ * booleans, characters or enums are cached; the others, e.g. of a theme object, are rendered each time,
+ * since a value changed in place wouldn't be noticed by the cache.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
 public class BeastCssEngine extends BeastTextEngine {
+    /**
+     * Default memory budget of the stylesheet cache, 8 MB.
+     */
+    static final long DEFAULT_STYLESHEET_BUDGET = 8L * 1024 * 1024;
+
+    private final BoundedCache<Key, Stylesheet> stylesheets = new BoundedCache<>(DEFAULT_STYLESHEET_BUDGET,
+            stylesheet -> 160L + 3L * stylesheet.utf8.length);
+    private volatile boolean minify;
+    private volatile String scopeAttribute;
 
     public BeastCssEngine() {
         super();
@@ -9,9 +40,215 @@ public class BeastCssEngine extends BeastTextEngine {
     public BeastCssEngine(String componentsPath) {
         super(componentsPath);
     }
-    
+
+    public BeastCssEngine(ComponentSource componentSource) {
+        super(componentSource);
+    }
+
+    /**
+     * Render a stylesheet template string, it isn't scoped.
+     *
+     * @param template The template string.
+     * @param context  The context containing variables for the template.
+     * @return The stylesheet.
+     * @throws Exception If an error occurs during rendering.
+     */
+    public Stylesheet stylesheet(String template, Context context) throws Exception {
+        return stylesheet(compile(template), null, context);
+    }
+
+    /**
+     * Render a stylesheet component, scoped to the component if a scope attribute is set.
+     *
+     * @param componentName The name of the component.
+     * @param context       The context containing variables for the template.
+     * @return The stylesheet.
+     * @throws Exception If an error occurs during rendering.
+     */
+    public Stylesheet stylesheetComponent(String componentName, Context context) throws Exception {
+        return stylesheet(compileComponent(componentName), componentName, context);
+    }
+
+    @Override
+    public String process(String template, Context context) throws Exception {
+        return stylesheet(template, context).getCss();
+    }
+
+    @Override
+    public String processComponent(String componentName, Context context) throws Exception {
+        return stylesheetComponent(componentName, context).getCss();
+    }
+
+    @Override
+    public void render(String componentName, Context context, Appendable out) throws Exception {
+        write(stylesheetComponent(componentName, context), newOutput(out));
+    }
+
+    @Override
+    public void render(String componentName, Context context, OutputStream out) throws Exception {
+        write(stylesheetComponent(componentName, context), newOutput(out));
+    }
+
+    @Override
+    public void render(String componentName, Context context, WritableByteChannel out) throws Exception {
+        write(stylesheetComponent(componentName, context), newOutput(out));
+    }
+
+    private void write(Stylesheet stylesheet, RenderOutput output) throws Exception {
+        output.appendStatic(stylesheet.getCss(), stylesheet.utf8);
+        output.finish();
+    }
+
+    private Stylesheet stylesheet(TextTemplate template, String componentName, Context context) throws Exception {
+        String scope = componentName != null && scopeAttribute != null
+                ? "[" + scopeAttribute + "=\"" + componentName + "\"]" : null;
+        ContextScope variables = new ContextScope(context, new DeferredValues(), getRenderListener());
+        try {
+            Set<String> names = template.getVariables();
+            Object[] values = new Object[names.size()];
+            boolean cacheable = true;
+            int i = 0;
+            for (String name : names) {
+                Object value = variables.variable(name);
+                cacheable &= isImmutable(value);
+                values[i++] = value;
+            }
+            Key key = cacheable ? new Key(template, componentName, Arrays.asList(values)) : null;
+            Stylesheet stylesheet = key != null ? stylesheets.getIfPresent(key) : null;
+            if (stylesheet == null) {
+                String css;
+                StringBuilder buffer = renderBuffers.acquire();
+                RenderOutput out = new CharRenderOutput(buffer);
+                variables.started(out);
+                boolean failed = true;
+                try {
+                    template.render(variables, out);
+                    css = out.toString();
+                    failed = false;
+                } finally {
+                    variables.completed(template.getName(), out, failed);
+                    renderBuffers.release(buffer);
+                }
+                if (scope != null) {
+                    css = CssProcessor.scope(css, scope);
+                }
+                if (minify) {
+                    css = CssProcessor.minify(css);
+                }
+                stylesheet = new Stylesheet(css);
+                if (key != null) {
+                    stylesheets.put(key, stylesheet);
+                }
+            }
+            return stylesheet;
+        } finally {
+            variables.release();
+        }
+    }
+
+    /**
+     * Whether rendered stylesheets are minified.
+     *
+     * @return true if stylesheets are minified.
+     */
+    public boolean isMinify() {
+        return minify;
+    }
+
+    /**
+     * Minify rendered stylesheets: comments and unneeded whitespace are dropped.
+     *
+     * @param minify true to minify stylesheets.
+     */
+    public void setMinify(boolean minify) {
+        this.minify = minify;
+        stylesheets.invalidateAll();
+    }
+
+    /**
+     * Get the attribute stylesheet components are scoped with.
+     *
+     * @return The attribute, null if components aren't scoped.
+     */
+    public String getScopeAttribute() {
+        return scopeAttribute;
+    }
+
+    /**
+     * Scope the selectors of stylesheet components, e.g. with {@code data-component} the rules of the
+     * {@code card} component only apply under {@code [data-component="card"]}.
+     *
+     * @param scopeAttribute The attribute, null to not scope components.
+     */
+    public void setScopeAttribute(String scopeAttribute) {
+        this.scopeAttribute = scopeAttribute;
+        stylesheets.invalidateAll();
+    }
+
+    /**
+     * Get the stats of the stylesheet cache, its weight is the estimated retained size of the stylesheets in bytes.
+     *
+     * @return The stylesheet cache stats.
+     */
+    public CacheStats getStylesheetCacheStats() {
+        return stylesheets.stats();
+    }
+
+    /**
+     * Get the memory budget of the stylesheet cache.
+     *
+     * @return The budget in bytes.
+     */
+    public long getStylesheetCacheBudget() {
+        return stylesheets.getMaximumWeight();
+    }
+
+    /**
+     * Set the memory budget of the stylesheet cache, the least recently used stylesheets are evicted
+     * when their total size goes over it.
+     *
+     * @param budget The budget in bytes.
+     */
+    public void setStylesheetCacheBudget(long budget) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("Stylesheet cache budget must be positive: " + budget);
+        }
+        stylesheets.setMaximumWeight(budget);
+    }
+
+    /**
+     * Drop every cached stylesheet.
+     */
+    public void invalidateStylesheets() {
+        stylesheets.invalidateAll();
+    }
+
+    @Override
+    void componentChanged(String name) {
+        super.componentChanged(name);
+        // stylesheets of the old template can't be looked up anymore, don't wait for them to be evicted
+        stylesheets.invalidateIf(key -> name.equals(key.componentName()));
+    }
+
     @Override
     String componentExtension() {
         return ".css";
     }
+
+    /**
+     * Whether a value can be part of a cache key: it can't change, and it equals the same value of another render.
+     */
+    private static boolean isImmutable(Object value) {
+        return value == null || value instanceof String || value instanceof Boolean || value instanceof Character
+                || value instanceof Enum || value instanceof Integer || value instanceof Long || value instanceof Double
+                || value instanceof Float || value instanceof Short || value instanceof Byte
+                || value instanceof BigDecimal || value instanceof BigInteger;
+    }
+
+    /**
+     * @param componentName The component, null for a template string.
+     * @param values        The values of the variables the template references.
+     */
+    private record Key(TextTemplate template, String componentName, List<Object> values) {
+    }
 }
@@ -1,23 +1,14 @@
 package com.beastwall.beastengine;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Node;
-import org.jsoup.parser.Parser;
-
 import javax.script.*;
-import java.io.IOException;
-import java.io.InputStream;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiFunction;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 /**
  * BeastEngine is an abstract base class for template processing engines.
@@ -29,25 +20,30 @@ import java.util.stream.Stream;
  */
 public abstract class BeastEngine {
     protected static final String TAG_PREFIX = "bs:";
-    protected static String TEMPLATES_PATH;
-    static Pattern INTERPOLATION_PATTERN = Pattern.compile("\\{\\{\\s*(.*?)\\s*\\}\\}");
-
-    static final Pattern SIMPLE_VARIABLE_PATTERN = Pattern.compile("^[a-zA-Z_$][a-zA-Z0-9_$]*(\\.[a-zA-Z_$][a-zA-Z0-9_$]*)*$");
-
-    static final ThreadLocal<ScriptEngine> scriptEngineThreadLocal = ThreadLocal.withInitial(() ->
-            new ScriptEngineManager().getEngineByName("nashorn")
-    );
-
-    static final ThreadLocal<HashMap<String, CompiledScript>> expressionCacheThreadLocal = ThreadLocal.withInitial(HashMap::new);
+    /**
+     * {@code {{{ raw }}}} or {@code {{ escaped }}}, the expression is group 1 of the former and group 2 of the latter.
+     */
+    static Pattern INTERPOLATION_PATTERN = Pattern.compile("\\{\\{\\{\\s*(.*?)\\s*\\}\\}\\}|\\{\\{\\s*(.*?)\\s*\\}\\}");
 
-    static final ThreadLocal<HashMap<String, Method>> methodCacheThreadLocal = ThreadLocal.withInitial(HashMap::new);
+    /**
+     * The global scopes script expressions run in, borrowed for the renders that need one.
+     */
+    static final BindingsPool scriptBindings = new BindingsPool(BeastEngine::scriptEngine,
+            Integer.getInteger("beastengine.scriptPoolSize", Math.max(4, Runtime.getRuntime().availableProcessors() * 2)),
+            Long.getLong("beastengine.scriptPoolTimeout", 30_000));
 
-    static final ThreadLocal<StringBuilder> stringBuilderPool = ThreadLocal.withInitial(() ->
-            new StringBuilder(1024));
-    protected static final Map<String, Object> components = new ConcurrentHashMap<>();
+    /**
+     * Buffers of the renders that produce a string.
+     */
+    static final BufferPool renderBuffers = new BufferPool(Runtime.getRuntime().availableProcessors() * 4, 1024);
+    private final ComponentSource componentSource;
+    final ComponentRegistry registry = new ComponentRegistry(ComponentRegistry.DEFAULT_BUDGET);
+    private int outputBufferSize = 8 * 1024;
+    private boolean autoFlush;
+    private volatile RenderListener renderListener;
 
     /**
-     * Default constructor. Initializes the TEMPLATES_PATH.
+     * Default constructor, components are loaded from the "components" resource folder.
      */
     public BeastEngine() {
         this("components");
@@ -59,7 +55,18 @@ public abstract class BeastEngine {
      * @param componentsResourceFolderName The path to the components directory.
      */
     public BeastEngine(String componentsResourceFolderName) {
-        TEMPLATES_PATH = componentsResourceFolderName;
+        this(new ClasspathComponentSource(componentsResourceFolderName));
+    }
+
+    /**
+     * Constructor with a custom component source, e.g. a {@link DirectoryComponentSource} that reloads
+     * components when their templates change.
+     *
+     * @param componentSource Where the components are loaded from.
+     */
+    public BeastEngine(ComponentSource componentSource) {
+        this.componentSource = componentSource;
+        componentSource.addChangeListener(this::componentSourceChanged);
     }
 
 
@@ -84,298 +91,423 @@ public abstract class BeastEngine {
     public abstract String processComponent(String componentName, Context context) throws Exception;
 
     /**
-     * Get the file extension for component files.
+     * Render a component with the given context, writing the output incrementally to {@code out}.
+     * Output is buffered up to {@link #getOutputBufferSize()} chars before it is written to {@code out}.
      *
-     * @return The file extension string.
+     * @param componentName The name of the component to render.
+     * @param context       The context containing variables for the template.
+     * @param out           The destination of the output, e.g. a {@link Writer} or a {@link StringBuilder}.
+     * @throws Exception If an error occurs during rendering.
      */
-    abstract String componentExtension();
+    public abstract void render(String componentName, Context context, Appendable out) throws Exception;
 
     /**
-     * Read a template from a resource file.
+     * Render a component with the given context, writing the output incrementally to {@code out} as UTF-8.
      *
-     * @param name The name of the template resource to read.
-     * @return The contents of the template as a string.
+     * @param componentName The name of the component to render.
+     * @param context       The context containing variables for the template.
+     * @param out           The destination of the output, it is flushed but not closed.
+     * @throws Exception If an error occurs during rendering.
      */
-    protected Object readComponent(String name) throws IOException {
-        // case it's cached
-        Object cmp = components.get(name + ".component" + componentExtension());
-        if (cmp == null) {
-            if (TEMPLATES_PATH == null || TEMPLATES_PATH.trim().isEmpty()) {
-                TEMPLATES_PATH = "app";
-            }
-            String path = name.trim().equals("app") ? TEMPLATES_PATH + "/" + name + ".component.html" : TEMPLATES_PATH + "/" + name + "/" + name + ".component" + componentExtension();
-            InputStream inputStream = getClass().getClassLoader().getResourceAsStream(path);
+    public void render(String componentName, Context context, OutputStream out) throws Exception {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        render(componentName, context, writer);
+        writer.flush();
+    }
 
-            if (inputStream == null) {
-                throw new RuntimeException("Couldn't find component: " + name + ".component" + componentExtension());
-            }
-            //
-            cmp = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
-            if (componentExtension().equals(".html"))
-                cmp = Jsoup.parse((String) cmp, "", Parser.htmlParser());
+    /**
+     * Render a component with the given context, writing the output incrementally to {@code out} as UTF-8.
+     * Engines that keep their static markup encoded hand it to the channel without copying it,
+     * with gathering writes when the channel is a {@link java.nio.channels.GatheringByteChannel}.
+     *
+     * @param componentName The name of the component to render.
+     * @param context       The context containing variables for the template.
+     * @param out           The destination of the output, it is not closed.
+     * @throws Exception If an error occurs during rendering.
+     */
+    public void render(String componentName, Context context, WritableByteChannel out) throws Exception {
+        OutputStream stream = Channels.newOutputStream(out);
+        render(componentName, context, stream);
+    }
+
+    /**
+     * Get the number of chars, or bytes for byte destinations, buffered before streamed output is written to its destination.
+     *
+     * @return The output buffer size.
+     */
+    public int getOutputBufferSize() {
+        return outputBufferSize;
+    }
 
-            components.put(name + ".component" + componentExtension(), cmp);
-            return cmp;
+    /**
+     * Set the number of chars, or bytes for byte destinations, buffered before streamed output is written to its destination.
+     * Smaller buffers get the first bytes out sooner, larger ones mean fewer writes.
+     *
+     * @param outputBufferSize The output buffer size.
+     */
+    public void setOutputBufferSize(int outputBufferSize) {
+        if (outputBufferSize < 1) {
+            throw new IllegalArgumentException("Output buffer size must be positive: " + outputBufferSize);
         }
-        return cmp;
+        this.outputBufferSize = outputBufferSize;
     }
 
     /**
-     * Read a template from a resource file.
+     * Whether streamed output is flushed every time the buffer is written to its destination.
      *
-     * @param name The name of the template resource to read.
-     * @return The contents of the template as a string.
+     * @return true if the destination is flushed on every write.
      */
-    protected String readStrComponent(String name) throws IOException {
-        // case it's cached
-        String cmp = ((String) components.get(name + ".component" + componentExtension()));
-        if (cmp == null) {
-            if (TEMPLATES_PATH == null || TEMPLATES_PATH.trim().isEmpty()) {
-                TEMPLATES_PATH = "app";
-            }
-            String path = name.trim().equals("app") ? TEMPLATES_PATH + "/" + name + ".component.html" : TEMPLATES_PATH + "/" + name + "/" + name + ".component" + componentExtension();
-            InputStream inputStream = getClass().getClassLoader().getResourceAsStream(path);
+    public boolean isAutoFlush() {
+        return autoFlush;
+    }
 
-            if (inputStream == null) {
-                throw new RuntimeException("Couldn't find component: " + name + ".component" + componentExtension());
-            }
-            cmp = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
-            components.put(name + ".component" + componentExtension(), cmp);
-            return cmp;
+    /**
+     * Flush the destination every time the buffer is written to it, e.g. to let a servlet
+     * send the start of the page before it is finished.
+     *
+     * @param autoFlush true to flush on every write.
+     */
+    public void setAutoFlush(boolean autoFlush) {
+        this.autoFlush = autoFlush;
+    }
+
+    /**
+     * Get the listener the engine reports its renders to.
+     *
+     * @return The listener, null if there is none.
+     */
+    public RenderListener getRenderListener() {
+        return renderListener;
+    }
+
+    /**
+     * Report the renders of the engine to a listener, e.g. a {@link RenderMetrics}: render times, expression
+     * evaluations, compilations, loop iterations, output size and the expressions that failed without failing
+     * the render. Renders aren't measured without a listener, JFR events are recorded either way when
+     * a recording enables them.
+     *
+     * @param renderListener The listener, null to stop reporting.
+     */
+    public void setRenderListener(RenderListener renderListener) {
+        this.renderListener = renderListener;
+    }
+
+    /**
+     * Compile a template, reporting the compilation to the listener.
+     *
+     * @param componentName The name of the component, null for a template string.
+     * @param source        The template source.
+     * @param compiler      The compiler.
+     * @return The compiled template.
+     */
+    <T> T compile(String componentName, String source, BiFunction<String, String, T> compiler) {
+        RenderListener listener = renderListener;
+        if (listener == null) {
+            return compiler.apply(componentName, source);
         }
-        return cmp;
+        long start = System.nanoTime();
+        T template = compiler.apply(componentName, source);
+        listener.templateCompiled(componentName, System.nanoTime() - start);
+        return template;
     }
 
+    /**
+     * Get the expressions the native expression evaluator couldn't compile and that are evaluated by the
+     * script engine instead, e.g. to find the templates worth simplifying.
+     *
+     * @return A read only view of the fallback expressions.
+     */
+    public Set<String> getScriptFallbackExpressions() {
+        return Expressions.scriptFallbacks();
+    }
 
     /**
-     * Capitalize the first letter of a string.
+     * Get the counters of the process wide cache of compiled expressions.
      *
-     * @param s The string to capitalize.
-     * @return The capitalized string.
+     * @return The cache stats.
      */
-    String capitalize(String s) {
-        return s.substring(0, 1).toUpperCase() + s.substring(1);
+    public static CacheStats getExpressionCacheStats() {
+        return Expressions.cache.stats();
     }
 
+    /**
+     * Set the maximum number of compiled expressions kept by the process wide expression cache.
+     *
+     * @param maximumSize The maximum number of cached expressions.
+     */
+    public static void setExpressionCacheSize(long maximumSize) {
+        Expressions.cache.setMaximumWeight(maximumSize);
+    }
 
     /**
-     * Evaluate a conditional expression within the given context.
+     * Remove an expression from the process wide expression cache.
+     * Templates that are already compiled keep the expression they were compiled with.
      *
-     * @param expression      The conditional expression to evaluate.
-     * @param context         The context containing variables for evaluation.
-     * @param scopeIdentifier The identifier for the current scope.
-     * @return The result of the condition evaluation.
+     * @param expression The source of the expression.
      */
-    boolean evaluateCondition(String expression, Context context, String scopeIdentifier, Map<String, Object> resolvedVariables, ScriptEngine engine) {
-        // Check for simple boolean variable conditions
-        if (expression.matches("\\b[a-zA-Z_][a-zA-Z0-9_.]*\\b")) {
-            Object value = resolveNestedVariable(expression, context, scopeIdentifier, resolvedVariables);
-            if (value instanceof Boolean) {
-                return (Boolean) value;
-            }
-            // Handle cases where the value might be a boolean primitive or wrapped boolean
-            if (value != null) {
-                return Boolean.parseBoolean(value.toString());
-            }
-        }
+    public static void invalidateExpression(String expression) {
+        Expressions.cache.invalidate(expression.trim());
+    }
 
-        // For more complex conditions, use the script engine
-        try {
-            // Evaluate the original expression with Nashorn
-            Object result = engine.eval(expression);
-            return Boolean.parseBoolean(result.toString());
-        } catch (ScriptException e) {
-            throw new RuntimeException("Error evaluating expression: " + expression, e);
-        }
+    /**
+     * Remove every expression from the process wide expression cache.
+     * Templates that are already compiled keep the expressions they were compiled with.
+     */
+    public static void invalidateExpressions() {
+        Expressions.cache.invalidateAll();
     }
 
     /**
-     * Resolve a nested variable from the context.
+     * Get the stats of the process wide pool of script engine scopes, expressions the native evaluator
+     * can't handle borrow one for the rest of the render.
      *
-     * @param expression      The variable expression to resolve.
-     * @param context         The context containing variable values.
-     * @param scopeIdentifier The identifier for the current scope.
-     * @return The resolved value of the variable.
+     * @return The pool stats.
      */
-    Object resolveNestedVariable(String expression, Context context, String scopeIdentifier, Map<String, Object> resolvedVariables) {
-        String[] parts = expression.split("\\.");
-        Object value = resolveVariableCached(parts[0], context, scopeIdentifier, resolvedVariables);
+    public static PoolStats getScriptPoolStats() {
+        return scriptBindings.stats();
+    }
 
-        for (int i = 1; i < parts.length && value != null; i++) {
-            try {
-                String propertyName = parts[i];
-                if (value instanceof Map) {
-                    value = ((Map<?, ?>) value).get(propertyName);
-                } else {
-                    // Handle nested property access via getter methods
-                    String capitalizedPropertyName = capitalize(propertyName);
-                    Method method = value.getClass().getMethod("get" + capitalizedPropertyName);
-                    value = method.invoke(value);
-                }
-            } catch (Exception e) {
-                System.err.println("Error resolving nested variable: " + expression + " - " + e.getMessage());
-                return null;
-            }
-        }
-        return value;
+    /**
+     * Get the maximum number of script engine scopes.
+     *
+     * @return The pool size.
+     */
+    public static int getScriptPoolSize() {
+        return scriptBindings.getMaxSize();
     }
 
     /**
-     * Resolve a variable from the context.
+     * Set the maximum number of script engine scopes, each one costs a few megabytes, renders needing one wait
+     * when they are all in use. Defaults to twice the number of processors, or the
+     * {@code beastengine.scriptPoolSize} system property.
      *
-     * @param expression The variable expression to resolve.
-     * @param context    The context containing variable values.
-     * @return The resolved value of the variable.
+     * @param size The pool size.
      */
-    Object resolveVariable(String expression, Context context) {
-        if (!Pattern.compile("^[a-zA-Z_$][a-zA-Z0-9_$]*(\\.[a-zA-Z_$][a-zA-Z0-9_$]*)*$").matcher(expression).matches()) {
-            // not a variable
-            return null;
+    public static void setScriptPoolSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Script pool size must be positive: " + size);
         }
-        String[] parts = expression.split("\\.");
-        Object value = context.get(parts[0]);
-
-        for (int i = 1; i < parts.length && value != null; i++) {
-            try {
-                String propertyName = parts[i];
-                Method method = null;
-                Class<?> valueClass = value.getClass();
-
-                if (boolean.class.equals(valueClass) || Boolean.class.equals(valueClass)) {
-                    try {
-                        Field field = valueClass.getField(propertyName);
-                        return field.get(value);
-                    } catch (NoSuchFieldException e) {
-                        String capitalizedPropertyName = capitalize(propertyName);
-                        try {
-                            method = valueClass.getMethod("is" + capitalizedPropertyName);
-                        } catch (NoSuchMethodException ex) {
-                            throw new NoSuchMethodException("No method found for property: " + propertyName);
-                        }
-                    }
-                } else {
-                    String capitalizedPropertyName = capitalize(propertyName);
-                    try {
-                        method = valueClass.getMethod("get" + capitalizedPropertyName);
-                    } catch (NoSuchMethodException e) {
-                        try {
-                            method = valueClass.getMethod("is" + capitalizedPropertyName);
-                        } catch (NoSuchMethodException ex) {
-                            throw new NoSuchMethodException("No method found for property: " + propertyName);
-                        }
-                    }
-                }
+        scriptBindings.setMaxSize(size);
+    }
 
-                value = method.invoke(value);
-            } catch (Exception e) {
-                System.err.println("Error resolving variable: " + expression + " - " + e.getMessage());
-                return null;
-            }
+    /**
+     * Get how long a render waits for a script engine scope.
+     *
+     * @return The timeout in milliseconds.
+     */
+    public static long getScriptPoolTimeout() {
+        return scriptBindings.getTimeout();
+    }
+
+    /**
+     * Set how long a render waits for a script engine scope before failing. Defaults to 30 seconds, or the
+     * {@code beastengine.scriptPoolTimeout} system property.
+     *
+     * @param timeout The timeout in milliseconds.
+     */
+    public static void setScriptPoolTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Script pool timeout must not be negative: " + timeout);
         }
-        return value;
+        scriptBindings.setTimeout(timeout);
     }
 
     /**
-     * Resolve a variable from the context and cache the result.
+     * Create the output of a streamed render.
      *
-     * @param expression      The variable expression to resolve.
-     * @param context         The context containing variable values.
-     * @param scopeIdentifier The identifier for the current scope.
-     * @return The resolved and cached value of the variable.
+     * @param out The destination of the output.
+     * @return The render output.
      */
-    Object resolveVariableCached(String expression, Context context, String scopeIdentifier, Map<String, Object> resolvedVariables) {
+    RenderOutput newOutput(Appendable out) {
+        return new CharRenderOutput(out, outputBufferSize, autoFlush);
+    }
 
-        if (expression.equals("true"))
-            return true;
-        else if (expression.equals("false"))
-            return false;
-        // Try to parse it into different primitive or wrapper types
-        try {
-            return Integer.parseInt(expression);
-        } catch (NumberFormatException ignored) {
-        }
+    /**
+     * Create the output of a streamed render writing UTF-8 bytes.
+     *
+     * @param out The destination of the output.
+     * @return The render output.
+     */
+    RenderOutput newOutput(OutputStream out) {
+        return new ByteRenderOutput(out, outputBufferSize, autoFlush);
+    }
 
-        try {
-            return Long.parseLong(expression);
-        } catch (NumberFormatException ignored) {
-        }
+    /**
+     * Create the output of a streamed render writing UTF-8 bytes.
+     *
+     * @param out The destination of the output.
+     * @return The render output.
+     */
+    RenderOutput newOutput(WritableByteChannel out) {
+        return new ByteRenderOutput(out, outputBufferSize);
+    }
 
-        try {
-            return Double.parseDouble(expression);
-        } catch (NumberFormatException ignored) {
-        }
+    /**
+     * Get the file extension for component files.
+     *
+     * @return The file extension string.
+     */
+    abstract String componentExtension();
 
+    /**
+     * Read a template from the component source.
+     *
+     * @param name The name of the template resource to read.
+     * @return The contents of the template as a string.
+     */
+    protected Object readComponent(String name) throws IOException {
+        return readStrComponent(name);
+    }
+
+    /**
+     * Read a template from the component source, templates are cached in the engine's registry.
+     *
+     * @param name The name of the template resource to read.
+     * @return The contents of the template as a string.
+     */
+    protected String readStrComponent(String name) throws IOException {
         try {
-            return Float.parseFloat(expression);
-        } catch (NumberFormatException ignored) {
+            return registry.source(name, n -> {
+                try {
+                    return loadComponent(n);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-        String cacheKey = scopeIdentifier + ":" + expression;
-        Object var = resolvedVariables.get(cacheKey);
-        if (var == null) {
-            var = resolveVariable(expression, context);
-            resolvedVariables.put(cacheKey, var);
-            return var;
+    }
+
+    /**
+     * Get where a component is in the component source: {@code app.component.html} for the root component,
+     * {@code <name>/<name>.component<extension>} for the others.
+     *
+     * @param name      The name of the component.
+     * @param extension The extension of the components of the engine, see {@link #componentExtension()}.
+     * @return The path of the component.
+     */
+    static String componentPath(String name, String extension) {
+        return name.trim().equals("app") ? name + ".component.html" : name + "/" + name + ".component" + extension;
+    }
+
+    private String loadComponent(String name) throws IOException {
+        String path = componentPath(name, componentExtension());
+        String cmp = componentSource.read(path);
+        if (cmp == null) {
+            throw new RuntimeException("Couldn't find component: " + name + ".component" + componentExtension());
         }
-        return var;
+        return cmp;
+    }
+
+    /**
+     * Get the source components are loaded from.
+     *
+     * @return The component source.
+     */
+    public ComponentSource getComponentSource() {
+        return componentSource;
     }
 
     /**
-     * Evaluate an expression within the given context.
+     * Drop everything cached for a component, its template is loaded again on next use.
+     * Cached output of the components that include it is dropped too.
      *
-     * @param expression      The expression to evaluate.
-     * @param context         The context containing variables for evaluation.
-     * @param scopeIdentifier The identifier for the current scope.
-     * @return The result of the expression evaluation.
-     * @throws ScriptException If an error occurs during script evaluation.
+     * @param name The name of the component.
      */
-    Object eval(String expression, Context context, String scopeIdentifier, Map<String, Object> resolvedVariables, ScriptEngine engine) throws ScriptException {
-        Object resolved = resolveVariableCached(expression, context, scopeIdentifier, resolvedVariables);
-        engine.put(scopeIdentifier, resolved);
-        if (resolved == null) {
-            resolved = engine.eval(expression);
+    public void invalidateComponent(String name) {
+        registry.invalidate(name);
+        componentChanged(name);
+    }
+
+    /**
+     * Called when a component is invalidated, engines drop what they derived from its template.
+     *
+     * @param name The name of the component.
+     */
+    void componentChanged(String name) {
+    }
+
+    /**
+     * Get the stats of the engine's component registry, its weight is the estimated retained size
+     * of the cached templates, plans and outputs in bytes.
+     *
+     * @return The registry stats.
+     */
+    public CacheStats getComponentCacheStats() {
+        return registry.stats();
+    }
+
+    /**
+     * Get the memory budget of the engine's component registry.
+     *
+     * @return The budget in bytes.
+     */
+    public long getComponentCacheBudget() {
+        return registry.getBudget();
+    }
+
+    /**
+     * Set the memory budget of the engine's component registry, the least recently used components
+     * are evicted when their estimated retained size goes over it and loaded again on next use.
+     *
+     * @param budget The budget in bytes.
+     */
+    public void setComponentCacheBudget(long budget) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("Component cache budget must be positive: " + budget);
         }
-        return resolved;
-    }
-
-    /**
-     * Process text by interpolating variables and expressions.
-     *
-     * @param content         The text to process or an element that contains the text.
-     * @param context         The context containing variables for interpolation.
-     * @param scopeIdentifier The identifier for the current scope.
-     * @throws ScriptException If an error occurs during script evaluation.
-     */
-    String processText(Object content, Context context, String scopeIdentifier, Map<String, Object> resolvedVariables, ScriptEngine engine) throws ScriptException {
-        String text;
-        if (content instanceof Element)
-            text = ((Element) content).text();
-        else text = content.toString();
-        Matcher matcher = INTERPOLATION_PATTERN.matcher(text);
-        int lastIndex = 0;
-        StringBuilder result = new StringBuilder();
-        while (matcher.find()) {
-            result.append(text, lastIndex, matcher.start());
-            String expression = matcher.group(1).trim();
-            Object resolved = eval(expression, context, scopeIdentifier, resolvedVariables, engine);
-            result.append(resolved != null ? resolved.toString() : "");
-            lastIndex = matcher.end();
+        registry.setBudget(budget);
+    }
+
+    /**
+     * Drop every component the engine has loaded.
+     */
+    public void invalidateComponents() {
+        registry.invalidateAll();
+    }
+
+    /**
+     * List the components of the component source, the templates that aren't where the engine
+     * looks for a component are left out.
+     *
+     * @return The names of the components, empty if the source can't list them.
+     * @throws IOException If the source can't be listed.
+     */
+    Set<String> componentNames() throws IOException {
+        Set<String> names = new TreeSet<>();
+        String suffix = ".component" + componentExtension();
+        for (String path : componentSource.list()) {
+            String fileName = path.substring(path.lastIndexOf('/') + 1);
+            if (fileName.endsWith(suffix)) {
+                String name = fileName.substring(0, fileName.length() - suffix.length());
+                if (path.equals(componentPath(name, componentExtension()))) {
+                    names.add(name);
+                }
+            }
         }
-        result.append(text, lastIndex, text.length());
-        if (content instanceof Element)
-            ((Element) content).text(result.toString());
+        return names;
+    }
 
-        return result.toString();
+    private void componentSourceChanged(String path) {
+        String fileName = path.substring(path.lastIndexOf('/') + 1);
+        int end = fileName.indexOf(".component.");
+        if (end > 0) {
+            invalidateComponent(fileName.substring(0, end));
+        }
     }
 
     /**
-     * Clear the cache and reset the script engine.
+     * Get the engine compiling the expressions the native evaluator can't handle, its compiled scripts can run
+     * against any of its bindings. It is only started the first time an expression needs it.
+     *
+     * @return The script engine.
      */
-    void clearCache() {
-        expressionCacheThreadLocal.get().clear();
-        methodCacheThreadLocal.get().clear();
-        stringBuilderPool.get().setLength(0);
-        stringBuilderPool.get().setLength(1024);
-        //scriptEngineThreadLocal.get().createBindings().clear();
+    static ScriptEngine scriptEngine() {
+        return ScriptEngineHolder.ENGINE;
     }
 
-}
\ No newline at end of file
+    private static final class ScriptEngineHolder {
+        static final ScriptEngine ENGINE = new ScriptEngineManager().getEngineByName("nashorn");
+    }
+}
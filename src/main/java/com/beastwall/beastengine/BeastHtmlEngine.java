@@ -1,18 +1,40 @@
 package com.beastwall.beastengine;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.*;
-import org.jsoup.parser.Parser;
-import org.jsoup.select.Elements;
-
-import javax.script.*;
-import java.lang.reflect.Method;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.regex.Matcher;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 public class BeastHtmlEngine extends BeastEngine {
 
-    private static final Parser PARSER = Parser.htmlParser();
+    /**
+     * Component name to the names of the components that include it.
+     */
+    private final Map<String, Set<String>> dependents = new ConcurrentHashMap<>();
+    final FragmentCache fragments = new FragmentCache(FragmentCache.DEFAULT_BUDGET);
+    private volatile Executor renderExecutor;
+    private int parallelComponentThreshold = 2;
+    private int parallelLoopThreshold = 1000;
+    /**
+     * The plans compiled at build time by {@link ComponentCompiler}, read on first use.
+     */
+    private volatile PlanArchive[] precompiled;
+    /**
+     * The snapshot the last warm-up started from.
+     */
+    private volatile PlanArchive snapshot;
 
     public BeastHtmlEngine() {
         super();
@@ -22,379 +44,773 @@ public class BeastHtmlEngine extends BeastEngine {
         super(componentsPath);
     }
 
+    public BeastHtmlEngine(ComponentSource componentSource) {
+        super(componentSource);
+    }
+
     @Override
     public String process(String template, Context context) throws Exception {
-        Document doc = Jsoup.parse(template, "", PARSER);
-        ScriptEngine engine = scriptEngineThreadLocal.get();
-        Map<String, Object> resolvedVariables = new HashMap<>(context.size() * 2);
-
-        // Pre-bind context variables
-        context.forEach((key, value) -> {
-            engine.put(key, value);
-            resolvedVariables.put(key, value);
-        });
+        return process(compile(template), context);
+    }
 
-        processNode(doc, context, "", resolvedVariables, engine);
-        String result = doc.toString().replaceAll("bs:", "");
-        clearCache();
-        return result;
-    }
-
-    private void processNode(Node node, Context context, String scopeIdentifier,
-                             Map<String, Object> resolvedVariables, ScriptEngine engine) throws Exception {
-        if (node instanceof TextNode) {
-            processTextNode((TextNode) node, context, scopeIdentifier, resolvedVariables, engine);
-        } else if (node instanceof Element) {
-            Element element = (Element) node;
-            String tagName = element.tagName();
-
-            switch (tagName) {
-                case TAG_PREFIX + "var":
-                    processVar(element, context, engine);
-                    element.remove();
-                    break;
-                case TAG_PREFIX + "if":
-                    processIf(element, context, scopeIdentifier, resolvedVariables, engine);
-                    break;
-                case TAG_PREFIX + "switch":
-                    processSwitch(element, context, scopeIdentifier, resolvedVariables, engine);
-                    break;
-                case TAG_PREFIX + "for":
-                    processFor(element, context, scopeIdentifier, resolvedVariables, engine);
-                    break;
-                case TAG_PREFIX + "repeat":
-                    processRepeat(element, context, scopeIdentifier, resolvedVariables, engine);
-                    break;
-                case TAG_PREFIX + "component":
-                    processComponent(element, context, scopeIdentifier, resolvedVariables, engine);
-                    break;
-
-                case TAG_PREFIX + "router":
-                    String route = ((String) context.get(TAG_PREFIX + "path")).trim();
-                    element.childNodes().stream().filter(child -> child.nameIs("route") && route.equalsIgnoreCase(child.attr("path").trim())).findFirst().ifPresent(child -> {
-                        //
-                        try {
-                            element.replaceWith(renderComponent(child.attr("component").trim(), context, scopeIdentifier, child.attributes().hasKey("static"), resolvedVariables, engine));
-                        } catch (Exception e) {
-                            throw new RuntimeException(e);
-                        }
-                    });
-                    break;
-                default:
-                    processAttributes(element, context, scopeIdentifier, resolvedVariables, engine);
-                    processChildren(element, context, scopeIdentifier, resolvedVariables, engine);
+    /**
+     * Compile a template string into a reusable render plan, plans are cached by template source.
+     *
+     * @param template The template string to compile.
+     * @return The compiled template.
+     */
+    public Template compile(String template) {
+        return registry.template(template, source -> compile(null, source, TemplateCompiler::compile));
+    }
+
+    /**
+     * Compile a component into a reusable render plan, plans are cached by component name.
+     *
+     * @param componentName The name of the component to compile.
+     * @return The compiled component.
+     */
+    public Template compileComponent(String componentName) {
+        return registry.plan(componentName, name -> {
+            Template template;
+            try {
+                template = compile(name, readStrComponent(name), this::compileComponentSource);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-        }
+            for (String component : template.getComponents()) {
+                dependents.computeIfAbsent(component, k -> ConcurrentHashMap.newKeySet()).add(name);
+            }
+            return template;
+        });
     }
 
-    // Optimize text node processing
-    private void processTextNode(TextNode textNode, Context context, String scopeIdentifier,
-                                 Map<String, Object> resolvedVariables, ScriptEngine engine) throws ScriptException {
-        String text = textNode.text();
-        if (!text.contains("{{")) {
-            return; // Early exit for non-template text
+    /**
+     * Compile a component, or load its plan if it was compiled from the same source at build time or by a warm-up.
+     */
+    private Template compileComponentSource(String name, String source) {
+        PlanArchive[] archives = precompiledPlans();
+        PlanArchive snapshot = this.snapshot;
+        if (archives.length > 0 || snapshot != null) {
+            byte[] hash = PlanArchive.hash(source);
+            // the snapshot of the last warm-up first, then the plans compiled at build time
+            Template template = snapshot != null ? snapshot.get(name, hash) : null;
+            for (int i = 0; template == null && i < archives.length; i++) {
+                template = archives[i].get(name, hash);
+            }
+            if (template != null) {
+                return template;
+            }
         }
+        return TemplateCompiler.compile(name, source);
+    }
 
-        StringBuilder sb = stringBuilderPool.get();
-        sb.setLength(0); // Reset StringBuilder
-
-        Matcher matcher = INTERPOLATION_PATTERN.matcher(text);
-        int lastPos = 0;
-
-        while (matcher.find()) {
-            // Append text before match
-            sb.append(text, lastPos, matcher.start());
+    /**
+     * Compile every component of the component source, in parallel, along with the scripts of their script engine
+     * expressions, so the first renders after startup don't pay for it.
+     *
+     * @return The number of compiled components.
+     * @throws IOException           If the component source can't be listed or a component can't be read.
+     * @throws IllegalStateException If a component can't be compiled, after every other component was.
+     * @see #warmUp(Path)
+     */
+    public int warmUp() throws IOException {
+        return warmUp(null);
+    }
 
-            String expression = matcher.group(1).trim();
-            Object result;
+    /**
+     * Compile every component of the component source, in parallel, along with the scripts of their script engine
+     * expressions, so the first renders after startup don't pay for it.
+     * The plans are kept in a snapshot file for the next start: components whose source hasn't changed
+     * since are loaded from the memory mapped snapshot instead of being parsed, and the snapshot is rewritten
+     * when a component changed. A snapshot that can't be read is ignored.
+     * <p>
+     * A mapped file can't be replaced on every platform, and other engines of the process may still be reading it,
+     * so each snapshot is written to a new version next to the snapshot file, {@code <snapshot file>.1},
+     * {@code <snapshot file>.2} and so on, and the latest version is the one read. Older versions are deleted
+     * when they can be; a version still mapped, e.g. on Windows, is left for a later warm-up to delete.
+     *
+     * @param snapshotFile The snapshot file the versions are named after, null to not keep a snapshot.
+     * @return The number of compiled components.
+     * @throws IOException           If the component source can't be listed, a component can't be read,
+     *                               or the snapshot can't be written.
+     * @throws IllegalStateException If a component can't be compiled, after every other component was.
+     */
+    public int warmUp(Path snapshotFile) throws IOException {
+        PlanArchive previous = null;
+        long version = 0;
+        if (snapshotFile != null) {
+            NavigableMap<Long, Path> versions = snapshotVersions(snapshotFile);
+            if (!versions.isEmpty()) {
+                version = versions.lastKey();
+                try {
+                    previous = PlanArchive.map(versions.lastEntry().getValue());
+                    snapshot = previous;
+                } catch (IOException e) {
+                    // written by another version, a new one is written below
+                }
+            }
+        }
+        Map<String, Template> templates = new ConcurrentHashMap<>();
+        Map<String, byte[]> hashes = new ConcurrentHashMap<>();
+        Map<String, String> errors = new ConcurrentSkipListMap<>();
+        componentNames().parallelStream().forEach(name -> {
+            try {
+                Template template = compileComponent(name);
+                PlanNodes.precompile(template.nodes);
+                hashes.put(name, PlanArchive.hash(readStrComponent(name)));
+                templates.put(name, template);
+            } catch (Exception e) {
+                errors.put(name, String.valueOf(e.getMessage()));
+            }
+        });
+        if (snapshotFile != null && !upToDate(previous, hashes)) {
+            writeSnapshot(snapshotFile, version + 1, templates, hashes);
+        }
+        if (!errors.isEmpty()) {
+            StringBuilder message = new StringBuilder("Failed to compile ").append(errors.size()).append(" component(s):");
+            errors.forEach((name, error) -> message.append('\n').append(name).append(": ").append(error));
+            throw new IllegalStateException(message.toString());
+        }
+        return templates.size();
+    }
 
-            // Fast path for simple variables
-            if (SIMPLE_VARIABLE_PATTERN.matcher(expression).matches()) {
-                result = resolveVariableFast(expression, context, scopeIdentifier, resolvedVariables);
-            } else {
-                // Use global cache for compiled scripts
-                CompiledScript compiled = expressionCacheThreadLocal.get().computeIfAbsent(expression,
-                        exp -> {
-                            try {
-                                return ((Compilable) engine).compile(exp);
-                            } catch (ScriptException e) {
-                                throw new RuntimeException("Failed to compile: " + exp, e);
-                            }
-                        });
-                result = compiled.eval();
+    /**
+     * Write a new version of a snapshot, then delete the older versions that aren't mapped anymore.
+     */
+    private static void writeSnapshot(Path snapshotFile, long version, Map<String, Template> templates,
+                                      Map<String, byte[]> hashes) throws IOException {
+        Path file = snapshotFile.resolveSibling(snapshotFile.getFileName() + "." + version);
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), snapshotFile.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                PlanArchive.write(new TreeMap<>(templates), hashes, out);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // another process wrote this version first
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        for (Path older : snapshotVersions(snapshotFile).headMap(version).values()) {
+            try {
+                Files.deleteIfExists(older);
+            } catch (IOException e) {
+                // still mapped, deleted by a later warm-up
             }
+        }
+    }
 
-            if (result != null) {
-                sb.append(result);
+    /**
+     * @return The versions of a snapshot, by version number.
+     */
+    private static NavigableMap<Long, Path> snapshotVersions(Path snapshotFile) throws IOException {
+        NavigableMap<Long, Path> versions = new TreeMap<>();
+        Path directory = snapshotFile.toAbsolutePath().getParent();
+        if (directory == null || !Files.isDirectory(directory)) {
+            return versions;
+        }
+        String prefix = snapshotFile.getFileName() + ".";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(prefix) && name.length() > prefix.length() && name.length() - prefix.length() < 19
+                        && name.substring(prefix.length()).chars().allMatch(c -> c >= '0' && c <= '9')) {
+                    versions.put(Long.parseLong(name.substring(prefix.length())), file);
+                }
             }
+        }
+        return versions;
+    }
 
-            lastPos = matcher.end();
+    /**
+     * Whether a snapshot has exactly the given components, compiled from the same sources.
+     */
+    private static boolean upToDate(PlanArchive snapshot, Map<String, byte[]> hashes) {
+        if (snapshot == null || !snapshot.names().equals(hashes.keySet())) {
+            return false;
         }
+        for (Map.Entry<String, byte[]> hash : hashes.entrySet()) {
+            if (!snapshot.contains(hash.getKey(), hash.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        // Append remaining text
-        if (lastPos < text.length()) {
-            sb.append(text, lastPos, text.length());
+    private PlanArchive[] precompiledPlans() {
+        PlanArchive[] archives = precompiled;
+        if (archives == null) {
+            List<PlanArchive> found = new ArrayList<>();
+            try {
+                Enumeration<URL> resources = BeastEngine.class.getClassLoader().getResources(PlanArchive.RESOURCE);
+                while (resources.hasMoreElements()) {
+                    try (InputStream in = resources.nextElement().openStream()) {
+                        found.add(PlanArchive.read(ByteBuffer.wrap(in.readAllBytes())));
+                    } catch (IOException e) {
+                        // an archive of another version, its components are compiled from source
+                    }
+                }
+            } catch (IOException e) {
+                // no archive, every component is compiled from source
+            }
+            archives = found.toArray(new PlanArchive[0]);
+            precompiled = archives;
         }
+        return archives;
+    }
 
-        textNode.text(sb.toString());
+    @Override
+    void componentChanged(String name) {
+        // the plans of the components including it look it up when rendering, only their cached output is stale
+        Set<String> affected = new HashSet<>();
+        collectDependents(name, affected);
+        registry.invalidateStaticOutputs(affected);
+        // fragments record every component they rendered, the ones inside static outputs too
+        fragments.invalidateComponents(Set.of(name));
     }
-    private void processVar(Element element, Context context, ScriptEngine engine) throws ScriptException {
-        String[] expressions = element.ownText().split(";");
-        for (String expression : expressions) {
-            String[] parts = expression.split("=", 2);
-            if (parts.length == 2) {
-                String varName = parts[0].trim();
-                String varValue = parts[1].trim();
-                Object value = engine.eval(varValue);
-                context.put(varName, value);
-                engine.put(varName, value);
+
+    private void collectDependents(String name, Set<String> affected) {
+        if (affected.add(name)) {
+            for (String dependent : dependents.getOrDefault(name, Set.of())) {
+                collectDependents(dependent, affected);
             }
         }
     }
 
-    private void processIf(Element element, Context context, String scopeIdentifier,
-                           Map<String, Object> resolvedVariables, ScriptEngine engine) throws Exception {
-        String condition = element.attr("condition");
-        if (evaluateCondition(condition, context, scopeIdentifier, resolvedVariables, engine)) {
-            processChildren(element, context, scopeIdentifier, resolvedVariables, engine);
-            Elements children = element.children();
-            children.forEach(element::before);
-        }
-        element.remove();
+    /**
+     * Drop the cached {@code bs:cache} fragments whose key starts with a prefix, in every locale.
+     *
+     * @param keyPrefix The prefix of the keys, an empty prefix drops every fragment.
+     */
+    public void invalidateFragments(String keyPrefix) {
+        fragments.invalidate(keyPrefix);
     }
 
-    private void processSwitch(Element element, Context context, String scopeIdentifier,
-                               Map<String, Object> resolvedVariables, ScriptEngine engine) throws Exception {
-        String switchVar = element.attr("var");
-        Object switchValue = resolveVariableFast(switchVar, context, scopeIdentifier, resolvedVariables);
+    /**
+     * Get the stats of the fragment cache, its weight is the size of the cached fragments in bytes.
+     *
+     * @return The fragment cache stats.
+     */
+    public CacheStats getFragmentCacheStats() {
+        return fragments.stats();
+    }
 
-        Element matchingCase = element.getElementsByTag(TAG_PREFIX + "case").stream()
-                .filter(caseE -> Objects.equals(
-                        resolveVariableFast(caseE.attr("match"), context, scopeIdentifier, resolvedVariables),
-                        switchValue))
-                .findFirst()
-                .orElse(element.getElementsByTag(TAG_PREFIX + "default").first());
+    /**
+     * Get the memory budget of the fragment cache.
+     *
+     * @return The budget in bytes.
+     */
+    public long getFragmentCacheBudget() {
+        return fragments.getBudget();
+    }
 
-        if (matchingCase != null) {
-            processChildren(matchingCase, context, scopeIdentifier, resolvedVariables, engine);
-            matchingCase.childNodes().forEach(element::before);
+    /**
+     * Set the memory budget of the fragment cache, the least recently used fragments are evicted
+     * when their total size goes over it.
+     *
+     * @param budget The budget in bytes.
+     */
+    public void setFragmentCacheBudget(long budget) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("Fragment cache budget must be positive: " + budget);
         }
+        fragments.setBudget(budget);
+    }
 
-        element.remove();
+    /**
+     * Get the executor sibling components and large loops are rendered on.
+     *
+     * @return The executor, null when rendering is sequential.
+     */
+    public Executor getRenderExecutor() {
+        return renderExecutor;
     }
 
-    private void processFor(Element element, Context context, String scopeIdentifier,
-                            Map<String, Object> resolvedVariables, ScriptEngine engine) throws Exception {
-        String itemName = element.attr("item");
-        String listName = element.attr("in");
+    /**
+     * Render sibling components and large {@code bs:for} loops on an executor, e.g. a {@link ForkJoinPool}
+     * or a virtual thread per task executor, the {@link Supplier} values of the context are also prefetched on it. Every subtree renders into its own buffer with its own copy of the context,
+     * the buffers are written in document order; so variables set inside a parallel subtree aren't visible after it.
+     * Subtrees don't fork again, and the calling thread waits for them, the executor must not be the one calling the engine
+     * if it has a bounded number of threads.
+     *
+     * @param renderExecutor The executor, null to render sequentially, the default.
+     */
+    public void setRenderExecutor(Executor renderExecutor) {
+        this.renderExecutor = renderExecutor;
+    }
 
-        // First try to resolve the collection directly from context
-        Object collectionObj = context.get(listName);
+    /**
+     * Get the number of sibling components from which they render in parallel.
+     *
+     * @return The threshold.
+     */
+    public int getParallelComponentThreshold() {
+        return parallelComponentThreshold;
+    }
 
-        // If not found directly, try resolving through the variable resolver
-        if (collectionObj == null) {
-            collectionObj = resolveVariableFast(listName, context, scopeIdentifier, resolvedVariables);
-            // System.out.println("Resolved collection through resolver: " + collectionObj);
+    /**
+     * Set the number of sibling components from which they render in parallel, when a render executor is set.
+     *
+     * @param parallelComponentThreshold The threshold, 2 by default.
+     */
+    public void setParallelComponentThreshold(int parallelComponentThreshold) {
+        if (parallelComponentThreshold < 2) {
+            throw new IllegalArgumentException("Parallel component threshold must be at least 2: " + parallelComponentThreshold);
         }
+        this.parallelComponentThreshold = parallelComponentThreshold;
+    }
 
-        // Validate collection
-        if (collectionObj == null) {
-            throw new RuntimeException("Collection '" + listName + "' not found in context");
+    /**
+     * Get the number of items from which a {@code bs:for} loop renders in parallel.
+     *
+     * @return The threshold.
+     */
+    public int getParallelLoopThreshold() {
+        return parallelLoopThreshold;
+    }
+
+    /**
+     * Set the number of items from which a {@code bs:for} loop renders in parallel, when a render executor is set.
+     * The items are split in chunks of consecutive items, smaller loops stay on the calling thread.
+     *
+     * @param parallelLoopThreshold The threshold, 1000 by default.
+     */
+    public void setParallelLoopThreshold(int parallelLoopThreshold) {
+        if (parallelLoopThreshold < 1) {
+            throw new IllegalArgumentException("Parallel loop threshold must be positive: " + parallelLoopThreshold);
         }
+        this.parallelLoopThreshold = parallelLoopThreshold;
+    }
 
-        Collection<?> collection;
-        if (collectionObj instanceof Collection) {
-            collection = (Collection<?>) collectionObj;
-        } else if (collectionObj.getClass().isArray()) {
-            collection = Arrays.asList((Object[]) collectionObj);
-        } else {
-            throw new RuntimeException("Value for '" + listName + "' is not a collection or array");
+    /**
+     * Render a compiled template with the given context.
+     *
+     * @param template The compiled template.
+     * @param context  The context containing variables for the template.
+     * @return The rendered output string.
+     * @throws Exception If an error occurs during rendering.
+     */
+    public String process(Template template, Context context) throws Exception {
+        StringBuilder buffer = renderBuffers.acquire();
+        try {
+            RenderOutput out = new CharRenderOutput(buffer);
+            render(template, context, out);
+            return out.toString();
+        } finally {
+            renderBuffers.release(buffer);
         }
+    }
 
-        // Store the original value of the item variable if it exists
-        Object originalValue = context.get(itemName);
+    /**
+     * Render a compiled template with the given context, writing the output incrementally.
+     *
+     * @param template The compiled template.
+     * @param context  The context containing variables for the template.
+     * @param out      The destination of the output.
+     * @throws Exception If an error occurs during rendering.
+     */
+    public void render(Template template, Context context, Appendable out) throws Exception {
+        RenderOutput output = newOutput(out);
+        render(template, context, output);
+        output.finish();
+    }
 
-        try {
-            int index = 0;
-            for (Object item : collection) {
-                // Update both context and engine with the current item
-                context.put(itemName, item);
-                engine.put(itemName, item);
+    /**
+     * Render a compiled template with the given context, writing the output incrementally as UTF-8.
+     * Static markup is written as it was encoded when the template was compiled.
+     *
+     * @param template The compiled template.
+     * @param context  The context containing variables for the template.
+     * @param out      The destination of the output, it is flushed but not closed.
+     * @throws Exception If an error occurs during rendering.
+     */
+    public void render(Template template, Context context, OutputStream out) throws Exception {
+        RenderOutput output = newOutput(out);
+        render(template, context, output);
+        output.finish();
+    }
 
-                // Add additional loop variables
-                String indexVar = itemName + "_index";
-                context.put(indexVar, index);
-                engine.put(indexVar, index);
+    /**
+     * Render a compiled template with the given context, writing the output incrementally as UTF-8.
+     * Static markup is handed to the channel as it was encoded when the template was compiled,
+     * with gathering writes when the channel is a {@link java.nio.channels.GatheringByteChannel}.
+     *
+     * @param template The compiled template.
+     * @param context  The context containing variables for the template.
+     * @param out      The destination of the output, it is not closed.
+     * @throws Exception If an error occurs during rendering.
+     */
+    public void render(Template template, Context context, WritableByteChannel out) throws Exception {
+        RenderOutput output = newOutput(out);
+        render(template, context, output);
+        output.finish();
+    }
 
-                // Create a unique scope identifier for this iteration
-                String loopScopeIdentifier = scopeIdentifier + "_" + listName + "_" + index;
+    @Override
+    public void render(String componentName, Context context, Appendable out) throws Exception {
+        render(compileComponent(componentName), context, out);
+    }
 
-                // Clear any cached values for this item in resolvedVariables
-                resolvedVariables.remove(loopScopeIdentifier + ":" + itemName);
+    @Override
+    public void render(String componentName, Context context, OutputStream out) throws Exception {
+        render(compileComponent(componentName), context, out);
+    }
 
-                // Clone and process the element
-                Element clone = element.clone();
-                processChildren(clone, context, loopScopeIdentifier, resolvedVariables, engine);
-                clone.childNodes().forEach(element::before);
+    @Override
+    public void render(String componentName, Context context, WritableByteChannel out) throws Exception {
+        render(compileComponent(componentName), context, out);
+    }
 
-                index++;
-            }
-        } finally {
-            // Restore the original value or remove the temporary variable
-            if (originalValue != null) {
-                context.put(itemName, originalValue);
-                engine.put(itemName, originalValue);
-            } else {
-                context.remove(itemName);
-                engine.put(itemName, null);
+    /**
+     * Render a component asynchronously. The {@link CompletableFuture} and {@link Supplier} values of the context the
+     * component and the components it includes reference are prefetched first, suppliers on the render executor,
+     * and the component is rendered once they are all done, so no thread is blocked while they load.
+     * Deferred values the render reads later, e.g. from a script, are waited for then. A failed future only fails
+     * the render if a node reads it. Without a render executor the common {@link ForkJoinPool} is used.
+     *
+     * @param componentName The name of the component to render.
+     * @param context       The context containing variables for the template, it must not be used until the render is done.
+     * @return The future of the rendered output.
+     */
+    public CompletableFuture<String> renderAsync(String componentName, Context context) {
+        return renderAsync(componentName, context, (template, deferred) -> {
+            StringBuilder buffer = renderBuffers.acquire();
+            try {
+                RenderOutput out = new CharRenderOutput(buffer);
+                render(template, context, deferred, out);
+                return out.toString();
+            } finally {
+                renderBuffers.release(buffer);
             }
+        });
+    }
+
+    /**
+     * Render a component asynchronously as a stream of UTF-8 chunks of about the output buffer size,
+     * see {@link #renderAsync(String, Context)}. Every subscriber gets its own render, with its own copy of the context,
+     * a subscriber that doesn't request more chunks holds the render back, one that cancels stops it.
+     *
+     * @param componentName The name of the component to render.
+     * @param context       The context containing variables for the template.
+     * @return The publisher of the rendered output.
+     */
+    public Flow.Publisher<ByteBuffer> renderPublisher(String componentName, Context context) {
+        return new RenderPublisher(this, componentName, context, asyncExecutor());
+    }
+
+    /**
+     * Render a component asynchronously, see {@link #renderAsync(String, Context)}.
+     *
+     * @param componentName The name of the component to render.
+     * @param context       The context containing variables for the template.
+     * @param out           The destination of the output, it is flushed but not closed.
+     * @return The future completed once the output is written.
+     */
+    CompletableFuture<Void> renderAsync(String componentName, Context context, OutputStream out) {
+        return renderAsync(componentName, context, (template, deferred) -> {
+            RenderOutput output = newOutput(out);
+            render(template, context, deferred, output);
+            output.finish();
+            return null;
+        });
+    }
+
+    private <T> CompletableFuture<T> renderAsync(String componentName, Context context, AsyncRender<T> render) {
+        Executor executor = asyncExecutor();
+        return CompletableFuture.supplyAsync(() -> compileComponent(componentName), executor).thenCompose(template -> {
+            DeferredValues deferred = new DeferredValues();
+            CompletableFuture<?>[] pending = prefetch(template, context, deferred, executor).toArray(new CompletableFuture<?>[0]);
+            // failures surface when a node reads the value
+            return CompletableFuture.allOf(pending).handle((ignored, failure) -> null).thenApplyAsync(ignored -> {
+                try {
+                    return render.render(template, deferred);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        });
+    }
+
+    /**
+     * Render a component against every context of a batch, e.g. the personalized mails of a campaign, on the calling thread.
+     * The component is compiled once and the render buffers are reused from one context to the next.
+     * A context that fails is reported to the sink and in the result, the batch carries on.
+     *
+     * @param componentName The name of the component to render.
+     * @param contexts      The contexts, iterated once, they may be produced lazily.
+     * @param sink          Receives the outputs.
+     * @return The counters of the batch.
+     */
+    public BatchResult renderAll(String componentName, Iterable<Context> contexts, BatchSink sink) {
+        return renderAll(componentName, contexts, sink, 1);
+    }
+
+    /**
+     * Render a component against every context of a batch, fanned out to {@code parallelism} workers running on the
+     * render executor, or the common {@link ForkJoinPool} without one; the sink is then called from several threads.
+     * See {@link #renderAll(String, Iterable, BatchSink)}.
+     *
+     * @param componentName The name of the component to render.
+     * @param contexts      The contexts, iterated once, they may be produced lazily.
+     * @param sink          Receives the outputs, it must be thread safe when {@code parallelism} is above 1.
+     * @param parallelism   The number of workers, e.g. the number of processors.
+     * @return The counters of the batch.
+     */
+    public BatchResult renderAll(String componentName, Iterable<Context> contexts, BatchSink sink, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
         }
+        return new BatchRenderer(this, compileComponent(componentName), contexts, sink).run(parallelism, asyncExecutor());
+    }
 
-        element.remove();
+    /**
+     * Render a component and record, for the component and every component it includes, the context variables
+     * it read, so {@link #rerender(RenderHandle, Context, Set)} can render only what a change affects.
+     * The output of included components is wrapped in {@code <!--bs:fragment id-->} and {@code <!--/bs:fragment id-->}
+     * comments so a client can apply the patches. Tracked renders don't use the fragment cache nor the render executor.
+     *
+     * @param componentName The name of the component to render.
+     * @param context       The context containing variables for the template.
+     * @return The handle of the render, its output and a single patch for the whole output.
+     * @throws Exception If an error occurs during rendering.
+     */
+    public RenderHandle renderTracked(String componentName, Context context) throws Exception {
+        Context original = new Context(context);
+        Fragment root = renderFragment("0", componentName, context, original, Collections.emptySet());
+        return new RenderHandle(componentName, root, original, List.of(new Patch(root.id, root.html())));
     }
 
-    private void processRepeat(Element element, Context context, String scopeIdentifier,
-                               Map<String, Object> resolvedVariables, ScriptEngine engine) throws Exception {
-        String timesAttr = element.attr("times");
-        int times;
+    /**
+     * Render a tracked render again after some context variables changed. Only the fragments that read a changed
+     * variable are rendered again, with the context they were rendered with and the new values of the changed
+     * variables; the others are put back together from the previous output.
+     *
+     * @param previous    The handle of the previous render.
+     * @param context     The context with the new values.
+     * @param changedKeys The names of the top level variables that changed, for a path such as {@code user.name}
+     *                    its top level variable is used.
+     * @return The handle of the new render, with the output and a patch for every fragment rendered again.
+     * @throws Exception If an error occurs during rendering.
+     */
+    public RenderHandle rerender(RenderHandle previous, Context context, Set<String> changedKeys) throws Exception {
+        Set<String> changed = new HashSet<>();
+        for (String key : changedKeys) {
+            int dot = key.indexOf('.');
+            changed.add(dot < 0 ? key : key.substring(0, dot));
+        }
+        Context original = new Context(previous.original);
+        applyChanges(original, context, changed);
+        List<Patch> patches = new ArrayList<>();
+        Fragment root = rerender(previous.root, original, context, changed, patches);
+        return new RenderHandle(previous.componentName, root, original, Collections.unmodifiableList(patches));
+    }
 
-        try {
-            times = Integer.parseInt(timesAttr);
-        } catch (NumberFormatException e) {
-            Object resolvedTimes = resolveVariableFast(timesAttr, context, scopeIdentifier, resolvedVariables);
-            if (resolvedTimes instanceof Number) {
-                times = ((Number) resolvedTimes).intValue();
+    private Fragment rerender(Fragment fragment, Context original, Context context, Set<String> changed,
+                              List<Patch> patches) throws Exception {
+        Set<String> effective = new HashSet<>(changed);
+        effective.removeAll(fragment.locals);
+        if (effective.isEmpty()) {
+            return fragment;
+        }
+        Context snapshot = new Context(fragment.snapshot);
+        applyChanges(snapshot, context, effective);
+        if (!Collections.disjoint(fragment.reads, effective)) {
+            Fragment updated = renderFragment(fragment.id, fragment.componentName, snapshot, original,
+                    fragment.locals);
+            patches.add(new Patch(updated.id, updated.html()));
+            return updated;
+        }
+        List<Object> segments = new ArrayList<>(fragment.segments.size());
+        for (Object segment : fragment.segments) {
+            segments.add(segment instanceof Fragment
+                    ? rerender((Fragment) segment, original, context, changed, patches) : segment);
+        }
+        return fragment.withSegments(snapshot, segments);
+    }
+
+    private static void applyChanges(Context target, Context context, Set<String> changed) {
+        for (String key : changed) {
+            if (context.containsKey(key)) {
+                target.put(key, context.get(key));
             } else {
-                throw new RuntimeException("Invalid 'times' attribute for bs:repeat: " + timesAttr);
+                target.remove(key);
             }
         }
+    }
 
-        for (int i = 0; i < times; i++) {
-            Element clone = element.clone();
-            processChildren(clone, context, scopeIdentifier + "_" + i, resolvedVariables, engine);
-            clone.childNodes().forEach(element::before);
+    /**
+     * Render a component as the fragment of a tracked render.
+     *
+     * @param context The context the component is rendered with, it is changed by the render.
+     */
+    private Fragment renderFragment(String id, String componentName, Context context,
+                                    Context original, Set<String> locals) throws Exception {
+        Fragment fragment = new Fragment(id, componentName, new Context(context), locals);
+        RenderState state = new RenderState(this, context, new DeferredValues(), true);
+        state.original = original;
+        state.fragment = fragment;
+        try {
+            compileComponent(componentName).render(state, fragment.output);
+        } finally {
+            state.release();
         }
-
-        element.remove();
+        fragment.finish();
+        return fragment;
     }
 
-    private void processComponent(Element element, Context context, String scopeIdentifier,
-                                  Map<String, Object> resolvedVariables, ScriptEngine engine) throws Exception {
-        String componentName = element.attr("name");
-        boolean isStatic = element.hasAttr("static");
+    /**
+     * Render an included component as a child fragment of the fragment being rendered.
+     */
+    private void renderChildFragment(String componentName, RenderState state) throws Exception {
+        Fragment parent = state.fragment;
+        Fragment child = parent.openChild(componentName, state.snapshot(), state.locals());
+        state.fragment = child;
+        try {
+            compileComponent(componentName).render(state, child.output);
+        } finally {
+            state.fragment = parent;
+        }
+        child.finish();
+        parent.closeChild(child);
+    }
 
-        Element componentContent = renderComponent(componentName, context, scopeIdentifier, isStatic, resolvedVariables, engine);
-        element.empty();
-        element.appendChildren(componentContent.childNodes());
-        element.unwrap();
+    private interface AsyncRender<T> {
+        T render(Template template, DeferredValues deferred) throws Exception;
     }
 
-    private void processAttributes(Element element, Context context, String scopeIdentifier,
-                                   Map<String, Object> resolvedVariables, ScriptEngine engine) throws ScriptException {
-        for (Attribute attr : element.attributes()) {
-            String attrKey = attr.getKey();
-            String attrValue = attr.getValue();
+    private Executor asyncExecutor() {
+        Executor executor = renderExecutor;
+        return executor != null ? executor : ForkJoinPool.commonPool();
+    }
 
-            try {
-                if (attrKey.startsWith(TAG_PREFIX)) {
-                    String newAttrKey = attrKey.substring(TAG_PREFIX.length());
-                    Object evaluatedValue = eval(attrValue, context, scopeIdentifier, resolvedVariables, engine);
-                    element.removeAttr(attrKey);
-                    element.attr(newAttrKey, evaluatedValue != null ? evaluatedValue.toString() : "");
-                } else if (attrValue.contains("{{")) {
-                    Object evaluatedValue = eval(attrValue, context, scopeIdentifier, resolvedVariables, engine);
-                    element.attr(attrKey, evaluatedValue != null ? evaluatedValue.toString() : "");
-                }
-            } catch (Exception e) {
-                //System.out.println("error here in eval");
-            }
+    private void render(Template template, Context context, RenderOutput out) throws Exception {
+        DeferredValues deferred = new DeferredValues();
+        Executor executor = renderExecutor;
+        if (executor != null) {
+            prefetch(template, context, deferred, executor);
         }
+        render(template, context, deferred, out);
     }
 
-    private void processChildren(Element element, Context context, String scopeIdentifier,
-                                 Map<String, Object> resolvedVariables, ScriptEngine engine) throws Exception {
-        for (Node child : element.childNodes()) {
-            processNode(child, context, scopeIdentifier, resolvedVariables, engine);
+    private void render(Template template, Context context, DeferredValues deferred, RenderOutput out) throws Exception {
+        RenderState state = new RenderState(this, context, deferred);
+        state.started(out);
+        boolean failed = true;
+        try {
+            template.render(state, out);
+            failed = false;
+        } finally {
+            state.release();
+            state.completed(template.getName(), out, failed);
         }
     }
 
-    private Element renderComponent(String componentName, Context context, String scopeIdentifier,
-                                    boolean isStatic, Map<String, Object> resolvedVariables,
-                                    ScriptEngine engine) throws Exception {
-        String componentFullName = "static:" + context.getLocale().getLanguage() + ":"
-                + componentName + ".component" + componentExtension();
-        Element result = isStatic ? (Element) components.get(componentFullName) : null;
+    /**
+     * Start the suppliers of the context that a template, or a component it includes, references.
+     *
+     * @return The futures of the deferred values the template references.
+     */
+    private List<CompletableFuture<?>> prefetch(Template template, Context context, DeferredValues deferred, Executor executor) {
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        if (!context.anyValue(DeferredValues::isDeferred)) {
+            return futures;
+        }
+        Set<String> variables = new HashSet<>();
+        collectVariables(template, variables, new HashSet<>());
+        for (String name : variables) {
+            Object value = context.get(name);
+            if (value instanceof Supplier) {
+                futures.add(deferred.prefetch((Supplier<?>) value, executor));
+            } else if (value instanceof CompletableFuture) {
+                futures.add((CompletableFuture<?>) value);
+            }
+        }
+        return futures;
+    }
 
-        if (result == null) {
-            result = ((Element) readComponent(componentName)).clone();
-            processNode(result, context, scopeIdentifier + "_" + componentName, resolvedVariables, engine);
-            if (isStatic) {
-                components.put(componentFullName, result);
+    private void collectVariables(Template template, Set<String> variables, Set<String> visited) {
+        variables.addAll(template.getVariables());
+        for (String component : template.getComponents()) {
+            if (visited.add(component)) {
+                try {
+                    collectVariables(compileComponent(component), variables, visited);
+                } catch (RuntimeException ignored) {
+                    // a missing component only fails the render if it is reached
+                }
             }
         }
-        return result;
     }
 
-    private CompiledScript getCompiledScript(String expression, ScriptEngine engine) throws ScriptException {
-        return expressionCacheThreadLocal.get().computeIfAbsent(expression, exp -> {
-            try {
-                return ((Compilable) engine).compile(exp);
-            } catch (ScriptException e) {
-                throw new RuntimeException("Failed to compile expression: " + exp, e);
+    void renderComponent(String componentName, boolean isStatic, RenderState state, RenderOutput out) throws Exception {
+        ComponentRenderEvent event = new ComponentRenderEvent();
+        event.begin();
+        RenderListener listener = state.listener;
+        long start = listener != null ? System.nanoTime() : 0;
+        try {
+            renderComponentOutput(componentName, isStatic, state, out);
+        } finally {
+            if (listener != null) {
+                listener.componentRendered(componentName, System.nanoTime() - start);
             }
-        });
+            if (event.shouldCommit()) {
+                event.component = componentName;
+                event.commit();
+            }
+        }
     }
 
-    private Object resolveVariableFast(String expression, Context context, String scopeIdentifier,
-                                       Map<String, Object> resolvedVariables) {
-        String cacheKey = scopeIdentifier + ":" + expression;
-        return resolvedVariables.computeIfAbsent(cacheKey, k -> {
+    private void renderComponentOutput(String componentName, boolean isStatic, RenderState state,
+                                       RenderOutput out) throws Exception {
+        if (state.rendered != null) {
+            state.rendered.add(componentName);
+        }
+        if (state.fragment != null) {
+            // nodes of a tracked render write to the output of their fragment
+            renderChildFragment(componentName, state);
+            return;
+        }
+        if (!isStatic) {
+            compileComponent(componentName).render(state, out);
+            return;
+        }
+        String language = state.context.getLocale().getLanguage();
+        String result = registry.staticOutput(language, componentName);
+        if (result != null && state.rendered != null) {
+            // the components the cached output was rendered from aren't rendered again
+            Set<String> included = new HashSet<>();
+            collectComponents(componentName, included);
+            state.rendered.addAll(included);
+        }
+        if (result == null) {
+            long generation = registry.generation();
+            StringBuilder buffer = renderBuffers.acquire();
             try {
-                String[] parts = expression.split("\\.");
-                Object value = context.get(parts[0]);
-
-                for (int i = 1; i < parts.length && value != null; i++) {
-                    value = getPropertyValue(value, parts[i]);
-                }
-                return value;
-            } catch (Exception e) {
-                return null;
+                RenderOutput sb = new CharRenderOutput(buffer);
+                compileComponent(componentName).render(state, sb);
+                result = sb.toString();
+            } finally {
+                renderBuffers.release(buffer);
             }
-        });
+            registry.putStaticOutput(language, componentName, result, generation);
+        }
+        out.append(result);
     }
 
-    private Object getPropertyValue(Object obj, String property) throws Exception {
-        String cacheKey = obj.getClass().getName() + ":" + property;
-        Method method = methodCacheThreadLocal.get().get(cacheKey);
-
-        if (method == null) {
-            Class<?> cls = obj.getClass();
-            String getter = "get" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
-
+    private void collectComponents(String componentName, Set<String> components) {
+        if (components.add(componentName)) {
             try {
-                method = cls.getMethod(getter);
-            } catch (NoSuchMethodException e) {
-                if (property.startsWith("is")) {
-                    method = cls.getMethod(property);
-                } else {
-                    getter = "is" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
-                    method = cls.getMethod(getter);
+                for (String component : compileComponent(componentName).getComponents()) {
+                    collectComponents(component, components);
                 }
+            } catch (RuntimeException ignored) {
+                // a missing component wasn't reached when the output was rendered
             }
-
-            methodCacheThreadLocal.get().put(cacheKey, method);
         }
-
-        return method.invoke(obj);
     }
 
     @Override
     public String processComponent(String componentName, Context context) throws Exception {
-        ScriptEngine engine = scriptEngineThreadLocal.get();
-        context.forEach(engine::put);
-        String result = renderComponent(componentName, context, "", false, new HashMap<>(), engine).outerHtml();
-        clearCache();
-        return result;
+        return process(compileComponent(componentName), context);
     }
 
     @Override
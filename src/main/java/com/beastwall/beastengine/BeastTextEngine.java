@@ -1,10 +1,18 @@
 package com.beastwall.beastengine;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.WritableByteChannel;
 
+/**
+ * Renders plain text templates, e.g. SMS or plain-text emails.
+ * Templates are compiled once into a {@link TextTemplate}, see {@link TextCompiler} for the syntax,
+ * and rendered in a single pass straight to the destination.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
 public class BeastTextEngine extends BeastEngine {
 
 
@@ -16,24 +24,97 @@ public class BeastTextEngine extends BeastEngine {
         super(componentsPath);
     }
 
+    public BeastTextEngine(ComponentSource componentSource) {
+        super(componentSource);
+    }
+
     @Override
     public String process(String template, Context context) throws Exception {
-        //
-        ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
-        context.keySet().forEach(k -> {
-            engine.put(k, context.get(k));
+        return process(compile(template), context);
+    }
+
+    /**
+     * Compile a template string, templates are cached by source.
+     *
+     * @param template The template string to compile.
+     * @return The compiled template.
+     */
+    public TextTemplate compile(String template) {
+        return registry.template(template, source -> compile(null, source, TextCompiler::compile));
+    }
+
+    /**
+     * Compile a component, components are cached by name.
+     *
+     * @param componentName The name of the component to compile.
+     * @return The compiled component.
+     */
+    public TextTemplate compileComponent(String componentName) {
+        return registry.plan(componentName, name -> {
+            try {
+                return compile(name, readStrComponent(name), TextCompiler::compile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         });
-        //
-        StringBuilder builder = new StringBuilder();
-        processText(template, context, null, new HashMap<>(), engine);
-        String output = builder.toString();
+    }
 
-        return output;
+    /**
+     * Render a compiled template with the given context.
+     *
+     * @param template The compiled template.
+     * @param context  The context containing variables for the template.
+     * @return The rendered output string.
+     * @throws Exception If an error occurs during rendering.
+     */
+    public String process(TextTemplate template, Context context) throws Exception {
+        StringBuilder buffer = renderBuffers.acquire();
+        try {
+            RenderOutput out = new CharRenderOutput(buffer);
+            render(template, context, out);
+            return out.toString();
+        } finally {
+            renderBuffers.release(buffer);
+        }
     }
 
     @Override
     public String processComponent(String componentName, Context context) throws Exception {
-        return process(((String) readComponent(componentName)), context);
+        return process(compileComponent(componentName), context);
+    }
+
+    @Override
+    public void render(String componentName, Context context, Appendable out) throws Exception {
+        RenderOutput output = newOutput(out);
+        render(compileComponent(componentName), context, output);
+        output.finish();
+    }
+
+    @Override
+    public void render(String componentName, Context context, OutputStream out) throws Exception {
+        RenderOutput output = newOutput(out);
+        render(compileComponent(componentName), context, output);
+        output.finish();
+    }
+
+    @Override
+    public void render(String componentName, Context context, WritableByteChannel out) throws Exception {
+        RenderOutput output = newOutput(out);
+        render(compileComponent(componentName), context, output);
+        output.finish();
+    }
+
+    void render(TextTemplate template, Context context, RenderOutput out) throws Exception {
+        ContextScope scope = new ContextScope(context, new DeferredValues(), getRenderListener());
+        scope.started(out);
+        boolean failed = true;
+        try {
+            template.render(scope, out);
+            failed = false;
+        } finally {
+            scope.release();
+            scope.completed(template.getName(), out, failed);
+        }
     }
 
     @Override
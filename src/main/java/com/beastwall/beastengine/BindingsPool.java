@@ -0,0 +1,186 @@
+package com.beastwall.beastengine;
+
+import javax.script.Bindings;
+import javax.script.ScriptEngine;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of script engine bindings, the global scopes expressions that fall back to the script engine run in.
+ * Creating one costs milliseconds and megabytes, so they are created lazily up to the pool's size, borrowed for a render
+ * and returned cleared; when they are all borrowed, borrowers wait for one to be returned.
+ * The subtrees a render forks don't wait, see {@link #tryBorrow()}: the render holds bindings while it waits for them,
+ * so enough parallel renders would otherwise borrow every bindings and wait for each other.
+ * Nothing is tied to thread identity, so a server running every request on a new (virtual) thread still creates
+ * at most {@code maxSize} scopes, and waiting uses a {@link ReentrantLock} which doesn't pin virtual threads.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class BindingsPool {
+    private final Supplier<ScriptEngine> engine;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition returned = lock.newCondition();
+    private final ArrayDeque<Bindings> idle = new ArrayDeque<>();
+    private int size;
+    private volatile int maxSize;
+    private volatile long timeoutNanos;
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * @param engine  The engine the bindings are created by, only asked for when the first bindings are.
+     * @param maxSize The maximum number of bindings.
+     * @param timeout How long a borrow waits for bindings to be returned, in milliseconds.
+     */
+    BindingsPool(Supplier<ScriptEngine> engine, int maxSize, long timeout) {
+        this.engine = engine;
+        this.maxSize = maxSize;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * Borrow bindings, they must be returned with {@link #release(Bindings)}.
+     *
+     * @return Empty bindings.
+     * @throws IllegalStateException If no bindings were returned in time.
+     */
+    Bindings borrow() {
+        return borrow(true);
+    }
+
+    /**
+     * Borrow bindings if some are idle or more can be created, without waiting.
+     *
+     * @return Empty bindings, to be returned with {@link #release(Bindings)}, or null if they are all borrowed.
+     */
+    Bindings tryBorrow() {
+        return borrow(false);
+    }
+
+    private Bindings borrow(boolean wait) {
+        borrows.increment();
+        long start = 0;
+        lock.lock();
+        try {
+            if (idle.isEmpty() && size >= maxSize) {
+                if (!wait) {
+                    return null;
+                }
+                waits.increment();
+                start = System.nanoTime();
+                long remaining = timeoutNanos;
+                while (idle.isEmpty() && size >= maxSize) {
+                    if (remaining <= 0) {
+                        timeouts.increment();
+                        throw new IllegalStateException("Timed out waiting for a script engine, all " + maxSize + " are in use");
+                    }
+                    try {
+                        remaining = returned.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while waiting for a script engine", e);
+                    }
+                }
+            }
+            Bindings bindings = idle.pollFirst();
+            if (bindings != null) {
+                return bindings;
+            }
+            size++;
+        } finally {
+            lock.unlock();
+            if (start != 0) {
+                waited(start);
+            }
+        }
+        // created outside of the lock, it is slow
+        try {
+            return engine.get().createBindings();
+        } catch (RuntimeException | Error e) {
+            lock.lock();
+            try {
+                size--;
+                returned.signal();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Return borrowed bindings, the variables set on them are cleared.
+     *
+     * @param bindings The bindings.
+     */
+    void release(Bindings bindings) {
+        bindings.clear();
+        lock.lock();
+        try {
+            if (size > maxSize) {
+                // the pool was shrunk
+                size--;
+            } else {
+                idle.offerFirst(bindings);
+            }
+            returned.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void setMaxSize(int maxSize) {
+        lock.lock();
+        try {
+            this.maxSize = maxSize;
+            while (size > maxSize && !idle.isEmpty()) {
+                idle.pollLast();
+                size--;
+            }
+            returned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    void setTimeout(long timeout) {
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    long getTimeout() {
+        return TimeUnit.NANOSECONDS.toMillis(timeoutNanos);
+    }
+
+    PoolStats stats() {
+        int currentSize;
+        int currentIdle;
+        lock.lock();
+        try {
+            currentSize = size;
+            currentIdle = idle.size();
+        } finally {
+            lock.unlock();
+        }
+        return new PoolStats(maxSize, currentSize, currentIdle, borrows.sum(), waits.sum(), timeouts.sum(),
+                totalWaitNanos.sum(), maxWaitNanos.get());
+    }
+
+    private void waited(long start) {
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+    }
+}
@@ -0,0 +1,343 @@
+package com.beastwall.beastengine;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * A concurrent cache bounded by the total weight of its entries.
+ * Lookups are lock free, eviction follows the CLOCK (second chance) policy, an approximation of LRU
+ * that only costs a flag write on a hit: entries are queued in insertion order, and an entry that was
+ * read since it was last looked at by the eviction sweep goes back to the end of the queue instead of being evicted.
+ * Replaced and invalidated entries are only flagged dead, the sweep drops them when it reaches them,
+ * and the queue is purged of them once they outnumber the live entries.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class BoundedCache<K, V> {
+    private final ConcurrentHashMap<K, Entry<K, V>> map = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry<K, V>> clock = new ConcurrentLinkedQueue<>();
+    private final ConcurrentHashMap<K, Loading<V>> loading = new ConcurrentHashMap<>();
+    private final AtomicInteger deadEntries = new AtomicInteger();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final ToLongFunction<? super V> weigher;
+    private final AtomicLong weight = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile long maximumWeight;
+
+    /**
+     * A cache bounded by its number of entries.
+     *
+     * @param maximumSize The maximum number of entries.
+     */
+    BoundedCache(long maximumSize) {
+        this(maximumSize, value -> 1);
+    }
+
+    /**
+     * A cache bounded by the total weight of its entries.
+     *
+     * @param maximumWeight The maximum total weight.
+     * @param weigher       Computes the weight of a value, once when it is cached.
+     */
+    BoundedCache(long maximumWeight, ToLongFunction<? super V> weigher) {
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Get a cached value, loading and caching it on a miss.
+     * A key is loaded once at a time: threads missing a key that is being loaded wait for that load and get its value,
+     * or its exception. A loader that needs its own key loads it again rather than waiting for itself.
+     * A value whose key is invalidated while it is loading is returned but not kept, it may predate the change.
+     *
+     * @param key    The key.
+     * @param loader Loads the value of a missing key, it must not return null.
+     * @return The cached value.
+     */
+    V get(K key, Function<? super K, ? extends V> loader) {
+        V value = getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+        Loading<V> load = new Loading<>();
+        Loading<V> running = loading.putIfAbsent(key, load);
+        if (running != null) {
+            return running.thread == Thread.currentThread() ? loader.apply(key) : running.await();
+        }
+        try {
+            // cached by a load that ended in between
+            Entry<K, V> entry = map.get(key);
+            value = entry != null ? entry.value : putIfAbsent(key, loader.apply(key));
+            if (load.stale) {
+                invalidate(key, value);
+            }
+            load.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, load);
+        }
+    }
+
+    /**
+     * Get a cached value.
+     *
+     * @param key The key.
+     * @return The cached value, or null on a miss.
+     */
+    V getIfPresent(K key) {
+        Entry<K, V> entry = map.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Cache a value, replacing the current one.
+     *
+     * @param key   The key.
+     * @param value The value.
+     */
+    void put(K key, V value) {
+        Entry<K, V> entry = new Entry<>(key, value, weigher.applyAsLong(value));
+        Entry<K, V> previous = map.put(key, entry);
+        if (previous != null) {
+            removed(previous);
+        }
+        added(entry);
+    }
+
+    private V putIfAbsent(K key, V value) {
+        Entry<K, V> entry = new Entry<>(key, value, weigher.applyAsLong(value));
+        Entry<K, V> previous = map.putIfAbsent(key, entry);
+        if (previous != null) {
+            return previous.value;
+        }
+        added(entry);
+        return value;
+    }
+
+    private void added(Entry<K, V> entry) {
+        clock.offer(entry);
+        if (weight.addAndGet(entry.weight) > maximumWeight) {
+            evict();
+        }
+    }
+
+    /**
+     * Remove a cached value.
+     *
+     * @param key The key.
+     */
+    void invalidate(K key) {
+        markStale(key);
+        Entry<K, V> entry = map.remove(key);
+        if (entry != null) {
+            removed(entry);
+        }
+    }
+
+    /**
+     * Remove a cached value, only if the key still maps to it.
+     *
+     * @param key   The key.
+     * @param value The value, compared by identity.
+     */
+    void invalidate(K key, V value) {
+        Entry<K, V> entry = map.get(key);
+        if (entry != null && entry.value == value && map.remove(key, entry)) {
+            removed(entry);
+        }
+    }
+
+    /**
+     * Remove every cached value whose key matches a predicate.
+     *
+     * @param predicate The predicate.
+     */
+    void invalidateIf(Predicate<? super K> predicate) {
+        for (K key : loading.keySet()) {
+            if (predicate.test(key)) {
+                markStale(key);
+            }
+        }
+        for (Map.Entry<K, Entry<K, V>> e : map.entrySet()) {
+            if (predicate.test(e.getKey()) && map.remove(e.getKey(), e.getValue())) {
+                removed(e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Remove every cached value that matches a predicate, values still being loaded aren't tested.
+     *
+     * @param predicate The predicate.
+     */
+    void invalidateValues(Predicate<? super V> predicate) {
+        for (Map.Entry<K, Entry<K, V>> e : map.entrySet()) {
+            if (predicate.test(e.getValue().value) && map.remove(e.getKey(), e.getValue())) {
+                removed(e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Remove every cached value.
+     */
+    void invalidateAll() {
+        invalidateIf(key -> true);
+    }
+
+    /**
+     * Change the bound of the cache, entries are evicted right away if the cache is over the new bound.
+     *
+     * @param maximumWeight The maximum total weight.
+     */
+    void setMaximumWeight(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+        if (weight.get() > maximumWeight) {
+            evict();
+        }
+    }
+
+    long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), map.size(), weight.get());
+    }
+
+    /**
+     * Flag the load in progress of a key, if any, so its value isn't kept.
+     * Flagged before the key is removed: a value cached before the flag is removed, one cached after it sees the flag.
+     */
+    private void markStale(K key) {
+        Loading<V> load = loading.get(key);
+        if (load != null) {
+            load.stale = true;
+        }
+    }
+
+    /**
+     * Flag an entry that was removed from the map dead, it stays queued until the sweep or a purge drops it.
+     */
+    private void removed(Entry<K, V> entry) {
+        entry.dead = true;
+        weight.addAndGet(-entry.weight);
+        if (deadEntries.incrementAndGet() > map.size() + 64) {
+            purge();
+        }
+    }
+
+    /**
+     * Drop the dead entries from the queue, so a cache that is rarely full doesn't queue every value it ever had.
+     */
+    private void purge() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            int purged = 0;
+            for (Iterator<Entry<K, V>> it = clock.iterator(); it.hasNext(); ) {
+                if (it.next().dead) {
+                    it.remove();
+                    purged++;
+                }
+            }
+            deadEntries.addAndGet(-purged);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void evict() {
+        // a single thread sweeps, the others carry on, the cache is only briefly over its bound
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            Entry<K, V> entry;
+            while (weight.get() > maximumWeight && (entry = clock.poll()) != null) {
+                if (entry.dead) {
+                    // invalidated or replaced
+                    deadEntries.decrementAndGet();
+                    continue;
+                }
+                if (entry.referenced) {
+                    entry.referenced = false;
+                    clock.offer(entry);
+                } else if (map.remove(entry.key, entry)) {
+                    weight.addAndGet(-entry.weight);
+                    evictions.increment();
+                } else {
+                    // removed since it was polled, its remover counted it as queued
+                    deadEntries.decrementAndGet();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class Entry<K, V> {
+        final K key;
+        final V value;
+        final long weight;
+        volatile boolean referenced;
+        volatile boolean dead;
+
+        Entry(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A load in progress, completed with the value cached for its key.
+     */
+    private static final class Loading<V> extends CompletableFuture<V> {
+        final Thread thread = Thread.currentThread();
+        volatile boolean stale;
+
+        V await() {
+            try {
+                return join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+    }
+}
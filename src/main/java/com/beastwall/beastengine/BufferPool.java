@@ -0,0 +1,50 @@
+package com.beastwall.beastengine;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A bounded pool of render buffers, shared by every thread so buffers are reused whichever thread renders.
+ * Buffers that grew too large aren't kept, nor are buffers returned to a full pool.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class BufferPool {
+    /**
+     * Buffers above this capacity, in chars, are left to the garbage collector.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 256 * 1024;
+
+    private final ArrayBlockingQueue<StringBuilder> buffers;
+    private final int initialCapacity;
+
+    /**
+     * @param maxBuffers      The maximum number of idle buffers kept.
+     * @param initialCapacity The capacity of new buffers.
+     */
+    BufferPool(int maxBuffers, int initialCapacity) {
+        this.buffers = new ArrayBlockingQueue<>(maxBuffers);
+        this.initialCapacity = initialCapacity;
+    }
+
+    /**
+     * @return An empty buffer.
+     */
+    StringBuilder acquire() {
+        StringBuilder buffer = buffers.poll();
+        return buffer != null ? buffer : new StringBuilder(initialCapacity);
+    }
+
+    /**
+     * Return a buffer, it must not be used afterwards.
+     *
+     * @param buffer The buffer.
+     */
+    void release(StringBuilder buffer) {
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            return;
+        }
+        buffer.setLength(0);
+        buffers.offer(buffer);
+    }
+}
@@ -0,0 +1,241 @@
+package com.beastwall.beastengine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Render output writing UTF-8 bytes to an {@link OutputStream} or a {@link WritableByteChannel}.
+ * Dynamic values are encoded into a scratch buffer, large static chunks aren't copied at all: the output
+ * keeps a list of slices, scratch slices and the pre-encoded chunks of the plan, and writes them all at once
+ * every time {@code bufferSize} bytes are pending, with a single gathering write when the channel supports it.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class ByteRenderOutput extends RenderOutput {
+    /**
+     * Static chunks smaller than this are copied into the scratch buffer instead of getting their own slice.
+     */
+    private static final int INLINE_LIMIT = 256;
+
+    private final OutputStream stream;
+    private final WritableByteChannel channel;
+    private final int bufferSize;
+    private final boolean autoFlush;
+    private byte[] scratch;
+    private int position;
+    private int sliceStart;
+    private ByteBuffer[] slices = new ByteBuffer[16];
+    private int sliceCount;
+    private long pending;
+    private long written;
+    private char highSurrogate;
+
+    /**
+     * @param stream     The stream to write to.
+     * @param bufferSize The number of bytes buffered before writing to the stream.
+     * @param autoFlush  Whether to flush the stream every time the buffer is written to it.
+     */
+    ByteRenderOutput(OutputStream stream, int bufferSize, boolean autoFlush) {
+        this(stream, null, bufferSize, autoFlush);
+    }
+
+    /**
+     * @param channel    The channel to write to.
+     * @param bufferSize The number of bytes buffered before writing to the channel.
+     */
+    ByteRenderOutput(WritableByteChannel channel, int bufferSize) {
+        this(null, channel, bufferSize, false);
+    }
+
+    private ByteRenderOutput(OutputStream stream, WritableByteChannel channel, int bufferSize, boolean autoFlush) {
+        this.stream = stream;
+        this.channel = channel;
+        this.bufferSize = Math.max(bufferSize, 1);
+        this.autoFlush = autoFlush;
+        this.scratch = new byte[Math.min(this.bufferSize, 64 * 1024) + INLINE_LIMIT];
+    }
+
+    @Override
+    public ByteRenderOutput append(CharSequence csq) throws IOException {
+        if (csq == null) {
+            csq = "null";
+        }
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public ByteRenderOutput append(CharSequence csq, int start, int end) throws IOException {
+        if (csq == null) {
+            csq = "null";
+        }
+        for (int i = start; i < end; i++) {
+            encode(csq.charAt(i));
+        }
+        drainIfFull();
+        return this;
+    }
+
+    @Override
+    public ByteRenderOutput append(char c) throws IOException {
+        encode(c);
+        drainIfFull();
+        return this;
+    }
+
+    @Override
+    void appendStatic(String chars, byte[] utf8) throws IOException {
+        appendUtf8(utf8);
+    }
+
+    @Override
+    void appendUtf8(byte[] bytes) throws IOException {
+        flushSurrogate();
+        if (bytes.length < INLINE_LIMIT) {
+            if (scratch.length - position < bytes.length) {
+                newScratch();
+            }
+            System.arraycopy(bytes, 0, scratch, position, bytes.length);
+            position += bytes.length;
+        } else {
+            closeSlice();
+            addSlice(ByteBuffer.wrap(bytes));
+        }
+        drainIfFull();
+    }
+
+    @Override
+    long size() {
+        return written + pending + position - sliceStart;
+    }
+
+    @Override
+    void finish() throws IOException {
+        flushSurrogate();
+        write();
+        if (stream != null) {
+            stream.flush();
+        }
+    }
+
+    private void encode(char c) {
+        if (scratch.length - position < 4) {
+            newScratch();
+        }
+        byte[] b = scratch;
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                b[position++] = (byte) (0xF0 | (codePoint >> 18));
+                b[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                b[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                b[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                return;
+            }
+            // a lone high surrogate, replaced like String.getBytes does
+            b[position++] = '?';
+            encode(c);
+            return;
+        }
+        if (c < 0x80) {
+            b[position++] = (byte) c;
+        } else if (c < 0x800) {
+            b[position++] = (byte) (0xC0 | (c >> 6));
+            b[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            b[position++] = '?';
+        } else {
+            b[position++] = (byte) (0xE0 | (c >> 12));
+            b[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            b[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void flushSurrogate() {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            if (scratch.length - position < 1) {
+                newScratch();
+            }
+            scratch[position++] = '?';
+        }
+    }
+
+    /**
+     * The scratch buffer is full but still referenced by pending slices, continue in a new one.
+     */
+    private void newScratch() {
+        closeSlice();
+        scratch = new byte[scratch.length];
+        position = 0;
+        sliceStart = 0;
+    }
+
+    private void closeSlice() {
+        if (position > sliceStart) {
+            addSlice(ByteBuffer.wrap(scratch, sliceStart, position - sliceStart));
+            sliceStart = position;
+        }
+    }
+
+    private void addSlice(ByteBuffer slice) {
+        if (sliceCount == slices.length) {
+            slices = Arrays.copyOf(slices, sliceCount * 2);
+        }
+        slices[sliceCount++] = slice;
+        pending += slice.remaining();
+    }
+
+    private void drainIfFull() throws IOException {
+        if (pending + position - sliceStart < bufferSize) {
+            return;
+        }
+        write();
+        if (autoFlush && stream != null) {
+            stream.flush();
+        }
+    }
+
+    private void write() throws IOException {
+        closeSlice();
+        if (sliceCount == 0) {
+            return;
+        }
+        if (channel instanceof GatheringByteChannel) {
+            GatheringByteChannel gathering = (GatheringByteChannel) channel;
+            int first = 0;
+            while (first < sliceCount) {
+                gathering.write(slices, first, sliceCount - first);
+                while (first < sliceCount && !slices[first].hasRemaining()) {
+                    first++;
+                }
+            }
+        } else if (channel != null) {
+            for (int i = 0; i < sliceCount; i++) {
+                while (slices[i].hasRemaining()) {
+                    channel.write(slices[i]);
+                }
+            }
+        } else {
+            for (int i = 0; i < sliceCount; i++) {
+                ByteBuffer slice = slices[i];
+                stream.write(slice.array(), slice.arrayOffset() + slice.position(), slice.remaining());
+            }
+        }
+        Arrays.fill(slices, 0, sliceCount, null);
+        sliceCount = 0;
+        written += pending;
+        pending = 0;
+        // everything is written, the scratch buffer can be reused
+        position = 0;
+        sliceStart = 0;
+    }
+}
@@ -0,0 +1,72 @@
+package com.beastwall.beastengine;
+
+/**
+ * A snapshot of the counters of one of the engine's caches.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+public final class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long size;
+    private final long weight;
+
+    CacheStats(long hitCount, long missCount, long evictionCount, long size, long weight) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.size = size;
+        this.weight = weight;
+    }
+
+    /**
+     * @return The number of lookups that found a cached entry.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return The number of lookups that didn't find a cached entry.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return The number of entries evicted to stay within the cache's bound.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return The number of cached entries.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return The total weight of the cached entries, the number of entries for caches that don't weigh them.
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return The ratio of lookups that found a cached entry, 1 when there was no lookup yet.
+     */
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount
+                + ", size=" + size + ", weight=" + weight + ", hitRate=" + getHitRate() + "}";
+    }
+}
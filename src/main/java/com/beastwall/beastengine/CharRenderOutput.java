@@ -0,0 +1,146 @@
+package com.beastwall.beastengine;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Render output made of chars.
+ * Without a target it is a plain in-memory buffer, with a target it writes the buffered output through
+ * every time {@code bufferSize} chars are reached, and flushes the target afterwards when {@code autoFlush} is set,
+ * so the first bytes leave before the page is finished.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class CharRenderOutput extends RenderOutput {
+    private final StringBuilder buffer;
+    private final Appendable target;
+    private final int bufferSize;
+    private final boolean autoFlush;
+    private char[] chunk;
+    private long written;
+
+    /**
+     * In-memory output, use {@link #toString()} to get the result.
+     *
+     * @param initialCapacity The initial capacity of the buffer.
+     */
+    CharRenderOutput(int initialCapacity) {
+        this(new StringBuilder(initialCapacity));
+    }
+
+    /**
+     * In-memory output appending to a buffer, e.g. one of the {@link BufferPool}.
+     *
+     * @param buffer The buffer.
+     */
+    CharRenderOutput(StringBuilder buffer) {
+        this.buffer = buffer;
+        this.target = null;
+        this.bufferSize = Integer.MAX_VALUE;
+        this.autoFlush = false;
+    }
+
+    /**
+     * Output that writes through to a target.
+     *
+     * @param target     The target to write to.
+     * @param bufferSize The number of chars buffered before writing to the target.
+     * @param autoFlush  Whether to flush the target every time the buffer is written to it.
+     */
+    CharRenderOutput(Appendable target, int bufferSize, boolean autoFlush) {
+        this.buffer = new StringBuilder(Math.min(bufferSize, 64 * 1024) + 256);
+        this.target = target;
+        this.bufferSize = Math.max(bufferSize, 1);
+        this.autoFlush = autoFlush;
+    }
+
+    @Override
+    public CharRenderOutput append(CharSequence csq) throws IOException {
+        buffer.append(csq);
+        if (buffer.length() >= bufferSize) {
+            drain();
+        }
+        return this;
+    }
+
+    @Override
+    public CharRenderOutput append(CharSequence csq, int start, int end) throws IOException {
+        buffer.append(csq, start, end);
+        if (buffer.length() >= bufferSize) {
+            drain();
+        }
+        return this;
+    }
+
+    @Override
+    public CharRenderOutput append(char c) throws IOException {
+        buffer.append(c);
+        if (buffer.length() >= bufferSize) {
+            drain();
+        }
+        return this;
+    }
+
+    @Override
+    void appendStatic(String chars, byte[] utf8) throws IOException {
+        append(chars);
+    }
+
+    @Override
+    void appendUtf8(byte[] bytes) throws IOException {
+        append(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    long size() {
+        return written + buffer.length();
+    }
+
+    @Override
+    void finish() throws IOException {
+        if (target == null) {
+            return;
+        }
+        write();
+        if (target instanceof Flushable) {
+            ((Flushable) target).flush();
+        }
+    }
+
+    private void drain() throws IOException {
+        if (target == null) {
+            return;
+        }
+        write();
+        if (autoFlush && target instanceof Flushable) {
+            ((Flushable) target).flush();
+        }
+    }
+
+    private void write() throws IOException {
+        int length = buffer.length();
+        if (length == 0) {
+            return;
+        }
+        if (target instanceof Writer) {
+            // avoid the String copy Writer.append(CharSequence) makes
+            if (chunk == null || chunk.length < length) {
+                chunk = new char[length];
+            }
+            buffer.getChars(0, length, chunk, 0);
+            ((Writer) target).write(chunk, 0, length);
+        } else {
+            target.append(buffer);
+        }
+        written += length;
+        buffer.setLength(0);
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package com.beastwall.beastengine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * Loads components from a resource folder of the classpath, the default source of every engine.
+ * Resources that are plain files are read through a {@link java.nio.channels.FileChannel},
+ * resources packaged in a jar through their stream.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+public class ClasspathComponentSource implements ComponentSource {
+    private final String root;
+    private final ClassLoader classLoader;
+
+    /**
+     * @param root The resource folder of the components.
+     */
+    public ClasspathComponentSource(String root) {
+        this(root, ClasspathComponentSource.class.getClassLoader());
+    }
+
+    /**
+     * @param root        The resource folder of the components.
+     * @param classLoader The class loader the resources are loaded with.
+     */
+    public ClasspathComponentSource(String root, ClassLoader classLoader) {
+        this.root = root == null || root.trim().isEmpty() ? "app" : root;
+        this.classLoader = classLoader;
+    }
+
+    @Override
+    public String read(String path) throws IOException {
+        URL url = classLoader.getResource(root + "/" + path);
+        if (url == null) {
+            return null;
+        }
+        if ("file".equals(url.getProtocol())) {
+            try {
+                Path file = Paths.get(url.toURI());
+                return DirectoryComponentSource.readFile(file);
+            } catch (URISyntaxException | IllegalArgumentException ignored) {
+                // fall back to the stream
+            }
+        }
+        try (InputStream inputStream = url.openStream()) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Lists the resources of the folder in every directory and jar of the class path.
+     */
+    @Override
+    public Set<String> list() throws IOException {
+        Set<String> paths = new TreeSet<>();
+        Enumeration<URL> folders = classLoader.getResources(root);
+        while (folders.hasMoreElements()) {
+            URL url = folders.nextElement();
+            if ("file".equals(url.getProtocol())) {
+                try {
+                    Path folder = Paths.get(url.toURI());
+                    try (Stream<Path> files = Files.walk(folder)) {
+                        files.filter(Files::isRegularFile)
+                                .forEach(file -> paths.add(folder.relativize(file).toString().replace('\\', '/')));
+                    }
+                } catch (URISyntaxException | IllegalArgumentException ignored) {
+                    // not a folder of the file system
+                }
+            } else if ("jar".equals(url.getProtocol())) {
+                JarURLConnection connection = (JarURLConnection) url.openConnection();
+                connection.setUseCaches(false);
+                String prefix = root + "/";
+                try (JarFile jar = connection.getJarFile()) {
+                    Enumeration<JarEntry> entries = jar.entries();
+                    while (entries.hasMoreElements()) {
+                        JarEntry entry = entries.nextElement();
+                        if (!entry.isDirectory() && entry.getName().startsWith(prefix)) {
+                            paths.add(entry.getName().substring(prefix.length()));
+                        }
+                    }
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @return The resource folder of the components.
+     */
+    public String getRoot() {
+        return root;
+    }
+}
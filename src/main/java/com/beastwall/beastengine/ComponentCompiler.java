@@ -0,0 +1,327 @@
+package com.beastwall.beastengine;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.parser.Parser;
+import org.jsoup.select.NodeVisitor;
+
+import javax.script.ScriptException;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.stream.Stream;
+
+/**
+ * Compiles the HTML components of a folder ahead of time, e.g. at build time, so template errors fail the build
+ * instead of a request and no component is parsed at runtime.
+ * Every {@code *.component.html} file is validated: it must be where the engine looks for its component,
+ * {@code <name>/<name>.component.html} or {@code app.component.html} for the root component, so no two files
+ * have the same component name; its {@code bs:} tags must be known and have their required attributes,
+ * its expressions must compile, and the components it includes must exist.
+ * The plans of valid components are written to an archive; packaged as the
+ * {@code META-INF/beastengine/components.plans} resource, {@link BeastHtmlEngine} loads a component from it
+ * instead of compiling it, as long as the component's source is the one it was compiled from.
+ * <pre>
+ * java -cp beast-engine.jar com.beastwall.beastengine.ComponentCompiler src/main/resources/components target/classes/META-INF/beastengine/components.plans
+ * </pre>
+ * The {@code beast-engine-maven-plugin} runs it as part of a Maven build.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+public final class ComponentCompiler {
+    /**
+     * The classpath resource {@link BeastHtmlEngine} loads precompiled plans from.
+     */
+    public static final String RESOURCE = PlanArchive.RESOURCE;
+
+    private static final String EXTENSION = ".component.html";
+    private static final Set<String> TAGS = Set.of("var", "if", "switch", "case", "default", "for", "repeat",
+            "component", "cache", "router", "raw");
+
+    private final Path root;
+
+    /**
+     * @param root The folder of the components.
+     */
+    public ComponentCompiler(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Validate every component.
+     *
+     * @return The errors, each prefixed with the file and line it was found at, empty if every component is valid.
+     * @throws IOException If a component can't be read.
+     */
+    public List<String> validate() throws IOException {
+        return compileAll(new TreeMap<>(), new TreeMap<>());
+    }
+
+    /**
+     * Validate and compile every component, then write their plans to an archive.
+     *
+     * @param output The archive file, its folder is created if needed.
+     * @return The number of compiled components.
+     * @throws IOException           If a component can't be read or the archive can't be written.
+     * @throws IllegalStateException If a component isn't valid, nothing is written then.
+     */
+    public int compile(Path output) throws IOException {
+        Map<String, Template> templates = new TreeMap<>();
+        Map<String, byte[]> hashes = new TreeMap<>();
+        List<String> errors = compileAll(templates, hashes);
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException(errors.size() + " template error(s):\n" + String.join("\n", errors));
+        }
+        Path parent = output.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output))) {
+            PlanArchive.write(templates, hashes, out);
+        }
+        return templates.size();
+    }
+
+    private List<String> compileAll(Map<String, Template> templates, Map<String, byte[]> hashes) throws IOException {
+        Map<String, Path> files = new TreeMap<>();
+        // the files that aren't where the engine looks for their component, by location
+        Map<String, String> misplaced = new TreeMap<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) paths::iterator) {
+                String fileName = file.getFileName().toString();
+                if (fileName.endsWith(EXTENSION) && Files.isRegularFile(file)) {
+                    String name = fileName.substring(0, fileName.length() - EXTENSION.length());
+                    if (location(file).equals(BeastEngine.componentPath(name, ".html"))) {
+                        files.put(name, file);
+                    } else {
+                        misplaced.put(location(file), name);
+                    }
+                }
+            }
+        }
+        List<String> errors = new ArrayList<>();
+        for (Map.Entry<String, String> file : misplaced.entrySet()) {
+            String name = file.getValue();
+            String expected = BeastEngine.componentPath(name, ".html");
+            errors.add(file.getKey() + ": " + (files.containsKey(name)
+                    ? "Duplicate component " + name + ", the engine loads " + expected
+                    : "Component " + name + " isn't where the engine looks for it, " + expected));
+        }
+        for (Map.Entry<String, Path> component : files.entrySet()) {
+            String name = component.getKey();
+            Path file = component.getValue();
+            String location = location(file);
+            String source = DirectoryComponentSource.readFile(file);
+            int count = errors.size();
+            validate(source, location, files.keySet(), errors);
+            if (errors.size() > count) {
+                continue;
+            }
+            try {
+                templates.put(name, TemplateCompiler.compile(name, source));
+                hashes.put(name, PlanArchive.hash(source));
+            } catch (RuntimeException e) {
+                errors.add(location + ": " + e.getMessage());
+            }
+        }
+        return errors;
+    }
+
+    private String location(Path file) {
+        return root.relativize(file).toString().replace('\\', '/');
+    }
+
+    private static void validate(String source, String location, Set<String> components, List<String> errors) {
+        Document doc = Jsoup.parse(source, "", Parser.htmlParser().setTrackPosition(true));
+        doc.traverse((NodeVisitor) (node, depth) -> {
+            String at = location + ":" + node.sourceRange().start().lineNumber() + ": ";
+            if (node instanceof TextNode) {
+                interpolations(((TextNode) node).getWholeText(), at, errors);
+            } else if (node instanceof Element) {
+                Element element = (Element) node;
+                for (Attribute attribute : element.attributes()) {
+                    if (attribute.getKey().startsWith(BeastEngine.TAG_PREFIX)) {
+                        expression(attribute.getValue(), at, errors);
+                    } else if (attribute.getValue().contains("{{")) {
+                        interpolations(attribute.getValue(), at, errors);
+                    }
+                }
+                if (element.tagName().startsWith(BeastEngine.TAG_PREFIX)) {
+                    tag(element, at, components, errors);
+                }
+            }
+        });
+    }
+
+    private static void tag(Element element, String at, Set<String> components, List<String> errors) {
+        String tag = element.tagName().substring(BeastEngine.TAG_PREFIX.length());
+        if (!TAGS.contains(tag)) {
+            errors.add(at + "Unknown tag <" + element.tagName() + ">");
+            return;
+        }
+        switch (tag) {
+            case "var":
+                for (String assignment : element.ownText().split(";")) {
+                    String[] parts = assignment.split("=", 2);
+                    if (parts.length == 2) {
+                        expression(parts[1], at, errors);
+                    } else if (!assignment.isBlank()) {
+                        errors.add(at + "Expected name = expression in <bs:var>: " + assignment.trim());
+                    }
+                }
+                break;
+            case "if":
+                expression(required(element, "condition", at, errors), at, errors);
+                break;
+            case "switch":
+                required(element, "var", at, errors);
+                break;
+            case "for":
+                required(element, "item", at, errors);
+                if (element.hasAttr("from") && !element.hasAttr("in")) {
+                    expression(required(element, "to", at, errors), at, errors);
+                    expression(element.attr("from"), at, errors);
+                    if (element.hasAttr("step")) {
+                        expression(element.attr("step"), at, errors);
+                    }
+                } else {
+                    required(element, "in", at, errors);
+                }
+                break;
+            case "repeat":
+                required(element, "times", at, errors);
+                break;
+            case "case":
+            case "default":
+                if (element.parent() == null || !element.parent().nameIs(BeastEngine.TAG_PREFIX + "switch")) {
+                    errors.add(at + "<" + element.tagName() + "> outside of <bs:switch>");
+                }
+                if (tag.equals("case")) {
+                    required(element, "match", at, errors);
+                }
+                break;
+            case "component":
+                component(required(element, "name", at, errors), at, components, errors);
+                if (element.hasAttr("cache-key")) {
+                    expression(element.attr("cache-key"), at, errors);
+                    ttl(element.attr("cache-ttl"), at, errors);
+                }
+                break;
+            case "cache":
+                expression(required(element, "key", at, errors), at, errors);
+                ttl(element.attr("ttl"), at, errors);
+                break;
+            case "router":
+                for (Element route : element.children()) {
+                    if (route.nameIs("route")) {
+                        String path = required(route, "path", at, errors);
+                        if (path != null) {
+                            try {
+                                RouteTrie.validate(path.trim());
+                            } catch (IllegalArgumentException e) {
+                                errors.add(at + e.getMessage());
+                            }
+                        }
+                        component(required(route, "component", at, errors), at, components, errors);
+                    }
+                }
+                break;
+            default:
+        }
+    }
+
+    /**
+     * @return The value of the attribute, null if it's missing or blank.
+     */
+    private static String required(Element element, String attribute, String at, List<String> errors) {
+        String value = element.attr(attribute);
+        if (value.isBlank()) {
+            errors.add(at + "Missing " + attribute + " attribute on <" + element.tagName() + ">");
+            return null;
+        }
+        return value;
+    }
+
+    private static void component(String name, String at, Set<String> components, List<String> errors) {
+        if (name != null && !components.contains(name.trim())) {
+            errors.add(at + "Unknown component " + name.trim());
+        }
+    }
+
+    private static void ttl(String ttl, String at, List<String> errors) {
+        try {
+            FragmentCache.parseTtl(ttl);
+        } catch (IllegalArgumentException e) {
+            errors.add(at + e.getMessage());
+        }
+    }
+
+    private static void interpolations(String text, String at, List<String> errors) {
+        Matcher matcher = BeastEngine.INTERPOLATION_PATTERN.matcher(text);
+        int last = 0;
+        while (matcher.find()) {
+            expression(matcher.group(1) != null ? matcher.group(1) : matcher.group(2), at, errors);
+            last = matcher.end();
+        }
+        if (text.indexOf("{{", last) >= 0) {
+            errors.add(at + "Unclosed {{");
+        }
+    }
+
+    private static void expression(String source, String at, List<String> errors) {
+        if (source == null) {
+            return;
+        }
+        if (source.isBlank()) {
+            errors.add(at + "Empty expression");
+            return;
+        }
+        try {
+            Expressions.precompile(source);
+        } catch (ScriptException e) {
+            errors.add(at + "Invalid expression " + source.trim() + ": " + e.getMessage().lines().findFirst().orElse(""));
+        }
+    }
+
+    /**
+     * Validate the components of a folder and, with an output file, write their plans to it.
+     * Exits with status 1 if a component isn't valid.
+     *
+     * @param args The folder of the components, then optionally the archive file.
+     * @throws IOException If a component can't be read or the archive can't be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: ComponentCompiler <components folder> [<archive file>]");
+            System.exit(2);
+        }
+        ComponentCompiler compiler = new ComponentCompiler(Paths.get(args[0]));
+        if (args.length == 1) {
+            List<String> errors = compiler.validate();
+            errors.forEach(System.err::println);
+            if (!errors.isEmpty()) {
+                System.exit(1);
+            }
+            return;
+        }
+        try {
+            System.out.println("Compiled " + compiler.compile(Paths.get(args[1])) + " component(s) to " + args[1]);
+        } catch (IllegalStateException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
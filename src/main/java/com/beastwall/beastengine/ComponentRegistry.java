@@ -0,0 +1,166 @@
+package com.beastwall.beastengine;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * The components an engine has loaded: template sources, compiled plans, {@link Template}s or {@link TextTemplate}s,
+ * and cached static output.
+ * Every engine has its own registry, bounded by a memory budget; entries are weighed by their estimated
+ * retained size in bytes and the least recently used ones are evicted first, they are simply loaded
+ * or compiled again when needed.
+ * A source, plan or static output produced while its component is invalidated isn't kept, so a change
+ * racing with a load can't leave a stale entry behind.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class ComponentRegistry {
+    /**
+     * Default memory budget, 64 MB.
+     */
+    static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+    private final BoundedCache<Key, Object> cache;
+    private final AtomicLong generation = new AtomicLong();
+
+    ComponentRegistry(long budget) {
+        this.cache = new BoundedCache<>(budget, ComponentRegistry::weigh);
+    }
+
+    /**
+     * Get the template source of a component.
+     *
+     * @param name   The name of the component.
+     * @param loader Loads the source on a miss.
+     * @return The source.
+     */
+    String source(String name, Function<String, String> loader) {
+        return (String) cache.get(new Key(Kind.SOURCE, name), key -> loader.apply(key.name));
+    }
+
+    /**
+     * Get the compiled plan of a component.
+     *
+     * @param name     The name of the component.
+     * @param compiler Compiles the component on a miss.
+     * @return The plan.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T plan(String name, Function<String, T> compiler) {
+        return (T) cache.get(new Key(Kind.PLAN, name), key -> compiler.apply(key.name));
+    }
+
+    /**
+     * Get the compiled plan of a template string.
+     *
+     * @param source   The template.
+     * @param compiler Compiles the template on a miss.
+     * @return The plan.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T template(String source, Function<String, T> compiler) {
+        return (T) cache.get(new Key(Kind.TEMPLATE, source), key -> compiler.apply(key.name));
+    }
+
+    /**
+     * Get the cached output of a static component.
+     *
+     * @param language The language of the locale the output was rendered for.
+     * @param name     The name of the component.
+     * @return The output, or null if it isn't cached.
+     */
+    String staticOutput(String language, String name) {
+        return (String) cache.getIfPresent(new Key(Kind.STATIC_OUTPUT, language + ":" + name));
+    }
+
+    /**
+     * @return The number of invalidations so far, read before rendering a static output.
+     */
+    long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Cache the output of a static component, unless a component was invalidated while it was rendered.
+     *
+     * @param language   The language of the locale the output was rendered for.
+     * @param name       The name of the component.
+     * @param output     The output.
+     * @param generation The {@link #generation()} read before rendering.
+     */
+    void putStaticOutput(String language, String name, String output, long generation) {
+        Key key = new Key(Kind.STATIC_OUTPUT, language + ":" + name);
+        cache.put(key, output);
+        if (this.generation.get() != generation) {
+            cache.invalidate(key, output);
+        }
+    }
+
+    /**
+     * Drop the source and plan of a component.
+     *
+     * @param name The name of the component.
+     */
+    void invalidate(String name) {
+        generation.incrementAndGet();
+        cache.invalidate(new Key(Kind.SOURCE, name));
+        cache.invalidate(new Key(Kind.PLAN, name));
+    }
+
+    /**
+     * Drop the cached static output of components, in every language.
+     *
+     * @param names The names of the components.
+     */
+    void invalidateStaticOutputs(Collection<String> names) {
+        generation.incrementAndGet();
+        cache.invalidateIf(key -> key.kind == Kind.STATIC_OUTPUT
+                && names.contains(key.name.substring(key.name.indexOf(':') + 1)));
+    }
+
+    void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    void setBudget(long budget) {
+        cache.setMaximumWeight(budget);
+    }
+
+    long getBudget() {
+        return cache.getMaximumWeight();
+    }
+
+    /**
+     * @return The stats of the registry, its weight is the estimated retained size in bytes.
+     */
+    CacheStats stats() {
+        return cache.stats();
+    }
+
+    private static long weigh(Object value) {
+        if (value instanceof Template) {
+            return ((Template) value).estimatedSize();
+        }
+        if (value instanceof TextTemplate) {
+            return ((TextTemplate) value).estimatedSize();
+        }
+        return estimatedSize((String) value);
+    }
+
+    /**
+     * Estimate the retained size of a string, header and array included.
+     */
+    static long estimatedSize(String value) {
+        return 56 + 2L * value.length();
+    }
+
+    private enum Kind {
+        SOURCE, PLAN, TEMPLATE, STATIC_OUTPUT
+    }
+
+    private record Key(Kind kind, String name) {
+    }
+}
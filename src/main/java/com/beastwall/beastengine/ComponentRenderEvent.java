@@ -0,0 +1,26 @@
+package com.beastwall.beastengine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of a render, or of a component included by a render.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+@Name("com.beastwall.beastengine.ComponentRender")
+@Label("Component Render")
+@Category("Beast Engine")
+@Description("A render, or a component included by a render")
+@StackTrace(false)
+final class ComponentRenderEvent extends jdk.jfr.Event {
+    @Label("Component")
+    String component;
+
+    @Label("Top Level")
+    boolean topLevel;
+}
@@ -0,0 +1,49 @@
+package com.beastwall.beastengine;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Where an engine loads its component templates from.
+ * Components are addressed by a path relative to the source's root, {@code <name>/<name>.component.<ext>},
+ * except the root component which is {@code app.component.html}.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ * @see ClasspathComponentSource
+ * @see DirectoryComponentSource
+ * @see InMemoryComponentSource
+ */
+public interface ComponentSource {
+
+    /**
+     * Read a component template.
+     *
+     * @param path The path of the component, relative to the root of the source.
+     * @return The template, or null if the source doesn't have it.
+     * @throws IOException If the template can't be read.
+     */
+    String read(String path) throws IOException;
+
+    /**
+     * List the component templates of the source, e.g. to compile them all at startup.
+     *
+     * @return The paths of the templates, relative to the root of the source, empty if the source can't list them.
+     * @throws IOException If the source can't be listed.
+     */
+    default Set<String> list() throws IOException {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Register a listener called with the path of every component that changes or is removed,
+     * engines use it to drop what they cached for that component.
+     * Sources whose components never change ignore listeners.
+     *
+     * @param listener The listener.
+     */
+    default void addChangeListener(Consumer<String> listener) {
+    }
+}
@@ -1,15 +1,57 @@
 package com.beastwall.beastengine;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
+/**
+ * The variables a template is rendered with.
+ * A context may be layered on a parent: it sees the variables of its parent it doesn't have itself,
+ * for lookups as well as for {@link #size()}, {@link #forEach}, {@link #equals} and the views
+ * ({@link #keySet()}, {@link #values()}, {@link #entrySet()}), which are then read-only snapshots.
+ * Changes only ever go to the context's own layer, removing a variable of a parent hides it from this context
+ * while the parent keeps it. Values shared by every render, e.g. site wide settings, go in an
+ * {@link #immutable(Map, Locale) immutable} context that is shared between renders and threads as is,
+ * and each request gets a {@link #child()} of it for its own variables:
+ * <pre>
+ * Context site = Context.immutable(settings, Locale.ENGLISH);
+ * ...
+ * Context request = site.child();
+ * request.put("user", user);
+ * </pre>
+ * Renders never change the context they are given, the variables set while rendering live in frames of their own.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
 public class Context extends HashMap<String, Object> {
 
     private Locale locale;
+    private final Context parent;
+    private final boolean immutable;
+    /**
+     * The variables of the parents removed from this context, null if none was.
+     */
+    private Set<Object> removed;
+    /**
+     * The variables of an immutable context, made the first time a view is asked for.
+     */
+    private volatile Map<String, Object> snapshot;
 
 
     public Context() {
         super();
+        this.parent = null;
+        this.immutable = false;
     }
 
     public Context(Locale locale) {
@@ -18,11 +60,68 @@ public class Context extends HashMap<String, Object> {
             locale = Locale.getDefault();
         }
         this.locale = locale;
+        this.parent = null;
+        this.immutable = false;
     }
 
+    /**
+     * Copy a context. The nearest immutable layer it is on, if any, is shared rather than copied.
+     *
+     * @param context The context to copy.
+     */
     public Context(Context context) {
-        this(context.locale);
-        this.putAll(context);
+        super();
+        this.locale = context.locale;
+        Context shared = context;
+        while (shared != null && !shared.immutable) {
+            shared = shared.parent;
+        }
+        this.parent = shared;
+        this.immutable = false;
+        context.copyLayers(shared, this);
+    }
+
+    private Context(Context parent, Locale locale, Map<String, ?> values, boolean immutable) {
+        super(Math.max(16, values.size() * 2));
+        this.locale = locale;
+        this.parent = parent;
+        this.immutable = immutable;
+        super.putAll(values);
+    }
+
+    /**
+     * Create a context that can't be changed, so it can be shared between renders and threads.
+     *
+     * @param values The variables, they are copied.
+     * @param locale The locale, null for the default one.
+     * @return The context.
+     */
+    public static Context immutable(Map<String, ?> values, Locale locale) {
+        return new Context(null, locale != null ? locale : Locale.getDefault(), values, true);
+    }
+
+    /**
+     * Create an empty context layered on this one, with the same locale.
+     * Nothing is copied; the child sees the changes made to this context afterwards.
+     *
+     * @return The child context.
+     */
+    public Context child() {
+        return new Context(this, locale, Collections.emptyMap(), false);
+    }
+
+    /**
+     * @return The context this one is layered on, null if it has none.
+     */
+    public Context getParent() {
+        return parent;
+    }
+
+    /**
+     * @return Whether the context can't be changed.
+     */
+    public boolean isImmutable() {
+        return immutable;
     }
 
     public Locale getLocale() {
@@ -30,6 +129,271 @@ public class Context extends HashMap<String, Object> {
     }
 
     public void setLocale(Locale locale) {
+        checkMutable();
         this.locale = locale;
     }
+
+    @Override
+    public Object get(Object key) {
+        Object value = super.get(key);
+        if (value != null || parent == null) {
+            return value;
+        }
+        return super.containsKey(key) || isRemoved(key) ? null : parent.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return super.containsKey(key) || parent != null && !isRemoved(key) && parent.containsKey(key);
+    }
+
+    private boolean isRemoved(Object key) {
+        return removed != null && removed.contains(key);
+    }
+
+    /**
+     * Hide a variable of the parents, a variable this layer has itself still wins.
+     */
+    private void hide(Object key) {
+        if (removed == null) {
+            removed = new HashSet<>();
+        }
+        removed.add(key);
+    }
+
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue) {
+        return containsKey(key) ? get(key) : defaultValue;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return parent == null ? super.containsValue(value) : variables().containsValue(value);
+    }
+
+    @Override
+    public int size() {
+        return parent == null ? super.size() : variables().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return parent == null ? super.isEmpty() : variables().isEmpty();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+        if (parent == null) {
+            super.forEach(action);
+        } else {
+            variables().forEach(action);
+        }
+    }
+
+    /**
+     * Visit the variables of this layer itself, ignoring its parents.
+     *
+     * @param action The action.
+     */
+    void forEachOwn(BiConsumer<String, Object> action) {
+        super.forEach(action);
+    }
+
+    /**
+     * Whether a value visible from this context matches a predicate, without copying the layers;
+     * the values hidden by an upper layer are tested too.
+     *
+     * @param predicate The predicate.
+     * @return Whether a value matches.
+     */
+    boolean anyValue(Predicate<Object> predicate) {
+        for (Context layer = this; layer != null; layer = layer.parent) {
+            for (Object value : layer.ownValues()) {
+                if (predicate.test(value)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Collection<Object> ownValues() {
+        return super.values();
+    }
+
+    /**
+     * Visit every variable visible from this context once, the value of a variable being the one
+     * a lookup returns.
+     *
+     * @param action The action.
+     */
+    void forEachVariable(BiConsumer<String, Object> action) {
+        if (parent == null) {
+            super.forEach(action);
+            return;
+        }
+        variables().forEach(action);
+    }
+
+    /**
+     * @return The variables visible from this context, copied once for an immutable context, on each call otherwise.
+     */
+    private Map<String, Object> variables() {
+        Map<String, Object> variables = snapshot;
+        if (variables == null) {
+            variables = new HashMap<>();
+            copyLayers(null, variables);
+            if (immutable) {
+                snapshot = variables;
+            }
+        }
+        return variables;
+    }
+
+    /**
+     * Copy the variables of this context and its parents, down to but not including {@code last},
+     * the variables of the upper layers winning.
+     */
+    private void copyLayers(Context last, Map<String, Object> target) {
+        if (this == last) {
+            return;
+        }
+        if (parent != null) {
+            parent.copyLayers(last, target);
+        }
+        // a context copying its layers hides the removed variables of the layer it shares
+        if (removed != null) {
+            removed.forEach(target::remove);
+        }
+        super.forEach(target::put);
+    }
+
+    private void checkMutable() {
+        if (immutable) {
+            throw new UnsupportedOperationException("The context is immutable");
+        }
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        checkMutable();
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> m) {
+        checkMutable();
+        super.putAll(m);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        checkMutable();
+        if (parent == null) {
+            return super.remove(key);
+        }
+        Object previous = get(key);
+        super.remove(key);
+        if (parent.containsKey(key)) {
+            hide(key);
+        }
+        return previous;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        checkMutable();
+        if (parent == null) {
+            return super.remove(key, value);
+        }
+        if (!containsKey(key) || !Objects.equals(get(key), value)) {
+            return false;
+        }
+        remove(key);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        checkMutable();
+        super.clear();
+        if (parent != null) {
+            parent.forEachVariable((key, value) -> hide(key));
+        }
+    }
+
+    @Override
+    public Object putIfAbsent(String key, Object value) {
+        checkMutable();
+        return super.putIfAbsent(key, value);
+    }
+
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue) {
+        checkMutable();
+        return super.replace(key, oldValue, newValue);
+    }
+
+    @Override
+    public Object replace(String key, Object value) {
+        checkMutable();
+        return super.replace(key, value);
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object, ?> function) {
+        checkMutable();
+        super.replaceAll(function);
+    }
+
+    @Override
+    public Object computeIfAbsent(String key, Function<? super String, ?> mappingFunction) {
+        checkMutable();
+        return super.computeIfAbsent(key, mappingFunction);
+    }
+
+    @Override
+    public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ?> remappingFunction) {
+        checkMutable();
+        return super.computeIfPresent(key, remappingFunction);
+    }
+
+    @Override
+    public Object compute(String key, BiFunction<? super String, ? super Object, ?> remappingFunction) {
+        checkMutable();
+        return super.compute(key, remappingFunction);
+    }
+
+    @Override
+    public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+        checkMutable();
+        return super.merge(key, value, remappingFunction);
+    }
+
+    /**
+     * @return Whether the views are this map's own, live and modifiable, rather than read-only snapshots.
+     */
+    private boolean ownViews() {
+        return parent == null && !immutable;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return ownViews() ? super.keySet() : Collections.unmodifiableMap(variables()).keySet();
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return ownViews() ? super.values() : Collections.unmodifiableMap(variables()).values();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return ownViews() ? super.entrySet() : Collections.unmodifiableMap(variables()).entrySet();
+    }
+
+    @Override
+    public Object clone() {
+        return new Context(this);
+    }
 }
@@ -0,0 +1,251 @@
+package com.beastwall.beastengine;
+
+import javax.script.Bindings;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The variables of a render: the frames of the templates being rendered, see {@link Frame},
+ * the context, whose deferred values are resolved when they are read, see {@link DeferredValues},
+ * and the script engine bindings, only borrowed when an expression falls back
+ * to the script engine and returned when the render is over. It also counts what the render does for the
+ * engine's {@link RenderListener}.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+class ContextScope implements ExpressionScope {
+    /**
+     * The innermost layer of the render's variables, see {@link #push()}.
+     */
+    Context context;
+    /**
+     * The frame of the template being rendered, null outside of templates that declare variables.
+     * Its variables hide the ones of the context.
+     */
+    Frame frame;
+    final DeferredValues deferred;
+    /**
+     * The listener of the engine, null if it has none.
+     */
+    final RenderListener listener;
+    private Bindings bindings;
+    /**
+     * The variables of frames bound in the bindings, they are unbound once no frame nor the context has them.
+     */
+    private Set<String> boundLocals;
+    /**
+     * Whether the render creates bindings of its own rather than wait when the pooled ones are all borrowed,
+     * see {@link BindingsPool#tryBorrow()}.
+     */
+    boolean unpooledBindings;
+    private boolean pooled;
+    long evaluations;
+    long scriptEvaluations;
+    long loopIterations;
+    private ComponentRenderEvent event;
+    private long start;
+    private long startSize;
+
+    ContextScope(Context context, DeferredValues deferred, RenderListener listener) {
+        this.context = context.child();
+        this.deferred = deferred;
+        this.listener = listener;
+    }
+
+    /**
+     * Evaluate an expression, counting the evaluation.
+     *
+     * @param expression The expression.
+     * @return The value of the expression.
+     * @throws Exception If the evaluation fails.
+     */
+    Object evaluate(Expression expression) throws Exception {
+        evaluations++;
+        return expression.evaluate(this);
+    }
+
+    @Override
+    public void scriptEvaluated(String expression, long nanos) {
+        scriptEvaluations++;
+        if (listener != null) {
+            listener.scriptEvaluated(expression, nanos);
+        }
+    }
+
+    /**
+     * Report an expression that failed without failing the render.
+     */
+    void evaluationFailed(String expression, Throwable error) {
+        if (listener != null) {
+            listener.evaluationFailed(expression, error);
+        }
+    }
+
+    /**
+     * Set a variable of the render in the innermost layer.
+     *
+     * @param name  The name of the variable.
+     * @param value The value.
+     */
+    void put(String name, Object value) {
+        context.put(name, value);
+        if (bindings != null) {
+            bindings.put(name, value);
+        }
+    }
+
+    /**
+     * Open a layer for the variables of a scope, e.g. the item of a loop, nothing is copied.
+     *
+     * @return The layer, to {@link #pop(Context)} when the scope ends.
+     */
+    Context push() {
+        context = context.child();
+        return context;
+    }
+
+    /**
+     * Close a layer opened by {@link #push()}, its variables are gone and the ones they hid are visible again.
+     *
+     * @param scope The layer.
+     */
+    void pop(Context scope) {
+        context = scope.getParent();
+        if (bindings != null) {
+            scope.forEachOwn((name, ignored) -> {
+                Object value = context.get(name);
+                bindings.put(name, DeferredValues.isDeferred(value) ? null : value);
+            });
+        }
+    }
+
+    @Override
+    public Object variable(String name) {
+        if (frame != null) {
+            Object value = frame.lookup(name);
+            if (value != Frame.UNSET) {
+                return resolved(value);
+            }
+        }
+        return resolved(context.get(name));
+    }
+
+    @Override
+    public Object local(int slot, String name) {
+        Object value = frame.values[slot];
+        return value != Frame.UNSET ? resolved(value) : variable(name);
+    }
+
+    private Object resolved(Object value) {
+        return DeferredValues.isDeferred(value) ? deferred.resolve(value) : value;
+    }
+
+    /**
+     * Copy the variables of the render, the ones of the frames included, e.g. for a fragment of a tracked render.
+     *
+     * @return The copy.
+     */
+    Context snapshot() {
+        Context copy = new Context(context);
+        if (frame != null) {
+            frame.forEachVariable(copy::put);
+        }
+        return copy;
+    }
+
+    @Override
+    public Bindings bindings(String[] variables) {
+        if (bindings == null) {
+            bindings = unpooledBindings ? BeastEngine.scriptBindings.tryBorrow() : BeastEngine.scriptBindings.borrow();
+            pooled = bindings != null;
+            if (!pooled) {
+                bindings = BeastEngine.scriptEngine().createBindings();
+            }
+            // deferred values are only bound once an expression needs them
+            context.forEachVariable((name, value) -> {
+                if (!DeferredValues.isDeferred(value)) {
+                    bindings.put(name, value);
+                }
+            });
+        }
+        // the variables of the frames change without the bindings knowing, they are bound on each evaluation
+        for (String name : variables) {
+            Object value = frame != null ? frame.lookup(name) : Frame.UNSET;
+            if (value != Frame.UNSET) {
+                if (boundLocals == null) {
+                    boundLocals = new HashSet<>();
+                }
+                boundLocals.add(name);
+            } else if (context.containsKey(name)) {
+                value = context.get(name);
+            } else {
+                if (boundLocals != null && boundLocals.remove(name)) {
+                    bindings.remove(name);
+                }
+                continue;
+            }
+            bindings.put(name, resolved(value));
+        }
+        return bindings;
+    }
+
+    /**
+     * Start measuring the render, see {@link #completed(String, RenderOutput, boolean)}.
+     *
+     * @param out The output of the render.
+     */
+    void started(RenderOutput out) {
+        event = new ComponentRenderEvent();
+        event.begin();
+        if (listener != null) {
+            start = System.nanoTime();
+            startSize = out.size();
+        }
+    }
+
+    /**
+     * Report the measurements of the render to the listener, and to JFR when it is recording.
+     *
+     * @param componentName The name of the rendered component, null for a template string.
+     * @param out           The output of the render.
+     * @param failed        Whether the render failed.
+     */
+    void completed(String componentName, RenderOutput out, boolean failed) {
+        if (listener != null) {
+            listener.renderCompleted(new RenderStats(componentName, System.nanoTime() - start, out.size() - startSize,
+                    evaluationCount(), scriptEvaluationCount(), loopIterationCount(), failed));
+        }
+        if (event.shouldCommit()) {
+            event.component = componentName;
+            event.topLevel = true;
+            event.commit();
+        }
+    }
+
+    long evaluationCount() {
+        return evaluations;
+    }
+
+    long scriptEvaluationCount() {
+        return scriptEvaluations;
+    }
+
+    long loopIterationCount() {
+        return loopIterations;
+    }
+
+    /**
+     * Return the bindings borrowed by the render, if any, bindings created outside of the pool are dropped.
+     */
+    void release() {
+        if (bindings != null) {
+            Bindings borrowed = bindings;
+            bindings = null;
+            boundLocals = null;
+            if (pooled) {
+                BeastEngine.scriptBindings.release(borrowed);
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.beastwall.beastengine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Post-processing of rendered stylesheets: selector scoping and minification.
+ * Both are single scans that only understand as much CSS as they need to: comments, strings and blocks.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class CssProcessor {
+
+    private CssProcessor() {
+    }
+
+    /**
+     * Prefix every selector of a stylesheet with a scope selector, so its rules only apply under it.
+     * Rules nested in {@code @media}, {@code @supports}, {@code @container} and {@code @layer} are scoped too,
+     * the content of other at-rules, e.g. {@code @keyframes} or {@code @font-face}, is left as is.
+     * {@code :root}, {@code html} and {@code body} are replaced by the scope selector.
+     *
+     * @param css   The stylesheet.
+     * @param scope The scope selector, e.g. {@code [data-component="card"]}.
+     * @return The scoped stylesheet.
+     */
+    static String scope(String css, String scope) {
+        StringBuilder out = new StringBuilder(css.length() + 64);
+        int i = 0;
+        while (i < css.length()) {
+            // a stray closing brace only ends the rules before it
+            i = rules(css, i, out, scope);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Scope the rules of a block, up to the brace closing it.
+     *
+     * @return The index after the closing brace, or the length of the stylesheet.
+     */
+    private static int rules(String css, int i, StringBuilder out, String scope) {
+        int length = css.length();
+        int preludeStart = i;
+        while (i < length) {
+            char c = css.charAt(i);
+            if (c == '/' && i + 1 < length && css.charAt(i + 1) == '*') {
+                i = skipComment(css, i);
+            } else if (c == '"' || c == '\'') {
+                i = skipString(css, i);
+            } else if (c == ';') {
+                out.append(css, preludeStart, ++i);
+                preludeStart = i;
+            } else if (c == '}') {
+                out.append(css, preludeStart, ++i);
+                return i;
+            } else if (c == '{') {
+                String prelude = css.substring(preludeStart, i);
+                String trimmed = prelude.trim();
+                if (trimmed.startsWith("@")) {
+                    out.append(prelude).append('{');
+                    if (isGroupingRule(trimmed)) {
+                        i = rules(css, i + 1, out, scope);
+                    } else {
+                        int end = skipBlock(css, i);
+                        out.append(css, i + 1, end);
+                        i = end;
+                    }
+                } else {
+                    out.append(selectors(prelude, scope)).append('{');
+                    int end = skipBlock(css, i);
+                    out.append(css, i + 1, end);
+                    i = end;
+                }
+                preludeStart = i;
+            } else {
+                i++;
+            }
+        }
+        out.append(css, preludeStart, length);
+        return length;
+    }
+
+    private static boolean isGroupingRule(String prelude) {
+        String name = prelude.substring(1).split("[\\s({]", 2)[0].toLowerCase(Locale.ROOT);
+        return name.equals("media") || name.equals("supports") || name.equals("container") || name.equals("layer")
+                || name.equals("document");
+    }
+
+    private static String selectors(String prelude, String scope) {
+        // whitespace and comments before the selectors are kept in front of them
+        int start = 0;
+        while (start < prelude.length()) {
+            if (Character.isWhitespace(prelude.charAt(start))) {
+                start++;
+            } else if (prelude.startsWith("/*", start)) {
+                start = skipComment(prelude, start);
+            } else {
+                break;
+            }
+        }
+        List<String> selectors = new ArrayList<>();
+        int depth = 0;
+        int from = start;
+        for (int i = start; i < prelude.length(); i++) {
+            char c = prelude.charAt(i);
+            if (c == '(' || c == '[') {
+                depth++;
+            } else if (c == ')' || c == ']') {
+                depth--;
+            } else if (c == '"' || c == '\'') {
+                i = skipString(prelude, i) - 1;
+            } else if (c == ',' && depth == 0) {
+                selectors.add(prelude.substring(from, i));
+                from = i + 1;
+            }
+        }
+        selectors.add(prelude.substring(from));
+        StringBuilder out = new StringBuilder(prelude.length() + selectors.size() * (scope.length() + 1));
+        out.append(prelude, 0, start);
+        for (String selector : selectors) {
+            String trimmed = selector.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (out.length() > start) {
+                out.append(", ");
+            }
+            if (trimmed.startsWith(":root") || trimmed.startsWith("html") || trimmed.startsWith("body")) {
+                int rootEnd = trimmed.startsWith(":root") ? 5 : 4;
+                if (rootEnd == trimmed.length() || !Character.isLetterOrDigit(trimmed.charAt(rootEnd)) && trimmed.charAt(rootEnd) != '-') {
+                    out.append(scope).append(trimmed, rootEnd, trimmed.length());
+                    continue;
+                }
+            }
+            out.append(scope).append(' ').append(trimmed);
+        }
+        return out.append(' ').toString();
+    }
+
+    /**
+     * Minify a stylesheet: comments are dropped, whitespace is collapsed and removed where it isn't needed,
+     * and so is the last semicolon of every block. Strings are kept as they are.
+     *
+     * @param css The stylesheet.
+     * @return The minified stylesheet.
+     */
+    static String minify(String css) {
+        int length = css.length();
+        StringBuilder out = new StringBuilder(length);
+        boolean space = false;
+        for (int i = 0; i < length; ) {
+            char c = css.charAt(i);
+            if (c == '/' && i + 1 < length && css.charAt(i + 1) == '*') {
+                i = skipComment(css, i);
+                space = true;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+            if (space) {
+                space = false;
+                if (out.length() > 0 && "{};,>~(:".indexOf(out.charAt(out.length() - 1)) < 0 && "{};,>~)!".indexOf(c) < 0) {
+                    out.append(' ');
+                }
+            }
+            if (c == '"' || c == '\'') {
+                int end = skipString(css, i);
+                out.append(css, i, end);
+                i = end;
+                continue;
+            }
+            if (c == '}' && out.length() > 0 && out.charAt(out.length() - 1) == ';') {
+                out.setLength(out.length() - 1);
+            }
+            out.append(c);
+            i++;
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return The index after the comment starting at {@code i}.
+     */
+    private static int skipComment(String css, int i) {
+        int end = css.indexOf("*/", i + 2);
+        return end < 0 ? css.length() : end + 2;
+    }
+
+    /**
+     * @return The index after the string starting at {@code i}.
+     */
+    private static int skipString(String css, int i) {
+        char quote = css.charAt(i);
+        for (i++; i < css.length(); i++) {
+            char c = css.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == quote || c == '\n') {
+                return i + 1;
+            }
+        }
+        return css.length();
+    }
+
+    /**
+     * @return The index after the brace closing the block opened at {@code i}.
+     */
+    private static int skipBlock(String css, int i) {
+        int depth = 0;
+        while (i < css.length()) {
+            char c = css.charAt(i);
+            if (c == '/' && i + 1 < css.length() && css.charAt(i + 1) == '*') {
+                i = skipComment(css, i);
+                continue;
+            }
+            if (c == '"' || c == '\'') {
+                i = skipString(css, i);
+                continue;
+            }
+            if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return css.length();
+    }
+}
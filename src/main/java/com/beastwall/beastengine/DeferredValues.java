@@ -0,0 +1,92 @@
+package com.beastwall.beastengine;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * The context values of a render that are only known later: {@link CompletableFuture}s, waited for when
+ * a node reads them, and {@link Supplier}s, called the first time a node reads them, or prefetched on an executor.
+ * A render and the subtrees it forks share the same instance, so a supplier is called at most once per render.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class DeferredValues {
+    /**
+     * The futures of the suppliers called so far, a supplier is called outside of the map once its future is in it,
+     * so it may resolve other deferred values.
+     */
+    private final Map<Supplier<?>, CompletableFuture<Object>> supplied = new ConcurrentHashMap<>();
+
+    /**
+     * @param value A context value.
+     * @return Whether the value is deferred.
+     */
+    static boolean isDeferred(Object value) {
+        return value instanceof CompletableFuture || value instanceof Supplier;
+    }
+
+    /**
+     * Get the value of a deferred context value, waiting for it if needed.
+     *
+     * @param value The context value.
+     * @return The value, the context value itself if it isn't deferred.
+     * @throws java.util.concurrent.CompletionException If the future or the supplier failed.
+     */
+    Object resolve(Object value) {
+        if (value instanceof Supplier) {
+            value = supply((Supplier<?>) value, null);
+        }
+        if (value instanceof CompletableFuture) {
+            return ((CompletableFuture<?>) value).join();
+        }
+        return value;
+    }
+
+    /**
+     * Start calling a supplier on an executor, unless it was already called.
+     *
+     * @param supplier The supplier.
+     * @param executor The executor.
+     * @return The future of its value.
+     */
+    CompletableFuture<?> prefetch(Supplier<?> supplier, Executor executor) {
+        return supply(supplier, executor);
+    }
+
+    /**
+     * Get the future of a supplier, calling it the first time, on an executor or on this thread.
+     */
+    private CompletableFuture<Object> supply(Supplier<?> supplier, Executor executor) {
+        CompletableFuture<Object> future = supplied.get(supplier);
+        if (future != null) {
+            return future;
+        }
+        CompletableFuture<Object> placeholder = new CompletableFuture<>();
+        future = supplied.putIfAbsent(supplier, placeholder);
+        if (future != null) {
+            return future;
+        }
+        if (executor == null) {
+            call(supplier, placeholder);
+            return placeholder;
+        }
+        try {
+            executor.execute(() -> call(supplier, placeholder));
+        } catch (RuntimeException e) {
+            placeholder.completeExceptionally(e);
+        }
+        return placeholder;
+    }
+
+    private static void call(Supplier<?> supplier, CompletableFuture<Object> future) {
+        try {
+            future.complete(supplier.get());
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.beastwall.beastengine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Loads components from a directory of the file system.
+ * With watching enabled a daemon thread follows the directory tree through a {@link WatchService}
+ * and notifies the engines of every template that is modified, created or deleted, so template changes
+ * show up without restarting the JVM.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+public class DirectoryComponentSource implements ComponentSource, Closeable {
+    /**
+     * Files above this size are memory mapped instead of read into a heap buffer.
+     */
+    private static final long MAP_THRESHOLD = 64 * 1024;
+
+    private final Path root;
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    private final WatchService watchService;
+    private final Thread watcher;
+
+    /**
+     * A source that doesn't watch the directory.
+     *
+     * @param root The directory of the components.
+     */
+    public DirectoryComponentSource(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+        this.watchService = null;
+        this.watcher = null;
+    }
+
+    /**
+     * @param root  The directory of the components.
+     * @param watch Whether to watch the directory for changes.
+     * @throws IOException If the directory can't be watched.
+     */
+    public DirectoryComponentSource(Path root, boolean watch) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        if (!watch) {
+            this.watchService = null;
+            this.watcher = null;
+            return;
+        }
+        this.watchService = this.root.getFileSystem().newWatchService();
+        registerTree(this.root);
+        this.watcher = new Thread(this::watch, "beast-engine-component-watcher");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    @Override
+    public String read(String path) throws IOException {
+        Path file = root.resolve(path).normalize();
+        if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+            return null;
+        }
+        return readFile(file);
+    }
+
+    @Override
+    public Set<String> list() throws IOException {
+        Set<String> paths = new TreeSet<>();
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(Files::isRegularFile)
+                    .forEach(file -> paths.add(root.relativize(file).toString().replace('\\', '/')));
+        }
+        return paths;
+    }
+
+    /**
+     * Read a UTF-8 file through its channel, large files are memory mapped.
+     *
+     * @param file The file.
+     * @return The content of the file.
+     * @throws IOException If the file can't be read.
+     */
+    static String readFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buffer;
+            if (size > MAP_THRESHOLD) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading
+                }
+                buffer.flip();
+            }
+            return StandardCharsets.UTF_8.decode(buffer).toString();
+        }
+    }
+
+    @Override
+    public void addChangeListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return The directory of the components.
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Stop watching the directory.
+     *
+     * @throws IOException If the watch service fails to close.
+     */
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watcher.interrupt();
+            watchService.close();
+        }
+    }
+
+    private void registerTree(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    continue;
+                }
+                Path changed = directory.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                    try {
+                        registerTree(changed);
+                    } catch (IOException ignored) {
+                        // the directory is already gone
+                    }
+                    continue;
+                }
+                String path = root.relativize(changed).toString().replace('\\', '/');
+                for (Consumer<String> listener : listeners) {
+                    try {
+                        listener.accept(path);
+                    } catch (RuntimeException ignored) {
+                        // a failing listener must not stop the watcher
+                    }
+                }
+            }
+            key.reset();
+        }
+    }
+}
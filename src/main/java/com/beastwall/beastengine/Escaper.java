@@ -0,0 +1,331 @@
+package com.beastwall.beastengine;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * How the value of an expression is escaped, chosen when the template is compiled from where the expression is:
+ * in text, in an attribute, in a URL, a script or a style attribute.
+ * Escapers scan the value for characters that need escaping and copy the runs in between as they are,
+ * a value that needs no escaping is returned or written unchanged.
+ * The ordinals are part of the plan archive format, constants are only ever added at the end.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+enum Escaper {
+    /**
+     * Text: {@code & < > " '} and non-breaking spaces become entities, as Jsoup escapes them.
+     */
+    TEXT,
+    /**
+     * A double quoted attribute value, escaped like {@link #TEXT}.
+     */
+    ATTRIBUTE,
+    /**
+     * The start of a URL attribute: a URL whose scheme isn't http, https, mailto or tel is replaced by
+     * {@code about:invalid}, characters that can't appear in a URL are percent encoded, then {@code &} is escaped.
+     */
+    URL,
+    /**
+     * A value after the start of a URL attribute and before its query: like {@link #URL}, the scheme isn't checked.
+     */
+    URL_PART,
+    /**
+     * A value in the query or fragment of a URL attribute: everything but letters, digits and {@code -._~}
+     * is percent encoded.
+     */
+    URL_QUERY,
+    /**
+     * An event handler attribute: everything but letters, digits and {@code ,._-} becomes a JavaScript hexadecimal
+     * or unicode escape, so the value can't end the string it is in nor make code of its own.
+     */
+    SCRIPT,
+    /**
+     * A style attribute: CSS can't be escaped without changing what it means, values with characters that could
+     * end the declaration, start a function or a comment, e.g. {@code url(} or {@code ;}, are dropped.
+     */
+    CSS,
+    /**
+     * Not escaped, for {@code {{{ }}}} and {@code <bs:raw>}.
+     */
+    RAW;
+
+    private static final Escaper[] VALUES = values();
+    private static final String[] HTML_ENTITIES = new String[0xA1];
+    private static final boolean[] URL_CHARS = new boolean[0x80];
+    private static final boolean[] QUERY_CHARS = new boolean[0x80];
+    private static final boolean[] SCRIPT_CHARS = new boolean[0x80];
+    private static final boolean[] CSS_CHARS = new boolean[0x80];
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final Set<String> URL_ATTRIBUTES = Set.of("href", "src", "action", "formaction", "cite", "poster",
+            "background", "longdesc", "usemap", "data", "manifest", "ping", "codebase", "xlink:href");
+    private static final String INVALID_URL = "about:invalid";
+
+    static {
+        HTML_ENTITIES['&'] = "&amp;";
+        HTML_ENTITIES['<'] = "&lt;";
+        HTML_ENTITIES['>'] = "&gt;";
+        HTML_ENTITIES['"'] = "&quot;";
+        HTML_ENTITIES['\''] = "&apos;";
+        HTML_ENTITIES[0xA0] = "&nbsp;";
+        for (char c = '0'; c <= 'z'; c++) {
+            if (Character.isLetterOrDigit(c)) {
+                URL_CHARS[c] = true;
+                QUERY_CHARS[c] = true;
+                SCRIPT_CHARS[c] = true;
+                CSS_CHARS[c] = true;
+            }
+        }
+        for (char c : "-._~!#$&*+,/:;=?@[]%".toCharArray()) {
+            URL_CHARS[c] = true;
+        }
+        for (char c : "-._~".toCharArray()) {
+            QUERY_CHARS[c] = true;
+        }
+        for (char c : ",._-".toCharArray()) {
+            SCRIPT_CHARS[c] = true;
+        }
+        for (char c : " #%+,-.!".toCharArray()) {
+            CSS_CHARS[c] = true;
+        }
+    }
+
+    /**
+     * @return The escaper of a plan archive.
+     */
+    static Escaper of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /**
+     * @return The escaper of the values of an attribute, not counting its position in a URL.
+     */
+    static Escaper forAttribute(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (URL_ATTRIBUTES.contains(lower)) {
+            return URL;
+        }
+        if (lower.startsWith("on")) {
+            return SCRIPT;
+        }
+        if (lower.equals("style")) {
+            return CSS;
+        }
+        return ATTRIBUTE;
+    }
+
+    /**
+     * Check the scheme of a whole URL attribute value, already escaped, when it starts with interpolations:
+     * its scheme may then come from several values, or from a value and the literal after it.
+     *
+     * @param url The value of the attribute.
+     * @return The value, {@code about:invalid} if its scheme isn't one a link may safely have.
+     */
+    static String checkScheme(String url) {
+        return hasSafeScheme(url) ? url : INVALID_URL;
+    }
+
+    /**
+     * Escape a value.
+     *
+     * @param value The value.
+     * @return The escaped value, the value itself if nothing needs escaping.
+     */
+    String escape(String value) {
+        String filtered = filter(value);
+        if (filtered != value) {
+            return filtered;
+        }
+        int first = firstUnsafe(value);
+        if (first < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 16);
+        try {
+            sb.append(value, 0, first);
+            escape(value, first, sb);
+        } catch (IOException e) {
+            // a StringBuilder doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write a value escaped.
+     *
+     * @param value The value.
+     * @param out   The output.
+     * @throws IOException If the output can't be written.
+     */
+    void write(String value, Appendable out) throws IOException {
+        String filtered = filter(value);
+        if (filtered != value) {
+            out.append(filtered);
+            return;
+        }
+        int first = firstUnsafe(value);
+        if (first < 0) {
+            out.append(value);
+            return;
+        }
+        out.append(value, 0, first);
+        escape(value, first, out);
+    }
+
+    /**
+     * @return What replaces a value that can't be escaped, the value itself if it can be.
+     */
+    private String filter(String value) {
+        if (this == URL && !hasSafeScheme(value)) {
+            return INVALID_URL;
+        }
+        if (this == CSS && !isSafeCss(value)) {
+            return "";
+        }
+        return value;
+    }
+
+    private int firstUnsafe(String value) {
+        if (this == RAW || this == CSS) {
+            return -1;
+        }
+        for (int i = 0, length = value.length(); i < length; i++) {
+            if (!isSafe(value.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isSafe(char c) {
+        switch (this) {
+            case TEXT:
+            case ATTRIBUTE:
+                return c > 0xA0 || HTML_ENTITIES[c] == null;
+            case URL:
+            case URL_PART:
+                return c < 0x80 && URL_CHARS[c] && c != '&';
+            case URL_QUERY:
+                return c < 0x80 && QUERY_CHARS[c];
+            case SCRIPT:
+                return c < 0x80 && SCRIPT_CHARS[c];
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Escape a value from its first unsafe character, copying the runs of safe characters in bulk.
+     */
+    private void escape(String value, int from, Appendable out) throws IOException {
+        int length = value.length();
+        int start = from;
+        int i = from;
+        while (i < length) {
+            char c = value.charAt(i);
+            if (isSafe(c)) {
+                i++;
+                continue;
+            }
+            out.append(value, start, i);
+            switch (this) {
+                case TEXT:
+                case ATTRIBUTE:
+                    out.append(HTML_ENTITIES[c]);
+                    i++;
+                    break;
+                case URL:
+                case URL_PART:
+                    if (c == '&') {
+                        out.append("&amp;");
+                        i++;
+                        break;
+                    }
+                    i = percentEncode(value, i, out);
+                    break;
+                case URL_QUERY:
+                    i = percentEncode(value, i, out);
+                    break;
+                case SCRIPT:
+                    if (c < 0x80) {
+                        out.append('\\').append('x').append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        out.append('\\').append('u').append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xF])
+                                .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+                    }
+                    i++;
+                    break;
+                default:
+                    out.append(c);
+                    i++;
+            }
+            start = i;
+        }
+        out.append(value, start, length);
+    }
+
+    /**
+     * Percent encode the UTF-8 bytes of the code point at an index, a lone surrogate is encoded as U+FFFD.
+     *
+     * @return The index after the code point.
+     */
+    private static int percentEncode(String value, int index, Appendable out) throws IOException {
+        int codePoint = value.codePointAt(index);
+        int next = index + Character.charCount(codePoint);
+        if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+            codePoint = 0xFFFD;
+        }
+        if (codePoint < 0x80) {
+            percent(codePoint, out);
+        } else if (codePoint < 0x800) {
+            percent(0xC0 | codePoint >> 6, out);
+            percent(0x80 | codePoint & 0x3F, out);
+        } else if (codePoint < 0x10000) {
+            percent(0xE0 | codePoint >> 12, out);
+            percent(0x80 | codePoint >> 6 & 0x3F, out);
+            percent(0x80 | codePoint & 0x3F, out);
+        } else {
+            percent(0xF0 | codePoint >> 18, out);
+            percent(0x80 | codePoint >> 12 & 0x3F, out);
+            percent(0x80 | codePoint >> 6 & 0x3F, out);
+            percent(0x80 | codePoint & 0x3F, out);
+        }
+        return next;
+    }
+
+    private static void percent(int b, Appendable out) throws IOException {
+        out.append('%').append(HEX[b >> 4]).append(HEX[b & 0xF]);
+    }
+
+    /**
+     * Whether a URL is relative or has one of the schemes a link may safely have.
+     */
+    private static boolean hasSafeScheme(String url) {
+        int length = url.length();
+        for (int i = 0; i < length; i++) {
+            char c = url.charAt(i);
+            if (c == ':') {
+                String scheme = url.substring(0, i).trim().toLowerCase(Locale.ROOT);
+                return scheme.equals("http") || scheme.equals("https") || scheme.equals("mailto") || scheme.equals("tel");
+            }
+            if (c == '/' || c == '?' || c == '#') {
+                return true;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSafeCss(String value) {
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80 && !CSS_CHARS[c]) {
+                return false;
+            }
+        }
+        String lower = value.toLowerCase(Locale.ROOT);
+        return !lower.contains("expression") && !lower.contains("mozbinding");
+    }
+}
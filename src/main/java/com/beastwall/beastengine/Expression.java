@@ -0,0 +1,22 @@
+package com.beastwall.beastengine;
+
+/**
+ * A compiled template expression, either a native lambda tree built by {@link ExpressionParser}
+ * or a fallback that runs the source through the script engine.
+ * Expressions are immutable and can be shared between renders and threads.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+@FunctionalInterface
+interface Expression {
+
+    /**
+     * Evaluate the expression.
+     *
+     * @param scope The scope variables are resolved from.
+     * @return The value of the expression.
+     * @throws Exception If the evaluation fails.
+     */
+    Object evaluate(ExpressionScope scope) throws Exception;
+}
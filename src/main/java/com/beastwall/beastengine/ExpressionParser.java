@@ -0,0 +1,461 @@
+package com.beastwall.beastengine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recursive descent parser for the expression subset the engine evaluates natively:
+ * literals, property paths, {@code ! - +} unary operators, arithmetic, comparisons,
+ * {@code && ||} and the ternary operator.
+ * Expressions are compiled into a tree of lambdas, operations on constants are folded while parsing.
+ * Anything outside of that subset (calls, indexing, assignments...) makes {@link #parse(String, Map)} return null.
+ * Variables the template declares are read from their slot, the others by name.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class ExpressionParser {
+
+    private final String source;
+    private final Map<String, Integer> slots;
+    private int pos;
+
+    private ExpressionParser(String source, Map<String, Integer> slots) {
+        this.source = source;
+        this.slots = slots;
+    }
+
+    /**
+     * Parse an expression.
+     *
+     * @param source The source of the expression.
+     * @param slots  The slots of the variables the template declares, by name.
+     * @return The compiled expression, or null if the expression isn't supported.
+     */
+    static Expression parse(String source, Map<String, Integer> slots) {
+        ExpressionParser parser = new ExpressionParser(source, slots);
+        try {
+            Node node = parser.ternary();
+            parser.skipWhitespace();
+            if (parser.pos != source.length()) {
+                return null;
+            }
+            return node.expression;
+        } catch (UnsupportedExpressionException e) {
+            return null;
+        }
+    }
+
+    private Node ternary() {
+        Node condition = or();
+        if (!accept("?")) {
+            return condition;
+        }
+        Node then = ternary();
+        expect(":");
+        Node otherwise = ternary();
+        if (condition.isConstant()) {
+            return Expressions.truthy(condition.value) ? then : otherwise;
+        }
+        Expression c = condition.expression, t = then.expression, o = otherwise.expression;
+        return new Node(scope -> Expressions.truthy(c.evaluate(scope)) ? t.evaluate(scope) : o.evaluate(scope));
+    }
+
+    private Node or() {
+        Node left = and();
+        while (accept("||")) {
+            Node right = and();
+            Expression l = left.expression, r = right.expression;
+            left = fold(new Node(scope -> {
+                Object value = l.evaluate(scope);
+                return Expressions.truthy(value) ? value : r.evaluate(scope);
+            }), left, right);
+        }
+        return left;
+    }
+
+    private Node and() {
+        Node left = equality();
+        while (accept("&&")) {
+            Node right = equality();
+            Expression l = left.expression, r = right.expression;
+            left = fold(new Node(scope -> {
+                Object value = l.evaluate(scope);
+                return Expressions.truthy(value) ? r.evaluate(scope) : value;
+            }), left, right);
+        }
+        return left;
+    }
+
+    private Node equality() {
+        Node left = relational();
+        while (true) {
+            Expression l = left.expression;
+            Node right;
+            Node result;
+            if (accept("===")) {
+                Expression r = (right = relational()).expression;
+                result = new Node(scope -> Expressions.strictEquals(l.evaluate(scope), r.evaluate(scope)));
+            } else if (accept("!==")) {
+                Expression r = (right = relational()).expression;
+                result = new Node(scope -> !Expressions.strictEquals(l.evaluate(scope), r.evaluate(scope)));
+            } else if (accept("==")) {
+                Expression r = (right = relational()).expression;
+                result = new Node(scope -> Expressions.looseEquals(l.evaluate(scope), r.evaluate(scope)));
+            } else if (accept("!=")) {
+                Expression r = (right = relational()).expression;
+                result = new Node(scope -> !Expressions.looseEquals(l.evaluate(scope), r.evaluate(scope)));
+            } else {
+                return left;
+            }
+            left = fold(result, left, right);
+        }
+    }
+
+    private Node relational() {
+        Node left = additive();
+        while (true) {
+            Expression l = left.expression;
+            Node right;
+            Node result;
+            if (accept("<=")) {
+                Expression r = (right = additive()).expression;
+                result = new Node(scope -> {
+                    Integer c = Expressions.compare(l.evaluate(scope), r.evaluate(scope));
+                    return c != null && c <= 0;
+                });
+            } else if (accept(">=")) {
+                Expression r = (right = additive()).expression;
+                result = new Node(scope -> {
+                    Integer c = Expressions.compare(l.evaluate(scope), r.evaluate(scope));
+                    return c != null && c >= 0;
+                });
+            } else if (accept("<")) {
+                Expression r = (right = additive()).expression;
+                result = new Node(scope -> {
+                    Integer c = Expressions.compare(l.evaluate(scope), r.evaluate(scope));
+                    return c != null && c < 0;
+                });
+            } else if (accept(">")) {
+                Expression r = (right = additive()).expression;
+                result = new Node(scope -> {
+                    Integer c = Expressions.compare(l.evaluate(scope), r.evaluate(scope));
+                    return c != null && c > 0;
+                });
+            } else {
+                return left;
+            }
+            left = fold(result, left, right);
+        }
+    }
+
+    private Node additive() {
+        Node left = multiplicative();
+        while (true) {
+            Expression l = left.expression;
+            Node right;
+            Node result;
+            if (accept("+")) {
+                Expression r = (right = multiplicative()).expression;
+                result = new Node(scope -> Expressions.add(l.evaluate(scope), r.evaluate(scope)));
+            } else if (accept("-")) {
+                Expression r = (right = multiplicative()).expression;
+                result = new Node(scope -> Expressions.subtract(l.evaluate(scope), r.evaluate(scope)));
+            } else {
+                return left;
+            }
+            left = fold(result, left, right);
+        }
+    }
+
+    private Node multiplicative() {
+        Node left = unary();
+        while (true) {
+            Expression l = left.expression;
+            Node right;
+            Node result;
+            if (accept("*")) {
+                Expression r = (right = unary()).expression;
+                result = new Node(scope -> Expressions.multiply(l.evaluate(scope), r.evaluate(scope)));
+            } else if (accept("/")) {
+                Expression r = (right = unary()).expression;
+                result = new Node(scope -> Expressions.divide(l.evaluate(scope), r.evaluate(scope)));
+            } else if (accept("%")) {
+                Expression r = (right = unary()).expression;
+                result = new Node(scope -> Expressions.remainder(l.evaluate(scope), r.evaluate(scope)));
+            } else {
+                return left;
+            }
+            left = fold(result, left, right);
+        }
+    }
+
+    private Node unary() {
+        if (accept("!")) {
+            Node operand = unary();
+            Expression o = operand.expression;
+            return fold(new Node(scope -> !Expressions.truthy(o.evaluate(scope))), operand, operand);
+        }
+        if (accept("-")) {
+            Node operand = unary();
+            Expression o = operand.expression;
+            return fold(new Node(scope -> Expressions.negate(o.evaluate(scope))), operand, operand);
+        }
+        if (accept("+")) {
+            Node operand = unary();
+            Expression o = operand.expression;
+            return fold(new Node(scope -> Expressions.number(Expressions.toNumber(o.evaluate(scope)))), operand, operand);
+        }
+        return primary();
+    }
+
+    private Node primary() {
+        skipWhitespace();
+        if (pos >= source.length()) {
+            throw UNSUPPORTED;
+        }
+        char c = source.charAt(pos);
+        if (c == '(') {
+            pos++;
+            Node node = ternary();
+            expect(")");
+            return node;
+        }
+        if (c == '\'' || c == '"') {
+            return Node.constant(string(c));
+        }
+        if (Character.isDigit(c) || (c == '.' && pos + 1 < source.length() && Character.isDigit(source.charAt(pos + 1)))) {
+            return Node.constant(number());
+        }
+        if (Character.isJavaIdentifierStart(c)) {
+            return path();
+        }
+        throw UNSUPPORTED;
+    }
+
+    private Node path() {
+        String root = identifier();
+        switch (root) {
+            case "true":
+                return Node.constant(true);
+            case "false":
+                return Node.constant(false);
+            case "null":
+            case "undefined":
+                return Node.constant(null);
+            case "new":
+            case "typeof":
+            case "instanceof":
+            case "in":
+            case "function":
+            case "this":
+            case "void":
+            case "delete":
+                throw UNSUPPORTED;
+            default:
+        }
+        List<String> properties = new ArrayList<>();
+        while (true) {
+            skipWhitespace();
+            if (pos < source.length() && source.charAt(pos) == '.') {
+                pos++;
+                skipWhitespace();
+                properties.add(identifier());
+            } else {
+                break;
+            }
+        }
+        skipWhitespace();
+        // calls and indexing are left to the script engine
+        if (pos < source.length() && (source.charAt(pos) == '(' || source.charAt(pos) == '[')) {
+            throw UNSUPPORTED;
+        }
+        Integer slot = slots.get(root);
+        if (properties.isEmpty()) {
+            if (slot != null) {
+                int index = slot;
+                return new Node(scope -> scope.local(index, root));
+            }
+            return new Node(scope -> scope.variable(root));
+        }
+        PropertyPath path = PropertyPath.of(properties.toArray(new String[0]));
+        if (slot != null) {
+            int index = slot;
+            return new Node(scope -> path.get(scope.local(index, root)));
+        }
+        return new Node(scope -> path.get(scope.variable(root)));
+    }
+
+    private String identifier() {
+        int start = pos;
+        if (pos >= source.length() || !Character.isJavaIdentifierStart(source.charAt(pos))) {
+            throw UNSUPPORTED;
+        }
+        pos++;
+        while (pos < source.length() && Character.isJavaIdentifierPart(source.charAt(pos))) {
+            pos++;
+        }
+        return source.substring(start, pos);
+    }
+
+    private Object number() {
+        int start = pos;
+        while (pos < source.length() && (Character.isDigit(source.charAt(pos)) || source.charAt(pos) == '.')) {
+            pos++;
+        }
+        if (pos < source.length() && (source.charAt(pos) == 'e' || source.charAt(pos) == 'E')) {
+            pos++;
+            if (pos < source.length() && (source.charAt(pos) == '+' || source.charAt(pos) == '-')) {
+                pos++;
+            }
+            while (pos < source.length() && Character.isDigit(source.charAt(pos))) {
+                pos++;
+            }
+        }
+        if (pos < source.length() && Character.isJavaIdentifierPart(source.charAt(pos))) {
+            // hex, octal, 10px...
+            throw UNSUPPORTED;
+        }
+        String literal = source.substring(start, pos);
+        try {
+            return Expressions.number(Long.parseLong(literal));
+        } catch (NumberFormatException e) {
+            try {
+                return Expressions.number(Double.parseDouble(literal));
+            } catch (NumberFormatException ex) {
+                throw UNSUPPORTED;
+            }
+        }
+    }
+
+    private String string(char quote) {
+        StringBuilder sb = new StringBuilder();
+        pos++;
+        while (pos < source.length()) {
+            char c = source.charAt(pos++);
+            if (c == quote) {
+                return sb.toString();
+            }
+            if (c == '\\') {
+                if (pos >= source.length()) {
+                    break;
+                }
+                char escaped = source.charAt(pos++);
+                switch (escaped) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case '\\':
+                    case '\'':
+                    case '"':
+                        sb.append(escaped);
+                        break;
+                    default:
+                        // unicode, hex... escapes
+                        throw UNSUPPORTED;
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        throw UNSUPPORTED;
+    }
+
+    /**
+     * Fold an operation on constants into a constant.
+     */
+    private static Node fold(Node operation, Node left, Node right) {
+        if (left.isConstant() && right.isConstant()) {
+            try {
+                return Node.constant(operation.expression.evaluate(null));
+            } catch (Exception e) {
+                return operation;
+            }
+        }
+        return operation;
+    }
+
+    private boolean accept(String token) {
+        skipWhitespace();
+        if (!source.startsWith(token, pos)) {
+            return false;
+        }
+        int end = pos + token.length();
+        // don't take '=' of '==', '&' of '&&'... and leave assignments to the script engine
+        if (end < source.length()) {
+            char next = source.charAt(end);
+            if ((token.equals("<") || token.equals(">") || token.equals("!")) && next == '=') {
+                return false;
+            }
+            if ((token.equals("==") || token.equals("!=")) && next == '=') {
+                return false;
+            }
+            if ((token.equals("+") && next == '+') || (token.equals("-") && next == '-')
+                    || ("+-*/%".contains(token) && next == '=')) {
+                throw UNSUPPORTED;
+            }
+        }
+        pos = end;
+        return true;
+    }
+
+    private void expect(String token) {
+        if (!accept(token)) {
+            throw UNSUPPORTED;
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    /**
+     * A parsed (sub)expression, constants keep their value so operations on them can be folded.
+     */
+    private static final class Node {
+        private static final Object NOT_CONSTANT = new Object();
+
+        final Expression expression;
+        final Object value;
+
+        Node(Expression expression) {
+            this.expression = expression;
+            this.value = NOT_CONSTANT;
+        }
+
+        private Node(Expression expression, Object value) {
+            this.expression = expression;
+            this.value = value;
+        }
+
+        static Node constant(Object value) {
+            return new Node(scope -> value, value);
+        }
+
+        boolean isConstant() {
+            return value != NOT_CONSTANT;
+        }
+    }
+
+    /**
+     * Only thrown to hand an expression over to the script engine, so a single instance without a stack trace will do.
+     */
+    private static final UnsupportedExpressionException UNSUPPORTED = new UnsupportedExpressionException();
+
+    private static final class UnsupportedExpressionException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedExpressionException() {
+            super(null, null, false, false);
+        }
+    }
+}
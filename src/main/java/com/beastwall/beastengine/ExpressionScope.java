@@ -0,0 +1,49 @@
+package com.beastwall.beastengine;
+
+import javax.script.Bindings;
+
+/**
+ * Where an {@link Expression} resolves its variables from.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+interface ExpressionScope {
+
+    /**
+     * Resolve a top level variable.
+     *
+     * @param name The name of the variable.
+     * @return The value of the variable, or null if it isn't defined.
+     */
+    Object variable(String name);
+
+    /**
+     * Resolve a variable the template declares, e.g. the item of a {@code bs:for}, by the slot it was given
+     * when the template was compiled, see {@link FrameLayout}.
+     *
+     * @param slot The slot of the variable in the frame of the template being rendered.
+     * @param name The name of the variable, it is looked up by name while its slot isn't set.
+     * @return The value of the variable, or null if it isn't defined.
+     */
+    default Object local(int slot, String name) {
+        return variable(name);
+    }
+
+    /**
+     * Get the script engine bindings expressions the native evaluator can't handle are evaluated with.
+     *
+     * @param variables The variables the expression references, they are bound with their resolved value.
+     * @return The bindings.
+     */
+    Bindings bindings(String[] variables);
+
+    /**
+     * Called after the script engine evaluated an expression.
+     *
+     * @param expression The source of the expression.
+     * @param nanos      How long the evaluation took.
+     */
+    default void scriptEvaluated(String expression, long nanos) {
+    }
+}
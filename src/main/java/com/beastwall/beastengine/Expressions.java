@@ -0,0 +1,401 @@
+package com.beastwall.beastengine;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Compiles template expressions and holds the JavaScript-like semantics the native evaluator follows,
+ * so that switching an expression from the script engine to the native evaluator doesn't change its output.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class Expressions {
+
+    private static final Set<String> scriptFallbacks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Compiled expressions shared by every engine and thread, keyed by expression source.
+     */
+    static final BoundedCache<String, Expression> cache =
+            new BoundedCache<>(Long.getLong("beastengine.expressionCacheSize", 10_000));
+
+    private Expressions() {
+    }
+
+    /**
+     * Compile an expression, expressions the native evaluator can't handle are evaluated by the script engine.
+     *
+     * @param source The source of the expression.
+     * @return The compiled expression.
+     */
+    static Expression compile(String source) {
+        return cache.get(source.trim(), expression -> {
+            Expression compiled = ExpressionParser.parse(expression, Map.of());
+            if (compiled == null) {
+                scriptFallbacks.add(expression);
+                compiled = new ScriptExpression(expression);
+            }
+            return compiled;
+        });
+    }
+
+    /**
+     * Compile an expression of a template, reading the variables the template declares from their slot.
+     * Expressions are shared by the templates whose slots of the variables they reference are the same.
+     *
+     * @param source The source of the expression.
+     * @param slots  Gives the slot of a variable declared where the expression is, null for the other variables.
+     * @return The compiled expression.
+     */
+    static Expression compile(String source, Function<String, Integer> slots) {
+        String trimmed = source.trim();
+        Set<String> names = new LinkedHashSet<>();
+        variables(trimmed, names);
+        Map<String, Integer> bound = null;
+        for (String name : names) {
+            Integer slot = slots.apply(name);
+            if (slot != null) {
+                if (bound == null) {
+                    bound = new LinkedHashMap<>();
+                }
+                bound.put(name, slot);
+            }
+        }
+        if (bound == null) {
+            return compile(trimmed);
+        }
+        Map<String, Integer> resolved = bound;
+        return cache.get(trimmed + '\0' + bound, key -> {
+            Expression compiled = ExpressionParser.parse(trimmed, resolved);
+            // the script engine looks every variable up by name
+            return compiled != null ? compiled : compile(trimmed);
+        });
+    }
+
+    /**
+     * Compile an expression ahead of its first evaluation, including the script of a script engine fallback.
+     *
+     * @param source The source of the expression.
+     * @throws ScriptException If the expression is neither a native nor a valid script expression.
+     */
+    static void precompile(String source) throws ScriptException {
+        Expression compiled = compile(source);
+        if (compiled instanceof ScriptExpression) {
+            ((ScriptExpression) compiled).script();
+        }
+    }
+
+    /**
+     * @return The expressions that were compiled as script engine fallbacks.
+     */
+    static Set<String> scriptFallbacks() {
+        return Collections.unmodifiableSet(scriptFallbacks);
+    }
+
+    /**
+     * Condition semantics of {@code bs:if}, only true and "true" are true.
+     */
+    static boolean isTrue(Object value) {
+        return value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(String.valueOf(value));
+    }
+
+    /**
+     * JavaScript truthiness, used by {@code !}, {@code &&}, {@code ||} and {@code ?:}.
+     */
+    static boolean truthy(Object value) {
+        if (value == null) {
+            return false;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            return d != 0 && !Double.isNaN(d);
+        }
+        if (value instanceof CharSequence) {
+            return ((CharSequence) value).length() > 0;
+        }
+        return true;
+    }
+
+    static Object add(Object left, Object right) {
+        if (isIntegral(left) && isIntegral(right)) {
+            long l = ((Number) left).longValue();
+            long r = ((Number) right).longValue();
+            long result = l + r;
+            // overflow, continue in floating point like JavaScript
+            if (((l ^ result) & (r ^ result)) < 0) {
+                return number((double) l + (double) r);
+            }
+            return number(result);
+        }
+        if (isNumeric(left) && isNumeric(right)) {
+            return number(toNumber(left) + toNumber(right));
+        }
+        return toString(left).concat(toString(right));
+    }
+
+    static Object subtract(Object left, Object right) {
+        if (isIntegral(left) && isIntegral(right)) {
+            long l = ((Number) left).longValue();
+            long r = ((Number) right).longValue();
+            long result = l - r;
+            if (((l ^ r) & (l ^ result)) < 0) {
+                return number((double) l - (double) r);
+            }
+            return number(result);
+        }
+        return number(toNumber(left) - toNumber(right));
+    }
+
+    static Object multiply(Object left, Object right) {
+        if (isIntegral(left) && isIntegral(right)) {
+            long l = ((Number) left).longValue();
+            long r = ((Number) right).longValue();
+            long high = Math.multiplyHigh(l, r);
+            long result = l * r;
+            if ((high == 0 && result >= 0) || (high == -1 && result < 0)) {
+                return number(result);
+            }
+            return number((double) l * (double) r);
+        }
+        return number(toNumber(left) * toNumber(right));
+    }
+
+    static Object divide(Object left, Object right) {
+        return number(toNumber(left) / toNumber(right));
+    }
+
+    static Object remainder(Object left, Object right) {
+        if (isIntegral(left) && isIntegral(right) && ((Number) right).longValue() != 0) {
+            long l = ((Number) left).longValue();
+            // -0 can't be an integer
+            long result = l % ((Number) right).longValue();
+            return result == 0 && l < 0 ? (Object) (-0.0) : number(result);
+        }
+        return number(toNumber(left) % toNumber(right));
+    }
+
+    static Object negate(Object value) {
+        if (isIntegral(value)) {
+            long l = ((Number) value).longValue();
+            if (l != 0 && l != Long.MIN_VALUE) {
+                return number(-l);
+            }
+        }
+        return number(-toNumber(value));
+    }
+
+    /**
+     * Relational comparison, strings are compared lexicographically and everything else as numbers.
+     *
+     * @return The sign of the comparison, or null if one side is {@code NaN} so every relational operator is false.
+     */
+    static Integer compare(Object left, Object right) {
+        if (left instanceof String && right instanceof String) {
+            return ((String) left).compareTo((String) right);
+        }
+        double l = toNumber(left);
+        double r = toNumber(right);
+        if (Double.isNaN(l) || Double.isNaN(r)) {
+            return null;
+        }
+        return Double.compare(l, r) == 0 ? 0 : (l < r ? -1 : 1);
+    }
+
+    static boolean looseEquals(Object left, Object right) {
+        if (left == null || right == null) {
+            return left == right;
+        }
+        if (left instanceof Boolean && !(right instanceof Boolean)) {
+            return looseEquals(((Boolean) left) ? 1 : 0, right);
+        }
+        if (right instanceof Boolean && !(left instanceof Boolean)) {
+            return looseEquals(left, ((Boolean) right) ? 1 : 0);
+        }
+        if (left instanceof Number && (right instanceof Number || right instanceof String)
+                || left instanceof String && right instanceof Number) {
+            return toNumber(left) == toNumber(right);
+        }
+        return left.equals(right);
+    }
+
+    static boolean strictEquals(Object left, Object right) {
+        if (left instanceof Number && right instanceof Number) {
+            return ((Number) left).doubleValue() == ((Number) right).doubleValue();
+        }
+        return Objects.equals(left, right);
+    }
+
+    static double toNumber(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Boolean) {
+            return ((Boolean) value) ? 1 : 0;
+        }
+        String s = value.toString().trim();
+        if (s.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    static String toString(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < 1e21) {
+                return Long.toString((long) d);
+            }
+            if (Double.isInfinite(d)) {
+                return d > 0 ? "Infinity" : "-Infinity";
+            }
+        }
+        return String.valueOf(value);
+    }
+
+    /**
+     * Narrow a number to the smallest exact boxed type, so integral results print without a fraction.
+     */
+    static Object number(double value) {
+        if (value == Math.rint(value) && value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE
+                && !(value == 0 && Double.doubleToRawLongBits(value) != 0)) {
+            return (int) value;
+        }
+        return value;
+    }
+
+    static Object number(long value) {
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return (int) value;
+        }
+        return value;
+    }
+
+    /**
+     * Collect the top level variables an expression references: identifiers outside of string literals
+     * that aren't a property access or a keyword. Object literal keys are collected too, they are harmless.
+     *
+     * @param source    The source of the expression.
+     * @param variables The collected variables.
+     */
+    static void variables(String source, Set<String> variables) {
+        int length = source.length();
+        int i = 0;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i++;
+                while (i < length && source.charAt(i) != c) {
+                    i += source.charAt(i) == '\\' ? 2 : 1;
+                }
+                i++;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+                while (i < length && Character.isJavaIdentifierPart(source.charAt(i))) {
+                    i++;
+                }
+                int before = start - 1;
+                while (before >= 0 && Character.isWhitespace(source.charAt(before))) {
+                    before--;
+                }
+                String name = source.substring(start, i);
+                if ((before < 0 || source.charAt(before) != '.') && !KEYWORDS.contains(name)) {
+                    variables.add(name);
+                }
+            } else if (Character.isDigit(c)) {
+                // numbers, including hex and exponents, aren't identifiers
+                while (i < length && Character.isLetterOrDigit(source.charAt(i))) {
+                    i++;
+                }
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private static final Set<String> KEYWORDS = Set.of("true", "false", "null", "undefined", "typeof", "instanceof",
+            "new", "this", "function", "var", "let", "const", "return", "if", "else", "in", "of", "void", "delete");
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+
+    private static boolean isNumeric(Object value) {
+        return value == null || value instanceof Number || value instanceof Boolean;
+    }
+
+    /**
+     * Fallback to the script engine, the script is compiled on first use and then runs against the bindings of each render.
+     */
+    private static final class ScriptExpression implements Expression {
+        private final String source;
+        private final String[] variables;
+        private volatile CompiledScript script;
+
+        ScriptExpression(String source) {
+            this.source = source;
+            Set<String> names = new LinkedHashSet<>();
+            variables(source, names);
+            this.variables = names.toArray(new String[0]);
+        }
+
+        /**
+         * @return The compiled script, compiled on first call.
+         */
+        CompiledScript script() throws ScriptException {
+            CompiledScript compiled = script;
+            if (compiled == null) {
+                ScriptEngine engine = BeastEngine.scriptEngine();
+                synchronized (engine) {
+                    compiled = ((Compilable) engine).compile(source);
+                }
+                script = compiled;
+            }
+            return compiled;
+        }
+
+        @Override
+        public Object evaluate(ExpressionScope scope) throws Exception {
+            CompiledScript compiled;
+            try {
+                compiled = script();
+            } catch (ScriptException e) {
+                throw new RuntimeException("Failed to compile: " + source, e);
+            }
+            Bindings bindings = scope.bindings(variables);
+            SlowExpressionEvent event = new SlowExpressionEvent();
+            event.begin();
+            long start = System.nanoTime();
+            try {
+                return compiled.eval(bindings);
+            } finally {
+                scope.scriptEvaluated(source, System.nanoTime() - start);
+                if (event.shouldCommit()) {
+                    event.expression = source;
+                    event.commit();
+                }
+            }
+        }
+    }
+}
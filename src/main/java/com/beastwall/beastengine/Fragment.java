@@ -0,0 +1,108 @@
+package com.beastwall.beastengine;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A component rendered by a tracked render, see {@link BeastHtmlEngine#renderTracked(String, Context)}: its output,
+ * the context variables it read itself and the context it was rendered with, so it can be rendered again on its own.
+ * The output is kept as segments, literal output and the fragments of the components it includes, so a fragment
+ * whose own variables didn't change is put back together around the children that did.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class Fragment {
+    final String id;
+    final String componentName;
+    /**
+     * The context as it was when the component was reached.
+     */
+    final Context snapshot;
+    /**
+     * The variables set by the components and loops around this one, changes to the top level value
+     * of those variables don't reach it.
+     */
+    final Set<String> locals;
+    final Set<String> reads = new HashSet<>();
+    final List<Object> segments;
+    private final StringBuilder buffer;
+    final CharRenderOutput output;
+    private int mark;
+    private int children;
+    private String html;
+
+    Fragment(String id, String componentName, Context snapshot, Set<String> locals) {
+        this.id = id;
+        this.componentName = componentName;
+        this.snapshot = snapshot;
+        this.locals = locals;
+        this.segments = new ArrayList<>();
+        this.buffer = new StringBuilder(256);
+        this.output = new CharRenderOutput(buffer);
+    }
+
+    /**
+     * A fragment whose own output didn't change, with updated children.
+     */
+    private Fragment(Fragment fragment, Context snapshot, List<Object> segments) {
+        this.id = fragment.id;
+        this.componentName = fragment.componentName;
+        this.snapshot = snapshot;
+        this.locals = fragment.locals;
+        this.reads.addAll(fragment.reads);
+        this.segments = segments;
+        this.buffer = null;
+        this.output = null;
+        StringBuilder html = new StringBuilder();
+        for (Object segment : segments) {
+            if (segment instanceof Fragment) {
+                ((Fragment) segment).appendTo(html);
+            } else {
+                html.append((String) segment);
+            }
+        }
+        this.html = html.toString();
+    }
+
+    Fragment withSegments(Context snapshot, List<Object> segments) {
+        return new Fragment(this, snapshot, segments);
+    }
+
+    /**
+     * Start the fragment of an included component, the output so far becomes a literal segment.
+     */
+    Fragment openChild(String componentName, Context snapshot, Set<String> locals) {
+        segments.add(buffer.substring(mark));
+        return new Fragment(id + "." + children++, componentName, snapshot, locals);
+    }
+
+    /**
+     * Append the output of a finished child, wrapped in its markers.
+     */
+    void closeChild(Fragment child) {
+        child.appendTo(buffer);
+        segments.add(child);
+        mark = buffer.length();
+    }
+
+    void finish() {
+        segments.add(buffer.substring(mark));
+        html = buffer.toString();
+    }
+
+    /**
+     * @return The output of the component, the output of the components it includes wrapped in their markers.
+     */
+    String html() {
+        return html;
+    }
+
+    void appendTo(StringBuilder out) {
+        out.append("<!--bs:fragment ").append(id).append("-->")
+                .append(html)
+                .append("<!--/bs:fragment ").append(id).append("-->");
+    }
+}
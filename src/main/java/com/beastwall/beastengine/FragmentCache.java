@@ -0,0 +1,180 @@
+package com.beastwall.beastengine;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rendered output of {@code bs:cache} fragments, stored UTF-8 encoded and keyed by the evaluated key
+ * of the fragment and the locale it was rendered for.
+ * The cache is bounded by the total size of the fragments, expired fragments are dropped when they are looked up.
+ * Each fragment remembers the components it was rendered from, so changing a component only drops the fragments
+ * that rendered it.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class FragmentCache {
+    /**
+     * Default memory budget, 16 MB.
+     */
+    static final long DEFAULT_BUDGET = 16L * 1024 * 1024;
+
+    private final BoundedCache<Key, Fragment> cache;
+    private final AtomicLong generation = new AtomicLong();
+
+    FragmentCache(long budget) {
+        this.cache = new BoundedCache<>(budget, fragment -> 64L + fragment.bytes.length);
+    }
+
+    /**
+     * Get a cached fragment.
+     *
+     * @param key        The evaluated key of the fragment.
+     * @param locale     The locale of the render.
+     * @param components Receives the components the fragment was rendered from, null if they aren't needed.
+     * @return The UTF-8 encoded fragment, or null if it isn't cached or has expired.
+     */
+    byte[] get(String key, Locale locale, Set<String> components) {
+        Key cacheKey = new Key(key, locale);
+        Fragment fragment = cache.getIfPresent(cacheKey);
+        if (fragment == null) {
+            return null;
+        }
+        if (fragment.ttl > 0 && System.nanoTime() - fragment.created > fragment.ttl) {
+            // a fresh fragment cached since by another render stays
+            cache.invalidate(cacheKey, fragment);
+            return null;
+        }
+        if (components != null) {
+            components.addAll(fragment.components);
+        }
+        return fragment.bytes;
+    }
+
+    /**
+     * @return The number of invalidations so far, read before rendering a fragment.
+     */
+    long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Cache a fragment, unless fragments were invalidated while it was rendered.
+     *
+     * @param key        The evaluated key of the fragment.
+     * @param locale     The locale of the render.
+     * @param bytes      The UTF-8 encoded fragment.
+     * @param ttl        How long the fragment stays valid in milliseconds, 0 to keep it until it is evicted.
+     * @param components The components the fragment was rendered from.
+     * @param generation The {@link #generation()} read before rendering.
+     */
+    void put(String key, Locale locale, byte[] bytes, long ttl, Set<String> components, long generation) {
+        Key cacheKey = new Key(key, locale);
+        Fragment fragment = new Fragment(bytes, System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(ttl),
+                Set.copyOf(components));
+        cache.put(cacheKey, fragment);
+        if (this.generation.get() != generation) {
+            cache.invalidate(cacheKey, fragment);
+        }
+    }
+
+    /**
+     * Drop the fragments whose key starts with a prefix, in every locale.
+     *
+     * @param keyPrefix The prefix.
+     */
+    void invalidate(String keyPrefix) {
+        generation.incrementAndGet();
+        cache.invalidateIf(key -> key.key.startsWith(keyPrefix));
+    }
+
+    /**
+     * Drop the fragments rendered from one of some components, in every locale.
+     *
+     * @param names The names of the components.
+     */
+    void invalidateComponents(Collection<String> names) {
+        generation.incrementAndGet();
+        cache.invalidateValues(fragment -> !Collections.disjoint(fragment.components, names));
+    }
+
+    void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    void setBudget(long budget) {
+        cache.setMaximumWeight(budget);
+    }
+
+    long getBudget() {
+        return cache.getMaximumWeight();
+    }
+
+    /**
+     * @return The stats of the cache, its weight is the size of the cached fragments in bytes.
+     */
+    CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * Parse the {@code ttl} of a fragment: a number of seconds, or a number followed by
+     * {@code ms}, {@code s}, {@code m}, {@code h} or {@code d}.
+     *
+     * @param ttl The ttl, blank for no expiry.
+     * @return The ttl in milliseconds, 0 for no expiry.
+     */
+    static long parseTtl(String ttl) {
+        String value = ttl.trim().toLowerCase(Locale.ROOT);
+        if (value.isEmpty()) {
+            return 0;
+        }
+        long unit = 1000;
+        if (value.endsWith("ms")) {
+            unit = 1;
+            value = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("s")) {
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("m")) {
+            unit = 60_000;
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("h")) {
+            unit = 3_600_000;
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("d")) {
+            unit = 86_400_000;
+            value = value.substring(0, value.length() - 1);
+        }
+        try {
+            long amount = Long.parseLong(value.trim());
+            if (amount < 0) {
+                throw new NumberFormatException();
+            }
+            return amount * unit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid ttl for " + BeastEngine.TAG_PREFIX + "cache: " + ttl);
+        }
+    }
+
+    private record Key(String key, Locale locale) {
+    }
+
+    private static final class Fragment {
+        final byte[] bytes;
+        final long created;
+        final long ttl;
+        final Set<String> components;
+
+        Fragment(byte[] bytes, long created, long ttl, Set<String> components) {
+            this.bytes = bytes;
+            this.created = created;
+            this.ttl = ttl;
+            this.components = components;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.beastwall.beastengine;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * The variables a template declares, for one render of it: the items, indexes and statuses of its {@code bs:for}
+ * loops and the variables of its {@code bs:var} tags, each in the slot its {@link FrameLayout} gave it.
+ * The template's expressions read them by slot; the components it includes, the script engine and tracked renders
+ * look them up by name, through the frames of the templates being rendered, innermost first.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class Frame {
+    /**
+     * The value of a slot whose variable isn't set: its loop isn't running or its {@code bs:var} wasn't reached yet.
+     */
+    static final Object UNSET = new Object();
+
+    final FrameLayout layout;
+    final Object[] values;
+    /**
+     * The frame of the template including this one, null for the rendered template.
+     */
+    final Frame parent;
+
+    Frame(FrameLayout layout, Frame parent) {
+        this.layout = layout;
+        this.values = new Object[layout.names.length];
+        this.parent = parent;
+        Arrays.fill(values, UNSET);
+    }
+
+    private Frame(Frame frame) {
+        this.layout = frame.layout;
+        this.values = frame.values.clone();
+        this.parent = frame.parent != null ? new Frame(frame.parent) : null;
+    }
+
+    /**
+     * Look a variable up by name in this frame and the frames including it.
+     *
+     * @param name The name of the variable.
+     * @return The value, {@link #UNSET} if no frame sets the variable.
+     */
+    Object lookup(String name) {
+        for (Frame frame = this; frame != null; frame = frame.parent) {
+            String[] names = frame.layout.names;
+            for (int slot : frame.layout.lookupOrder) {
+                Object value = frame.values[slot];
+                if (value != UNSET && names[slot].equals(name)) {
+                    return value;
+                }
+            }
+        }
+        return UNSET;
+    }
+
+    /**
+     * Visit the variables set in this frame and the frames including it, outermost first,
+     * so that of two variables of the same name the one a lookup returns is visited last.
+     *
+     * @param action The action.
+     */
+    void forEachVariable(BiConsumer<String, Object> action) {
+        if (parent != null) {
+            parent.forEachVariable(action);
+        }
+        int[] order = layout.lookupOrder;
+        for (int i = order.length - 1; i >= 0; i--) {
+            Object value = values[order[i]];
+            if (value != UNSET) {
+                action.accept(layout.names[order[i]], value);
+            }
+        }
+    }
+
+    /**
+     * @return A copy of this frame and the frames including it, for a subtree rendered on another thread.
+     */
+    Frame copy() {
+        return new Frame(this);
+    }
+}
@@ -0,0 +1,204 @@
+package com.beastwall.beastengine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The slots of the variables a template declares, chosen once its plan is built, see {@link Frame}.
+ * Each {@code bs:for} gets slots for its item, index and status, and each {@code bs:var} name a slot for the whole
+ * template, unless it assigns a loop variable. The expressions and variable paths of the plan are then bound to
+ * the slot of every declared variable they reference, the innermost declaration winning, so reading it is an array
+ * access rather than a lookup by name.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class FrameLayout {
+    /**
+     * The names of the variables, by slot.
+     */
+    final String[] names;
+    /**
+     * The slots in the order lookups by name visit them, the most deeply nested declarations first:
+     * two slots of the same name set at once belong to nested loops, the inner one hides the outer one.
+     */
+    final int[] lookupOrder;
+
+    private FrameLayout(String[] names, int[] lookupOrder) {
+        this.names = names;
+        this.lookupOrder = lookupOrder;
+    }
+
+    /**
+     * @param names The names of the variables, by slot, null for a slot that is never set.
+     * @return The layout of frames holding just these variables, e.g. the parameters of a route.
+     */
+    static FrameLayout of(String[] names) {
+        int[] lookupOrder = new int[names.length];
+        for (int i = 0; i < lookupOrder.length; i++) {
+            lookupOrder[i] = i;
+        }
+        return new FrameLayout(names, lookupOrder);
+    }
+
+    /**
+     * Choose the slots of the variables a plan declares and bind its nodes to them.
+     * Nodes are bound before the template holding them is published, they don't change afterwards.
+     *
+     * @param nodes The nodes of the plan.
+     * @return The layout of the frames of the template.
+     */
+    static FrameLayout bind(PlanNode[] nodes) {
+        Binder binder = new Binder();
+        binder.bind(nodes);
+        return binder.layout();
+    }
+
+    private static final class Binder {
+        private final List<String> names = new ArrayList<>();
+        private final List<Integer> depths = new ArrayList<>();
+        private final Map<String, Integer> templateSlots = new HashMap<>();
+        /**
+         * The slots of the loops the binder is in, innermost first.
+         */
+        private final Deque<Map<String, Integer>> loops = new ArrayDeque<>();
+
+        private void bind(PlanNode[] nodes) {
+            if (nodes == null) {
+                return;
+            }
+            for (PlanNode node : nodes) {
+                bind(node);
+            }
+        }
+
+        private void bind(PlanNode node) {
+            if (node instanceof PlanNodes.Interpolation) {
+                PlanNodes.Interpolation n = (PlanNodes.Interpolation) node;
+                bind(n.sources, n.expressions);
+            } else if (node instanceof PlanNodes.Attribute) {
+                PlanNodes.Attribute n = (PlanNodes.Attribute) node;
+                bind(n.sources, n.expressions);
+            } else if (node instanceof PlanNodes.Var) {
+                PlanNodes.Var n = (PlanNodes.Var) node;
+                for (int i = 0; i < n.names.length; i++) {
+                    Integer slot = loopSlot(n.names[i]);
+                    n.slots[i] = slot != null ? slot : templateSlot(n.names[i]);
+                }
+                bind(n.sources, n.expressions);
+            } else if (node instanceof PlanNodes.If) {
+                PlanNodes.If n = (PlanNodes.If) node;
+                n.condition = Expressions.compile(n.source, this::slot);
+                bind(n.body);
+            } else if (node instanceof PlanNodes.Switch) {
+                PlanNodes.Switch n = (PlanNodes.Switch) node;
+                n.value.bind(this::slot);
+                for (VariablePath value : n.values) {
+                    value.bind(this::slot);
+                }
+                for (PlanNode[] branch : n.cases) {
+                    bind(branch);
+                }
+                bind(n.defaultCase);
+            } else if (node instanceof PlanNodes.For) {
+                bindFor((PlanNodes.For) node);
+            } else if (node instanceof PlanNodes.Repeat) {
+                PlanNodes.Repeat n = (PlanNodes.Repeat) node;
+                if (n.timesVariable != null) {
+                    n.timesVariable.bind(this::slot);
+                }
+                bind(n.body);
+            } else if (node instanceof PlanNodes.Siblings) {
+                bind(((PlanNodes.Siblings) node).nodes);
+            } else if (node instanceof PlanNodes.Cache) {
+                PlanNodes.Cache n = (PlanNodes.Cache) node;
+                n.key = Expressions.compile(n.source, this::slot);
+                bind(n.body);
+            }
+            // static markup, components and routers don't read declared variables
+        }
+
+        private void bindFor(PlanNodes.For n) {
+            // the collection and the range are read outside of the loop
+            if (n.list != null) {
+                n.list.bind(this::slot);
+            }
+            if (n.from != null) {
+                n.from = Expressions.compile(n.fromSource, this::slot);
+                n.to = Expressions.compile(n.toSource, this::slot);
+            }
+            if (n.step != null) {
+                n.step = Expressions.compile(n.stepSource, this::slot);
+            }
+            int depth = loops.size() + 1;
+            Map<String, Integer> slots = new HashMap<>();
+            n.itemSlot = declare(n.itemName, depth);
+            n.indexSlot = declare(n.indexName, depth);
+            n.statusSlot = declare(n.statusName, depth);
+            slots.put(n.itemName, n.itemSlot);
+            slots.put(n.indexName, n.indexSlot);
+            slots.put(n.statusName, n.statusSlot);
+            loops.push(slots);
+            try {
+                bind(n.body);
+            } finally {
+                loops.pop();
+            }
+        }
+
+        private void bind(String[] sources, Expression[] expressions) {
+            for (int i = 0; i < sources.length; i++) {
+                expressions[i] = Expressions.compile(sources[i], this::slot);
+            }
+        }
+
+        private Integer slot(String name) {
+            Integer slot = loopSlot(name);
+            return slot != null ? slot : templateSlots.get(name);
+        }
+
+        private Integer loopSlot(String name) {
+            for (Map<String, Integer> slots : loops) {
+                Integer slot = slots.get(name);
+                if (slot != null) {
+                    return slot;
+                }
+            }
+            return null;
+        }
+
+        private int templateSlot(String name) {
+            Integer slot = templateSlots.get(name);
+            if (slot == null) {
+                slot = declare(name, 0);
+                templateSlots.put(name, slot);
+            }
+            return slot;
+        }
+
+        private int declare(String name, int depth) {
+            names.add(name);
+            depths.add(depth);
+            return names.size() - 1;
+        }
+
+        private FrameLayout layout() {
+            Integer[] order = new Integer[names.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            // stable, so the slots of one depth keep the order of their declarations
+            Arrays.sort(order, (a, b) -> Integer.compare(depths.get(b), depths.get(a)));
+            int[] lookupOrder = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                lookupOrder[i] = order[i];
+            }
+            return new FrameLayout(names.toArray(new String[0]), lookupOrder);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.beastwall.beastengine;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Holds component templates in memory, e.g. templates stored in a database or built by tests.
+ * Replacing or removing a template notifies the engines using this source.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+public class InMemoryComponentSource implements ComponentSource {
+    private final Map<String, String> templates = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public String read(String path) {
+        return templates.get(path);
+    }
+
+    @Override
+    public Set<String> list() {
+        return Set.copyOf(templates.keySet());
+    }
+
+    /**
+     * Add or replace a component template.
+     *
+     * @param path     The path of the component, e.g. {@code card/card.component.html}.
+     * @param template The template.
+     * @return This source.
+     */
+    public InMemoryComponentSource put(String path, String template) {
+        String previous = templates.put(path, template);
+        if (previous != null) {
+            changed(path);
+        }
+        return this;
+    }
+
+    /**
+     * Remove a component template.
+     *
+     * @param path The path of the component.
+     */
+    public void remove(String path) {
+        if (templates.remove(path) != null) {
+            changed(path);
+        }
+    }
+
+    @Override
+    public void addChangeListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    private void changed(String path) {
+        for (Consumer<String> listener : listeners) {
+            listener.accept(path);
+        }
+    }
+}
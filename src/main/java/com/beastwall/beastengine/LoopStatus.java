@@ -0,0 +1,81 @@
+package com.beastwall.beastengine;
+
+/**
+ * The position of a {@code bs:for} loop, exposed to its body as {@code <item>_loop}, e.g. {@code row_loop.last}.
+ * A loop updates a single status as it iterates, a status shouldn't be kept beyond its iteration.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+public final class LoopStatus {
+    private int index = -1;
+    private boolean last;
+
+    LoopStatus() {
+    }
+
+    /**
+     * Move to the next item.
+     *
+     * @param last Whether it's the last item.
+     */
+    void next(boolean last) {
+        index++;
+        this.last = last;
+    }
+
+    /**
+     * Move to an item of a parallel loop, whose chunks don't start at the first item.
+     */
+    void moveTo(int index, boolean last) {
+        this.index = index;
+        this.last = last;
+    }
+
+    /**
+     * @return The index of the item, starting at 0.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return The number of the item, starting at 1.
+     */
+    public int getCount() {
+        return index + 1;
+    }
+
+    /**
+     * @return Whether it's the first item.
+     */
+    public boolean isFirst() {
+        return index == 0;
+    }
+
+    /**
+     * @return Whether it's the last item.
+     */
+    public boolean isLast() {
+        return last;
+    }
+
+    /**
+     * @return Whether the index is even, the first item is even.
+     */
+    public boolean isEven() {
+        return (index & 1) == 0;
+    }
+
+    /**
+     * @return Whether the index is odd.
+     */
+    public boolean isOdd() {
+        return (index & 1) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return Integer.toString(index);
+    }
+}
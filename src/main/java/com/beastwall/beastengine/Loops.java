@@ -0,0 +1,166 @@
+package com.beastwall.beastengine;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.BaseStream;
+
+/**
+ * What {@code bs:for} loops iterate over: collections, any {@link Iterable}, {@link Iterator} or {@link java.util.stream.Stream},
+ * arrays, including primitive ones, and numeric ranges. Nothing is copied, iterables and streams are consumed lazily.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class Loops {
+
+    private Loops() {
+    }
+
+    /**
+     * @param items  The value to iterate over.
+     * @param source The expression of the value, for the error message.
+     * @return An iterator over the items.
+     * @throws RuntimeException If the value can't be iterated over.
+     */
+    static Iterator<?> iterator(Object items, String source) {
+        if (items instanceof Iterable) {
+            return ((Iterable<?>) items).iterator();
+        }
+        if (items instanceof Object[]) {
+            return Arrays.asList((Object[]) items).iterator();
+        }
+        if (items != null && items.getClass().isArray()) {
+            return new ArrayIterator(items);
+        }
+        if (items instanceof Iterator) {
+            return (Iterator<?>) items;
+        }
+        if (items instanceof BaseStream) {
+            return ((BaseStream<?, ?>) items).iterator();
+        }
+        throw new RuntimeException("Value for '" + source + "' is not a collection, iterable, stream or array");
+    }
+
+    /**
+     * @return The number of items, -1 if it isn't known without consuming them.
+     */
+    static int size(Object items) {
+        if (items instanceof Collection) {
+            return ((Collection<?>) items).size();
+        }
+        if (items instanceof Range) {
+            return ((Range) items).size();
+        }
+        if (items != null && items.getClass().isArray()) {
+            return Array.getLength(items);
+        }
+        return -1;
+    }
+
+    /**
+     * Copy items whose number is known into an array.
+     */
+    static Object[] toArray(Object items) {
+        if (items instanceof Collection) {
+            return ((Collection<?>) items).toArray();
+        }
+        Object[] array = new Object[size(items)];
+        Iterator<?> iterator = iterator(items, "");
+        for (int i = 0; i < array.length; i++) {
+            array[i] = iterator.next();
+        }
+        return array;
+    }
+
+    /**
+     * Release what the iteration held, e.g. the resources of a stream.
+     */
+    static void close(Object items) {
+        if (items instanceof BaseStream) {
+            ((BaseStream<?, ?>) items).close();
+        }
+    }
+
+    /**
+     * The numbers from {@code from} to {@code to}, both included, by {@code step}.
+     * A step going away from {@code to} makes an empty range.
+     */
+    static final class Range implements Iterable<Object> {
+        final long from;
+        final long to;
+        final long step;
+
+        /**
+         * @throws IllegalArgumentException If the step is 0.
+         */
+        Range(long from, long to, long step) {
+            if (step == 0) {
+                throw new IllegalArgumentException("The step of bs:for can't be 0");
+            }
+            this.from = from;
+            this.to = to;
+            this.step = step;
+        }
+
+        int size() {
+            if (step > 0 ? to < from : to > from) {
+                return 0;
+            }
+            return (int) Math.min(Integer.MAX_VALUE, (to - from) / step + 1);
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            return new Iterator<>() {
+                private int remaining = size();
+                private long next = from;
+
+                @Override
+                public boolean hasNext() {
+                    return remaining > 0;
+                }
+
+                @Override
+                public Object next() {
+                    if (remaining <= 0) {
+                        throw new NoSuchElementException();
+                    }
+                    remaining--;
+                    long value = next;
+                    next += step;
+                    return Expressions.number(value);
+                }
+            };
+        }
+    }
+
+    /**
+     * Iterates over a primitive array, boxing each item as it is read.
+     */
+    private static final class ArrayIterator implements Iterator<Object> {
+        private final Object array;
+        private final int length;
+        private int index;
+
+        ArrayIterator(Object array) {
+            this.array = array;
+            this.length = Array.getLength(array);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < length;
+        }
+
+        @Override
+        public Object next() {
+            if (index >= length) {
+                throw new NoSuchElementException();
+            }
+            return Array.get(array, index++);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.beastwall.beastengine;
+
+/**
+ * The new output of a fragment of a tracked render, see {@link BeastHtmlEngine#rerender(RenderHandle, Context, java.util.Set)}.
+ * In the output of a tracked render, the fragment of every included component is wrapped in
+ * {@code <!--bs:fragment id-->} and {@code <!--/bs:fragment id-->} comments, the patch replaces what is between them.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+public final class Patch {
+    private final String id;
+    private final String html;
+
+    Patch(String id, String html) {
+        this.id = id;
+        this.html = html;
+    }
+
+    /**
+     * @return The id of the fragment, the id of the rendered component itself is {@code 0}, the whole output.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return The new output of the fragment, without its markers.
+     */
+    public String getHtml() {
+        return html;
+    }
+
+    @Override
+    public String toString() {
+        return "Patch{id=" + id + ", html=" + html + "}";
+    }
+}
@@ -0,0 +1,173 @@
+package com.beastwall.beastengine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiled component plans, each stored with the SHA-256 of the source it was compiled from:
+ * a plan is only used while its component's source is unchanged.
+ * Only the index is read when an archive is opened, plans are decoded when looked up.
+ * <pre>
+ * int magic, int version, int count
+ * count * { string name, byte[32] hash, int length, byte[length] plan }
+ * </pre>
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ * @see PlanCodec
+ */
+final class PlanArchive {
+    /**
+     * The classpath resource of the plans compiled at build time.
+     */
+    static final String RESOURCE = "META-INF/beastengine/components.plans";
+
+    private static final int MAGIC = 0x42535041;
+    private static final int VERSION = 3;
+    private static final int HASH_LENGTH = 32;
+
+    private final ByteBuffer data;
+    private final Map<String, Entry> entries;
+
+    private PlanArchive(ByteBuffer data, Map<String, Entry> entries) {
+        this.data = data;
+        this.entries = entries;
+    }
+
+    /**
+     * Open an archive, the buffer is kept and must not change.
+     *
+     * @param data The archive, from its position.
+     * @return The archive.
+     * @throws IOException If the buffer isn't an archive of this version.
+     */
+    static PlanArchive read(ByteBuffer data) throws IOException {
+        ByteBuffer in = data.slice();
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a plan archive");
+            }
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported plan archive version " + version);
+            }
+            int count = in.getInt();
+            Map<String, Entry> entries = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String name = PlanCodec.readString(in);
+                byte[] hash = new byte[HASH_LENGTH];
+                in.get(hash);
+                int length = in.getInt();
+                entries.put(name, new Entry(hash, in.position(), length));
+                in.position(in.position() + length);
+            }
+            return new PlanArchive(in, entries);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated plan archive", e);
+        }
+    }
+
+    /**
+     * Get the plan of a component, if it was compiled from the same source.
+     *
+     * @param name The name of the component.
+     * @param hash The SHA-256 of the component's source.
+     * @return The template, null if the archive doesn't have it, it's outdated or it can't be decoded.
+     */
+    Template get(String name, byte[] hash) {
+        Entry entry = entries.get(name);
+        if (entry == null || !Arrays.equals(entry.hash, hash)) {
+            return null;
+        }
+        try {
+            return PlanCodec.read(name, data.slice(entry.offset, entry.length));
+        } catch (RuntimeException e) {
+            // compiling the source again is always possible
+            return null;
+        }
+    }
+
+    /**
+     * Open an archive file, it is memory mapped rather than read.
+     *
+     * @param file The archive file.
+     * @return The archive.
+     * @throws IOException If the file can't be mapped or isn't an archive of this version.
+     */
+    static PlanArchive map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid once the channel is closed
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return Whether the archive has the plan of a component compiled from a source with the given hash.
+     */
+    boolean contains(String name, byte[] hash) {
+        Entry entry = entries.get(name);
+        return entry != null && Arrays.equals(entry.hash, hash);
+    }
+
+    /**
+     * @return The names of the components in the archive.
+     */
+    Set<String> names() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Write an archive.
+     *
+     * @param templates The components, by name.
+     * @param hashes    The SHA-256 of each component's source, by name.
+     * @param out       The output to write the archive to, it isn't closed.
+     * @throws IOException If the output can't be written.
+     */
+    static void write(Map<String, Template> templates, Map<String, byte[]> hashes, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(templates.size());
+        ByteArrayOutputStream plan = new ByteArrayOutputStream(4096);
+        for (Map.Entry<String, Template> template : templates.entrySet()) {
+            plan.reset();
+            PlanCodec.write(template.getValue(), new DataOutputStream(plan));
+            PlanCodec.writeString(template.getKey(), data);
+            data.write(hashes.get(template.getKey()));
+            data.writeInt(plan.size());
+            plan.writeTo(data);
+        }
+        data.flush();
+    }
+
+    /**
+     * @return The SHA-256 of a component's source, UTF-8 encoded.
+     */
+    static byte[] hash(String source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Entry(byte[] hash, int offset, int length) {
+    }
+}
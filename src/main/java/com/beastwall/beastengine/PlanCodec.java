@@ -0,0 +1,302 @@
+package com.beastwall.beastengine;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Binary encoding of a {@link Template}'s plan, so a plan compiled once, e.g. at build time,
+ * can be loaded without parsing its source again.
+ * Static markup is stored as UTF-8 and reused as is, expressions are stored as their source
+ * and compiled again when the plan is read.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class PlanCodec {
+    private static final byte STATIC = 1;
+    private static final byte INTERPOLATION = 2;
+    private static final byte ATTRIBUTE = 3;
+    private static final byte VAR = 4;
+    private static final byte IF = 5;
+    private static final byte SWITCH = 6;
+    private static final byte FOR = 7;
+    private static final byte REPEAT = 8;
+    private static final byte COMPONENT = 9;
+    private static final byte SIBLINGS = 10;
+    private static final byte CACHE = 11;
+    private static final byte ROUTER = 12;
+
+    private PlanCodec() {
+    }
+
+    /**
+     * Encode the plan of a template, its name isn't part of it.
+     *
+     * @param template The template.
+     * @param out      The output to write the plan to.
+     * @throws IOException If the output can't be written.
+     */
+    static void write(Template template, DataOutputStream out) throws IOException {
+        writeStrings(template.getComponents().toArray(new String[0]), out);
+        writeStrings(template.getVariables().toArray(new String[0]), out);
+        out.writeLong(template.estimatedSize());
+        writeNodes(template.nodes, out);
+    }
+
+    /**
+     * Decode a plan.
+     *
+     * @param name The name of the component.
+     * @param in   The encoded plan, read from its position.
+     * @return The template.
+     * @throws IllegalArgumentException If the plan is malformed.
+     */
+    static Template read(String name, ByteBuffer in) {
+        Set<String> components = readSet(in);
+        Set<String> variables = readSet(in);
+        long estimatedSize = in.getLong();
+        PlanNode[] nodes = readNodes(in);
+        return new Template(name, nodes, components, variables, estimatedSize);
+    }
+
+    private static void writeNodes(PlanNode[] nodes, DataOutputStream out) throws IOException {
+        if (nodes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(nodes.length);
+        for (PlanNode node : nodes) {
+            writeNode(node, out);
+        }
+    }
+
+    private static void writeNode(PlanNode node, DataOutputStream out) throws IOException {
+        if (node instanceof PlanNodes.Static) {
+            PlanNodes.Static n = (PlanNodes.Static) node;
+            out.writeByte(STATIC);
+            out.writeInt(n.utf8.length);
+            out.write(n.utf8);
+        } else if (node instanceof PlanNodes.Interpolation) {
+            PlanNodes.Interpolation n = (PlanNodes.Interpolation) node;
+            out.writeByte(INTERPOLATION);
+            writeStrings(n.literals, out);
+            writeStrings(n.sources, out);
+            writeEscapers(n.escapers, out);
+        } else if (node instanceof PlanNodes.Attribute) {
+            PlanNodes.Attribute n = (PlanNodes.Attribute) node;
+            out.writeByte(ATTRIBUTE);
+            writeString(n.name, out);
+            writeString(n.rawValue, out);
+            writeStrings(n.literals, out);
+            writeStrings(n.sources, out);
+            writeEscapers(n.escapers, out);
+        } else if (node instanceof PlanNodes.Var) {
+            PlanNodes.Var n = (PlanNodes.Var) node;
+            out.writeByte(VAR);
+            writeStrings(n.names, out);
+            writeStrings(n.sources, out);
+        } else if (node instanceof PlanNodes.If) {
+            PlanNodes.If n = (PlanNodes.If) node;
+            out.writeByte(IF);
+            writeString(n.source, out);
+            writeNodes(n.body, out);
+        } else if (node instanceof PlanNodes.Switch) {
+            PlanNodes.Switch n = (PlanNodes.Switch) node;
+            out.writeByte(SWITCH);
+            writeString(n.var, out);
+            writeStrings(n.matches, out);
+            for (PlanNode[] branch : n.cases) {
+                writeNodes(branch, out);
+            }
+            writeNodes(n.defaultCase, out);
+        } else if (node instanceof PlanNodes.For) {
+            PlanNodes.For n = (PlanNodes.For) node;
+            out.writeByte(FOR);
+            writeString(n.itemName, out);
+            writeString(n.listName, out);
+            writeString(n.fromSource, out);
+            writeString(n.toSource, out);
+            writeString(n.stepSource, out);
+            out.writeBoolean(n.exposeIndex);
+            out.writeBoolean(n.exposeStatus);
+            writeNodes(n.body, out);
+        } else if (node instanceof PlanNodes.Repeat) {
+            PlanNodes.Repeat n = (PlanNodes.Repeat) node;
+            out.writeByte(REPEAT);
+            writeString(n.timesAttr, out);
+            out.writeInt(n.times);
+            writeNodes(n.body, out);
+        } else if (node instanceof PlanNodes.Component) {
+            PlanNodes.Component n = (PlanNodes.Component) node;
+            out.writeByte(COMPONENT);
+            writeString(n.name, out);
+            out.writeBoolean(n.isStatic);
+        } else if (node instanceof PlanNodes.Siblings) {
+            PlanNodes.Siblings n = (PlanNodes.Siblings) node;
+            out.writeByte(SIBLINGS);
+            out.writeInt(n.components);
+            writeNodes(n.nodes, out);
+        } else if (node instanceof PlanNodes.Cache) {
+            PlanNodes.Cache n = (PlanNodes.Cache) node;
+            out.writeByte(CACHE);
+            writeString(n.source, out);
+            out.writeLong(n.ttl);
+            writeNodes(n.body, out);
+        } else if (node instanceof PlanNodes.Router) {
+            PlanNodes.Router n = (PlanNodes.Router) node;
+            out.writeByte(ROUTER);
+            writeStrings(n.paths, out);
+            writeStrings(n.components, out);
+            for (boolean isStatic : n.statics) {
+                out.writeBoolean(isStatic);
+            }
+        } else {
+            throw new IllegalArgumentException("Can't encode plan node " + node.getClass().getName());
+        }
+    }
+
+    private static PlanNode[] readNodes(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        PlanNode[] nodes = new PlanNode[length];
+        for (int i = 0; i < length; i++) {
+            nodes[i] = readNode(in);
+        }
+        return nodes;
+    }
+
+    private static PlanNode readNode(ByteBuffer in) {
+        byte type = in.get();
+        switch (type) {
+            case STATIC: {
+                byte[] utf8 = new byte[in.getInt()];
+                in.get(utf8);
+                return new PlanNodes.Static(new String(utf8, StandardCharsets.UTF_8), utf8);
+            }
+            case INTERPOLATION:
+                return new PlanNodes.Interpolation(readStrings(in), readStrings(in), readEscapers(in));
+            case ATTRIBUTE:
+                return new PlanNodes.Attribute(readString(in), readString(in), readStrings(in), readStrings(in),
+                        readEscapers(in));
+            case VAR:
+                return new PlanNodes.Var(readStrings(in), readStrings(in));
+            case IF:
+                return new PlanNodes.If(readString(in), readNodes(in));
+            case SWITCH: {
+                String var = readString(in);
+                String[] matches = readStrings(in);
+                PlanNode[][] cases = new PlanNode[matches.length][];
+                for (int i = 0; i < cases.length; i++) {
+                    cases[i] = readNodes(in);
+                }
+                return new PlanNodes.Switch(var, matches, cases, readNodes(in));
+            }
+            case FOR:
+                return new PlanNodes.For(readString(in), readString(in), readString(in), readString(in), readString(in),
+                        in.get() != 0, in.get() != 0, readNodes(in));
+            case REPEAT:
+                return new PlanNodes.Repeat(readString(in), in.getInt(), readNodes(in));
+            case COMPONENT:
+                return new PlanNodes.Component(readString(in), in.get() != 0);
+            case SIBLINGS: {
+                int components = in.getInt();
+                return new PlanNodes.Siblings(readNodes(in), components);
+            }
+            case CACHE:
+                return new PlanNodes.Cache(readString(in), in.getLong(), readNodes(in));
+            case ROUTER: {
+                String[] paths = readStrings(in);
+                String[] components = readStrings(in);
+                boolean[] statics = new boolean[paths.length];
+                for (int i = 0; i < statics.length; i++) {
+                    statics[i] = in.get() != 0;
+                }
+                return new PlanNodes.Router(paths, components, statics);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown plan node type " + type);
+        }
+    }
+
+    /**
+     * Strings are written as their UTF-8 length and bytes, {@link DataOutputStream#writeUTF} is limited to 64 KB.
+     * The length of null is -1.
+     */
+    static void writeString(String value, DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] utf8 = new byte[length];
+            in.get(in.position(), utf8);
+            value = new String(utf8, StandardCharsets.UTF_8);
+        }
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static void writeStrings(String[] values, DataOutputStream out) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.length);
+        for (String value : values) {
+            writeString(value, out);
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String[] values = new String[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = readString(in);
+        }
+        return values;
+    }
+
+    private static void writeEscapers(Escaper[] escapers, DataOutputStream out) throws IOException {
+        out.writeInt(escapers.length);
+        for (Escaper escaper : escapers) {
+            out.writeByte(escaper.ordinal());
+        }
+    }
+
+    private static Escaper[] readEscapers(ByteBuffer in) {
+        Escaper[] escapers = new Escaper[in.getInt()];
+        for (int i = 0; i < escapers.length; i++) {
+            escapers[i] = Escaper.of(in.get());
+        }
+        return escapers;
+    }
+
+    private static Set<String> readSet(ByteBuffer in) {
+        Set<String> values = new LinkedHashSet<>();
+        Collections.addAll(values, readStrings(in));
+        return Collections.unmodifiableSet(values);
+    }
+}
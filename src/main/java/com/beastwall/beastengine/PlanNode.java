@@ -0,0 +1,20 @@
+package com.beastwall.beastengine;
+
+/**
+ * A single step of a compiled {@link Template}.
+ * Plan nodes are immutable and shared between renders and threads, all per-render state lives in {@link RenderState}.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+interface PlanNode {
+
+    /**
+     * Render this node.
+     *
+     * @param state The state of the current render.
+     * @param out   The output the node writes to.
+     * @throws Exception If an error occurs during rendering.
+     */
+    void render(RenderState state, RenderOutput out) throws Exception;
+}
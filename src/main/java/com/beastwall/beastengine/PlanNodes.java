@@ -0,0 +1,815 @@
+package com.beastwall.beastengine;
+
+
+import javax.script.ScriptException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link PlanNode} implementations produced by {@link TemplateCompiler}.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class PlanNodes {
+
+    private PlanNodes() {
+    }
+
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    /**
+     * Parallel loops aren't split in chunks smaller than this.
+     */
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    static void renderAll(PlanNode[] nodes, RenderState state, RenderOutput out) throws Exception {
+        for (PlanNode node : nodes) {
+            node.render(state, out);
+        }
+    }
+
+    /**
+     * Whether a state may render subtrees on the engine's render executor.
+     */
+    static boolean parallel(RenderState state) {
+        return state.engine.getRenderExecutor() != null && !state.forked;
+    }
+
+    /**
+     * Wait for the output of a forked subtree, rethrowing what made it fail.
+     */
+    static <T> T join(CompletableFuture<T> part) throws Exception {
+        try {
+            return part.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Subtrees forked by a node and rendered on the engine's render executor, each with its own copy of the context
+     * as it was when it was forked. When one fails the others are cancelled: those that haven't started never do,
+     * those running stop at their next {@link #failed()} check.
+     */
+    static final class Forks {
+        private final RenderState state;
+        private final List<CompletableFuture<String>> parts = new ArrayList<>();
+        private final CompletableFuture<Void> failure = new CompletableFuture<>();
+
+        Forks(RenderState state) {
+            this.state = state;
+        }
+
+        /**
+         * Render a subtree on the engine's render executor.
+         *
+         * @return The output of the subtree.
+         */
+        CompletableFuture<String> fork(Subtree subtree) {
+            RenderState forked = state.fork();
+            CompletableFuture<String> part = CompletableFuture.supplyAsync(() -> {
+                StringBuilder buffer = BeastEngine.renderBuffers.acquire();
+                try {
+                    if (failed()) {
+                        throw new CancellationException();
+                    }
+                    CharRenderOutput output = new CharRenderOutput(buffer);
+                    subtree.render(forked, output);
+                    return output.toString();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                } finally {
+                    forked.release();
+                    BeastEngine.renderBuffers.release(buffer);
+                }
+            }, state.engine.getRenderExecutor());
+            part.whenComplete((output, e) -> {
+                if (e != null) {
+                    failure.completeExceptionally(e);
+                }
+            });
+            parts.add(part);
+            return part;
+        }
+
+        /**
+         * @return Whether a fork failed.
+         */
+        boolean failed() {
+            return failure.isDone();
+        }
+
+        /**
+         * Wait until every fork is done, or the first one fails, rethrowing what made it fail.
+         */
+        void await() throws Exception {
+            try {
+                CompletableFuture.anyOf(CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])), failure).join();
+            } catch (CompletionException | CancellationException e) {
+                for (CompletableFuture<String> part : parts) {
+                    part.cancel(false);
+                }
+                join(failure);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Whether a node renders a component, siblings components may render in parallel.
+     */
+    static boolean isComponent(PlanNode node) {
+        if (node instanceof Cache) {
+            PlanNode[] body = ((Cache) node).body;
+            return body.length == 1 && body[0] instanceof Component;
+        }
+        return node instanceof Component;
+    }
+
+    /**
+     * Compile the expressions of a node.
+     */
+    static Expression[] compile(String[] sources) {
+        Expression[] expressions = new Expression[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            expressions[i] = Expressions.compile(sources[i]);
+        }
+        return expressions;
+    }
+
+    /**
+     * Compile the scripts of the script engine fallbacks among the expressions of a plan, nested plans included.
+     *
+     * @throws ScriptException If an expression isn't a valid script.
+     */
+    static void precompile(PlanNode[] nodes) throws ScriptException {
+        if (nodes == null) {
+            return;
+        }
+        for (PlanNode node : nodes) {
+            if (node instanceof Interpolation) {
+                precompile(((Interpolation) node).sources);
+            } else if (node instanceof Attribute) {
+                precompile(((Attribute) node).sources);
+            } else if (node instanceof Var) {
+                precompile(((Var) node).sources);
+            } else if (node instanceof If) {
+                Expressions.precompile(((If) node).source);
+                precompile(((If) node).body);
+            } else if (node instanceof Cache) {
+                Expressions.precompile(((Cache) node).source);
+                precompile(((Cache) node).body);
+            } else if (node instanceof Switch) {
+                for (PlanNode[] branch : ((Switch) node).cases) {
+                    precompile(branch);
+                }
+                precompile(((Switch) node).defaultCase);
+            } else if (node instanceof For) {
+                For loop = (For) node;
+                for (String source : new String[]{loop.fromSource, loop.toSource, loop.stepSource}) {
+                    if (source != null) {
+                        Expressions.precompile(source);
+                    }
+                }
+                precompile(loop.body);
+            } else if (node instanceof Repeat) {
+                precompile(((Repeat) node).body);
+            } else if (node instanceof Siblings) {
+                precompile(((Siblings) node).nodes);
+            }
+        }
+    }
+
+    private static void precompile(String[] sources) throws ScriptException {
+        for (String source : sources) {
+            Expressions.precompile(source);
+        }
+    }
+
+    /**
+     * A part of a template rendered on the render executor.
+     */
+    interface Subtree {
+        void render(RenderState state, RenderOutput out) throws Exception;
+    }
+
+    /**
+     * Nodes with several sibling components. With a render executor the components are rendered on it,
+     * each with a copy of the context at its position, and their output is stitched back in document order;
+     * the other nodes render on the calling thread.
+     */
+    static final class Siblings implements PlanNode {
+        final PlanNode[] nodes;
+        final int components;
+
+        Siblings(PlanNode[] nodes, int components) {
+            this.nodes = nodes;
+            this.components = components;
+        }
+
+        @Override
+        public void render(RenderState state, RenderOutput out) throws Exception {
+            if (!parallel(state) || components < state.engine.getParallelComponentThreshold()) {
+                renderAll(nodes, state, out);
+                return;
+            }
+            // Strings rendered on this thread and futures of the forked components, in document order
+            List<Object> parts = new ArrayList<>();
+            Forks forks = new Forks(state);
+            CharRenderOutput pending = null;
+            for (PlanNode node : nodes) {
+                if (forks.failed()) {
+                    break;
+                }
+                if (isComponent(node)) {
+                    if (pending != null) {
+                        parts.add(pending.toString());
+                        pending = null;
+                    }
+                    parts.add(forks.fork((forked, output) -> node.render(forked, output)));
+                } else if (parts.isEmpty()) {
+                    // nothing is waiting yet, keep streaming
+                    node.render(state, out);
+                } else {
+                    if (pending == null) {
+                        pending = new CharRenderOutput(256);
+                    }
+                    node.render(state, pending);
+                }
+            }
+            forks.await();
+            for (Object part : parts) {
+                if (part instanceof String) {
+                    out.append((String) part);
+                } else {
+                    @SuppressWarnings("unchecked")
+                    CompletableFuture<String> future = (CompletableFuture<String>) part;
+                    out.append(join(future));
+                }
+            }
+            if (pending != null) {
+                out.append(pending.toString());
+            }
+        }
+    }
+
+    /**
+     * Markup that never changes between renders, already serialized and UTF-8 encoded.
+     */
+    static final class Static implements PlanNode {
+        final String html;
+        final byte[] utf8;
+
+        Static(String html) {
+            this(html, html.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Static(String html, byte[] utf8) {
+            this.html = html;
+            this.utf8 = utf8;
+        }
+
+        @Override
+        public void render(RenderState state, RenderOutput out) throws IOException {
+            out.appendStatic(html, utf8);
+        }
+    }
+
+    /**
+     * A text node with {@code {{ }}} interpolations, literals are stored escaped.
+     */
+    static final class Interpolation implements PlanNode {
+        final String[] literals;
+        final String[] sources;
+        final Escaper[] escapers;
+        final Expression[] expressions;
+
+        /**
+         * @param escapers The escaper of each expression.
+         */
+        Interpolation(String[] literals, String[] sources, Escaper[] escapers) {
+            this.literals = literals;
+            this.sources = sources;
+            this.escapers = escapers;
+            this.expressions = compile(sources);
+        }
+
+        @Override
+        public void render(RenderState state, RenderOutput out) throws Exception {
+            out.append(literals[0]);
+            for (int i = 0; i < expressions.length; i++) {
+                Object result = state.evaluate(expressions[i]);
+                if (result != null) {
+                    escapers[i].write(result.toString(), out);
+                }
+                out.append(literals[i + 1]);
+            }
+        }
+    }
+
+    /**
+     * An attribute whose value is either a {@code bs:} expression or contains {@code {{ }}} interpolations,
+     * literals are stored escaped.
+     * Evaluation errors keep the raw value, like the DOM engine always did.
+     */
+    static final class Attribute implements PlanNode {
+        final String name;
+        final String rawValue;
+        final String[] literals;
+        final String[] sources;
+        final Escaper[] escapers;
+        final Expression[] expressions;
+        private final String escapedRawValue;
+        /**
+         * Whether the value is a URL starting with an interpolation, whose scheme is checked once the whole value
+         * is known: {@code href="{{ a }}{{ b }}"} is unsafe if {@code a} is empty and {@code b} is a script URL,
+         * or if {@code a} is {@code java} and {@code b} the rest of one.
+         */
+        private final boolean checkScheme;
+
+        /**
+         * @param literals The literals around the expressions, null if the whole value is one expression.
+         * @param sources  The expressions of the value.
+         * @param escapers The escaper of each expression.
+         */
+        Attribute(String name, String rawValue, String[] literals, String[] sources, Escaper[] escapers) {
+            this.name = name;
+            this.rawValue = rawValue;
+            this.literals = literals;
+            this.sources = sources;
+            this.escapers = escapers;
+            this.expressions = compile(sources);
+            this.escapedRawValue = Escaper.ATTRIBUTE.escape(rawValue);
+            this.checkScheme = literals != null && literals[0].isBlank() && Escaper.forAttribute(name) == Escaper.URL
+                    && Arrays.stream(escapers).anyMatch(escaper -> escaper != Escaper.RAW);
+        }
+
+        @Override
+        public void render(RenderState state, RenderOutput out) throws IOException {
+            String value;
+            try {
+                value = literals == null ? evaluated(state) : interpolated(state);
+            } catch (Exception e) {
+                state.evaluationFailed(rawValue, e);
+                value = escapedRawValue;
+            }
+            out.append(' ').append(name).append("=\"").append(value).append('"');
+        }
+
+        private String evaluated(RenderState state) throws Exception {
+            Object result = state.evaluate(expressions[0]);
+            return result != null ? escapers[0].escape(result.toString()) : "";
+        }
+
+        private String interpolated(RenderState state) throws Exception {
+            StringBuilder sb = new StringBuilder(literals[0]);
+            for (int i = 0; i < expressions.length; i++) {
+                Object result = state.evaluate(expressions[i]);
+                if (result != null) {
+                    escapers[i].write(result.toString(), sb);
+                }
+                sb.append(literals[i + 1]);
+            }
+            return checkScheme ? Escaper.checkScheme(sb.toString()) : sb.toString();
+        }
+    }
+
+    /**
+     * {@code <bs:var>name = expression; ...</bs:var>}
+     */
+    static final class Var implements PlanNode {
+        final String[] names;
+        final String[] sources;
+        final Expression[] expressions;
+        /**
+         * The slots of the variables in the frame of the template, see {@link FrameLayout}.
+         */
+        final int[] slots;
+
+        Var(String[] names, String[] sources) {
+            this.names = names;
+            this.sources = sources;
+            this.expressions = compile(sources);
+            this.slots = new int[names.length];
+        }
+
+        @Override
+        public void render(RenderState state, RenderOutput out) throws Exception {
+            for (int i = 0; i < names.length; i++) {
+                state.frame.values[slots[i]] = state.evaluate(expressions[i]);
+            }
+        }
+    }
+
+    /**
+     * {@code <bs:if condition="...">}
+     */
+    static final class If implements PlanNode {
+        final String source;
+        Expression condition;
+        final PlanNode[] body;
+
+        If(String source, PlanNode[] body) {
+            this.source = source;
+            this.condition = Expressions.compile(source);
+            this.body = body;
+        }
+
+        @Override
+        public void render(RenderState state, RenderOutput out) throws Exception {
+            if (Expressions.isTrue(state.evaluate(condition))) {
+                renderAll(body, state, out);
+            }
+        }
+    }
+
+    /**
+     * {@code <bs:switch var="...">} with its {@code bs:case} and {@code bs:default} branches.
+     */
+    static final class Switch implements PlanNode {
+        final String var;
+        final String[] matches;
+        final PlanNode[][] cases;
+        final PlanNode[] defaultCase;
+        final VariablePath value;
+        final VariablePath[] values;
+
+        Switch(String var, String[] matches, PlanNode[][] cases, PlanNode[] defaultCase) {
+            this.var = var;
+            this.matches = matches;
+            this.value = new VariablePath(var);
+            this.values = new VariablePath[matches.length];
+            for (int i = 0; i < matches.length; i++) {
+                values[i] = new VariablePath(matches[i]);
+            }
+            this.cases = cases;
+            this.defaultCase = defaultCase;
+        }
+
+        @Override
+        public void render(RenderState state, RenderOutput out) throws Exception {
+            Object switchValue = value.get(state);
+            for (int i = 0; i < values.length; i++) {
+                if (Objects.equals(values[i].get(state), switchValue)) {
+                    renderAll(cases[i], state, out);
+                    return;
+                }
+            }
+            if (defaultCase != null) {
+                renderAll(defaultCase, state, out);
+            }
+        }
+    }
+
+    /**
+     * {@code <bs:for item="..." in="...">} over a collection, iterable, iterator, stream or array, see {@link Loops},
+     * or {@code <bs:for item="..." from="..." to="..." [step="..."]>} over a range of numbers.
+     * The body sees the item, {@code <item>_index} and the {@link LoopStatus} {@code <item>_loop};
+     * the index and status are only set if the template may read them, and the status is updated in place,
+     * so an iteration allocates nothing beyond what the items themselves need.
+     */
+    static final class For implements PlanNode {
+        final String itemName;
+        final String listName;
+        final VariablePath list;
+        final String indexName;
+        final String statusName;
+        final String fromSource;
+        final String toSource;
+        final String stepSource;
+        Expression from;
+        Expression to;
+        Expression step;
+        final boolean exposeIndex;
+        final boolean exposeStatus;
+        final PlanNode[] body;
+        /**
+         * The slots of the item, index and status in the frame of the template, see {@link FrameLayout}.
+         */
+        int itemSlot = -1;
+        int indexSlot = -1;
+        int statusSlot = -1;
+
+        For(String itemName, String listName, PlanNode[] body) {
+            this(itemName, listName, null, null, null, true, true, body);
+        }
+
+        /**
+         * @param listName     The collection, null for a range.
+         * @param from         The first number of a range.
+         * @param to           The last number of a range.
+         * @param step         The step of a range, null for 1.
+         * @param exposeIndex  Whether the body may read the index.
+         * @param exposeStatus Whether the body may read the loop status.
+         */
+        For(String itemName, String listName, String from, String to, String step, boolean exposeIndex,
+            boolean exposeStatus, PlanNode[] body) {
+            this.itemName = itemName;
+            this.listName = listName;
+            this.list = listName != null ? new VariablePath(listName) : null;
+            this.indexName = itemName + "_index";
+            this.statusName = itemName + "_loop";
+            this.fromSource = from;
+            this.toSource = to;
+            this.stepSource = step;
+            this.from = from != null ? Expressions.compile(from) : null;
+            this.to = to != null ? Expressions.compile(to) : null;
+            this.step = step != null ? Expressions.compile(step) : null;
+            this.exposeIndex = exposeIndex;
+            this.exposeStatus = exposeStatus;
+            this.body = body;
+        }
+
+        @Override
+        public void render(RenderState state, RenderOutput out) throws Exception {
+            Object items = listName != null ? items(state) : range(state);
+            int size = Loops.size(items);
+            if (size >= 0) {
+                state.loopIterations += size;
+                if (parallel(state) && size >= state.engine.getParallelLoopThreshold()) {
+                    renderParallel(state, Loops.toArray(items), out);
+                    return;
+                }
+            }
+
+            // the loop variables have slots of their own, hiding the variables of the same name while the loop runs
+            Object[] frame = state.frame.values;
+            LoopStatus status = exposeStatus ? new LoopStatus() : null;
+            if (status != null) {
+                frame[statusSlot] = status;
+            }
+            int index = 0;
+            try {
+                Iterator<?> iterator = Loops.iterator(items, listName);
+                while (iterator.hasNext()) {
+                    Object item = iterator.next();
+                    if (status != null) {
+                        status.next(!iterator.hasNext());
+                        if (state.fragment != null) {
+                            // a tracked fragment keeps the status it was rendered with
+                            LoopStatus copy = new LoopStatus();
+                            copy.moveTo(status.getIndex(), status.isLast());
+                            frame[statusSlot] = copy;
+                        }
+                    }
+                    renderItem(state, item, index, out);
+                    index++;
+                }
+            } finally {
+                if (size < 0) {
+                    state.loopIterations += index;
+                }
+                Loops.close(items);
+                frame[itemSlot] = Frame.UNSET;
+                frame[indexSlot] = Frame.UNSET;
+                frame[statusSlot] = Frame.UNSET;
+            }
+        }
+
+        private Object items(RenderState state) {
+            Object items = list.get(state);
+            if (items == null) {
+                throw new RuntimeException("Collection '" + listName + "' not found in context");
+            }
+            return items;
+        }
+
+        private Loops.Range range(RenderState state) throws Exception {
+            long first = (long) Expressions.toNumber(state.evaluate(from));
+            long last = (long) Expressions.toNumber(state.evaluate(to));
+            return new Loops.Range(first, last, step != null ? (long) Expressions.toNumber(state.evaluate(step)) : 1);
+        }
+
+        /**
+         * Split the items in chunks rendered on the render executor, each in a copy of the frame,
+         * the frame of the loop isn't changed.
+         */
+        private void renderParallel(RenderState state, Object[] items, RenderOutput out) throws Exception {
+            int chunks = Math.max(1, Math.min(PARALLELISM * 4, items.length / MIN_CHUNK_SIZE));
+            int chunkSize = (items.length + chunks - 1) / chunks;
+            List<CompletableFuture<String>> parts = new ArrayList<>(chunks);
+            Forks forks = new Forks(state);
+            for (int start = 0; start < items.length; start += chunkSize) {
+                int from = start;
+                int to = Math.min(items.length, start + chunkSize);
+                parts.add(forks.fork((forked, output) -> {
+                    LoopStatus status = exposeStatus ? new LoopStatus() : null;
+                    if (status != null) {
+                        forked.frame.values[statusSlot] = status;
+                    }
+                    for (int i = from; i < to && !forks.failed(); i++) {
+                        if (status != null) {
+                            status.moveTo(i, i == items.length - 1);
+                        }
+                        renderItem(forked, items[i], i, output);
+                    }
+                }));
+            }
+            forks.await();
+            for (CompletableFuture<String> part : parts) {
+                out.append(join(part));
+            }
+        }
+
+        private void renderItem(RenderState state, Object item, int index, RenderOutput out) throws Exception {
+            Object[] frame = state.frame.values;
+            frame[itemSlot] = item;
+            if (exposeIndex) {
+                frame[indexSlot] = index;
+            }
+            renderAll(body, state, out);
+        }
+    }
+
+    /**
+     * {@code <bs:repeat times="...">}, {@code times} is either a literal or a variable.
+     */
+    static final class Repeat implements PlanNode {
+        final String timesAttr;
+        final int times;
+        final PlanNode[] body;
+        final VariablePath timesVariable;
+
+        Repeat(String timesAttr, int times, PlanNode[] body) {
+            this.timesAttr = timesAttr;
+            this.times = times;
+            this.timesVariable = times < 0 ? new VariablePath(timesAttr) : null;
+            this.body = body;
+        }
+
+        @Override
+        public void render(RenderState state, RenderOutput out) throws Exception {
+            int count = times;
+            if (count < 0) {
+                Object resolvedTimes = timesVariable.get(state);
+                if (!(resolvedTimes instanceof Number)) {
+                    throw new RuntimeException("Invalid 'times' attribute for bs:repeat: " + timesAttr);
+                }
+                count = ((Number) resolvedTimes).intValue();
+            }
+            state.loopIterations += Math.max(count, 0);
+            for (int i = 0; i < count; i++) {
+                renderAll(body, state, out);
+            }
+        }
+    }
+
+    /**
+     * {@code <bs:component name="..." [static]>}, the component's plan is looked up when rendering
+     * so components may include each other.
+     */
+    static final class Component implements PlanNode {
+        final String name;
+        final boolean isStatic;
+
+        Component(String name, boolean isStatic) {
+            this.name = name;
+            this.isStatic = isStatic;
+        }
+
+        @Override
+        public void render(RenderState state, RenderOutput out) throws Exception {
+            state.engine.renderComponent(name, isStatic, state, out);
+        }
+    }
+
+    /**
+     * {@code <bs:cache key="..." [ttl="..."]>}, or a {@code bs:component} with a {@code cache-key} attribute.
+     * The body is rendered once per evaluated key and locale, then served from the engine's fragment cache
+     * until it expires or is invalidated; a null key, or a tracked render, renders the body without caching it.
+     * The fragment remembers the components it was rendered from, its own and the ones its body rendered,
+     * so that changing one of them drops it, see {@link BeastEngine#invalidateComponent(String)}.
+     */
+    static final class Cache implements PlanNode {
+        final String source;
+        Expression key;
+        final long ttl;
+        final PlanNode[] body;
+
+        Cache(String source, long ttl, PlanNode[] body) {
+            this.source = source;
+            this.key = Expressions.compile(source);
+            this.ttl = ttl;
+            this.body = body;
+        }
+
+        @Override
+        public void render(RenderState state, RenderOutput out) throws Exception {
+            Object keyValue = state.evaluate(key);
+            // a tracked render must see what the body reads
+            if (keyValue == null || state.fragment != null) {
+                renderAll(body, state, out);
+                return;
+            }
+            String cacheKey = Expressions.toString(keyValue);
+            FragmentCache fragments = state.engine.fragments;
+            // a fragment cached in the body of another one is part of it
+            byte[] cached = fragments.get(cacheKey, state.context.getLocale(), state.rendered);
+            if (cached != null) {
+                out.appendUtf8(cached);
+                return;
+            }
+            long generation = fragments.generation();
+            Set<String> outer = state.rendered;
+            Set<String> rendered = ConcurrentHashMap.newKeySet();
+            if (state.component != null) {
+                rendered.add(state.component);
+            }
+            String result;
+            StringBuilder buffer = BeastEngine.renderBuffers.acquire();
+            state.rendered = rendered;
+            try {
+                RenderOutput fragment = new CharRenderOutput(buffer);
+                renderAll(body, state, fragment);
+                result = fragment.toString();
+            } finally {
+                state.rendered = outer;
+                BeastEngine.renderBuffers.release(buffer);
+            }
+            if (outer != null) {
+                outer.addAll(rendered);
+            }
+            fragments.put(cacheKey, state.context.getLocale(), result.getBytes(StandardCharsets.UTF_8), ttl, rendered,
+                    generation);
+            out.append(result);
+        }
+    }
+
+    /**
+     * {@code <bs:router>} with its {@code route} children, matched against the {@code bs:path} context value,
+     * see {@link RouteTrie} for the paths of the routes.
+     * The parameters of the matching route are variables of the component it renders.
+     */
+    static final class Router implements PlanNode {
+        final String[] paths;
+        final String[] components;
+        final boolean[] statics;
+        private final RouteTrie routes;
+        private final int maxParameters;
+        /**
+         * The frames of the parameters of each route, the slots being the parameters in order.
+         */
+        private final FrameLayout[] layouts;
+
+        Router(String[] paths, String[] components, boolean[] statics) {
+            this.paths = paths;
+            this.components = components;
+            this.statics = statics;
+            this.routes = new RouteTrie(paths);
+            this.maxParameters = routes.maxParameters();
+            this.layouts = new FrameLayout[paths.length];
+            for (int i = 0; i < paths.length; i++) {
+                layouts[i] = FrameLayout.of(routes.parameters(i));
+            }
+        }
+
+        @Override
+        public void render(RenderState state, RenderOutput out) throws Exception {
+            Object path = state.variable(BeastEngine.TAG_PREFIX + "path");
+            if (path == null) {
+                return;
+            }
+            String[] values = maxParameters > 0 ? new String[maxParameters] : null;
+            int route = routes.match(((String) path).trim(), values);
+            if (route < 0) {
+                return;
+            }
+            String[] names = routes.parameters(route);
+            if (names.length == 0) {
+                state.engine.renderComponent(components[route], statics[route], state, out);
+                return;
+            }
+            Frame caller = state.frame;
+            Frame parameters = new Frame(layouts[route], caller);
+            for (int i = 0; i < names.length; i++) {
+                if (names[i] != null) {
+                    parameters.values[i] = values[i];
+                }
+            }
+            state.frame = parameters;
+            try {
+                // the output of a static component doesn't depend on the parameters
+                state.engine.renderComponent(components[route], false, state, out);
+            } finally {
+                state.frame = caller;
+            }
+        }
+    }
+}
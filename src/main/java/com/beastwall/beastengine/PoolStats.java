@@ -0,0 +1,112 @@
+package com.beastwall.beastengine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of the counters of the script engine pool.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+public final class PoolStats {
+    private final int maxSize;
+    private final int size;
+    private final int idle;
+    private final long borrowCount;
+    private final long waitCount;
+    private final long timeoutCount;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+
+    PoolStats(int maxSize, int size, int idle, long borrowCount, long waitCount, long timeoutCount,
+              long totalWaitNanos, long maxWaitNanos) {
+        this.maxSize = maxSize;
+        this.size = size;
+        this.idle = idle;
+        this.borrowCount = borrowCount;
+        this.waitCount = waitCount;
+        this.timeoutCount = timeoutCount;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+    }
+
+    /**
+     * @return The maximum number of pooled script scopes.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The number of script scopes created so far and still pooled, idle or borrowed.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The number of idle script scopes.
+     */
+    public int getIdle() {
+        return idle;
+    }
+
+    /**
+     * @return The number of borrowed script scopes.
+     */
+    public int getInUse() {
+        return size - idle;
+    }
+
+    /**
+     * @return The number of borrows.
+     */
+    public long getBorrowCount() {
+        return borrowCount;
+    }
+
+    /**
+     * @return The number of borrows that had to wait for a script scope to be returned.
+     */
+    public long getWaitCount() {
+        return waitCount;
+    }
+
+    /**
+     * @return The number of borrows that gave up waiting.
+     */
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * @param unit The unit of the result.
+     * @return The total time borrows waited.
+     */
+    public long getTotalWaitTime(TimeUnit unit) {
+        return unit.convert(totalWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param unit The unit of the result.
+     * @return The longest time a borrow waited.
+     */
+    public long getMaxWaitTime(TimeUnit unit) {
+        return unit.convert(maxWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param unit The unit of the result.
+     * @return The average time a borrow waited, borrows that didn't wait included.
+     */
+    public double getAverageWaitTime(TimeUnit unit) {
+        return borrowCount == 0 ? 0 : (double) totalWaitNanos / borrowCount / unit.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStats{maxSize=" + maxSize + ", size=" + size + ", idle=" + idle + ", borrows=" + borrowCount
+                + ", waits=" + waitCount + ", timeouts=" + timeoutCount + ", totalWaitMs=" + getTotalWaitTime(TimeUnit.MILLISECONDS)
+                + ", maxWaitMs=" + getMaxWaitTime(TimeUnit.MILLISECONDS) + "}";
+    }
+}
@@ -0,0 +1,212 @@
+package com.beastwall.beastengine;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads properties of context values.
+ * Each class gets its own table of accessors (through a {@link ClassValue}, so classes can still be unloaded),
+ * an accessor is resolved once per class and property and wraps a {@link MethodHandle} of, in that order,
+ * a record component, a {@code getX()} or {@code isX()} getter or a public field.
+ * Properties a class doesn't have are cached too, so a miss costs a map lookup instead of reflection and exceptions.
+ * {@link Map}s are read by key.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class PropertyAccessors {
+    private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final ClassValue<Map<String, Accessor>> accessors = new ClassValue<>() {
+        @Override
+        protected Map<String, Accessor> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /**
+     * The accessor of properties a class doesn't have.
+     */
+    static final Accessor MISSING = target -> null;
+
+    private PropertyAccessors() {
+    }
+
+    /**
+     * Read a property.
+     *
+     * @param target The object to read from, may be null.
+     * @param name   The name of the property.
+     * @return The value of the property, null if the target is null or doesn't have the property.
+     * @throws Throwable Whatever the getter throws.
+     */
+    static Object get(Object target, String name) throws Throwable {
+        if (target == null) {
+            return null;
+        }
+        if (target instanceof Map) {
+            return ((Map<?, ?>) target).get(name);
+        }
+        return accessor(target.getClass(), name).get(target);
+    }
+
+    /**
+     * Get the accessor of a property of a class.
+     *
+     * @param type The class.
+     * @param name The name of the property.
+     * @return The accessor, {@link #MISSING} if the class doesn't have the property.
+     */
+    static Accessor accessor(Class<?> type, String name) {
+        Map<String, Accessor> table = accessors.get(type);
+        Accessor accessor = table.get(name);
+        if (accessor == null) {
+            accessor = resolve(type, name);
+            table.put(name, accessor);
+        }
+        return accessor;
+    }
+
+    private static Accessor resolve(Class<?> type, String name) {
+        if (Map.class.isAssignableFrom(type)) {
+            return target -> ((Map<?, ?>) target).get(name);
+        }
+        if (type.isRecord()) {
+            for (RecordComponent component : type.getRecordComponents()) {
+                if (component.getName().equals(name)) {
+                    Accessor accessor = handle(component.getAccessor());
+                    if (accessor != null) {
+                        return accessor;
+                    }
+                }
+            }
+        }
+        String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        Accessor accessor = getter(type, "get" + capitalized);
+        if (accessor == null) {
+            accessor = getter(type, name.startsWith("is") ? name : "is" + capitalized);
+        }
+        if (accessor == null) {
+            accessor = field(type, name);
+        }
+        if (accessor == null && name.equals("length")) {
+            if (type.isArray()) {
+                accessor = Array::getLength;
+            } else if (CharSequence.class.isAssignableFrom(type)) {
+                accessor = target -> ((CharSequence) target).length();
+            } else if (Collection.class.isAssignableFrom(type)) {
+                accessor = target -> ((Collection<?>) target).size();
+            }
+        }
+        return accessor != null ? accessor : MISSING;
+    }
+
+    private static Accessor getter(Class<?> type, String methodName) {
+        try {
+            Method method = type.getMethod(methodName);
+            if (method.getReturnType() == void.class || Modifier.isStatic(method.getModifiers())) {
+                return null;
+            }
+            return handle(method);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Accessor field(Class<?> type, String name) {
+        try {
+            Field field = type.getField(name);
+            if (Modifier.isStatic(field.getModifiers())) {
+                return null;
+            }
+            MethodHandle handle = unreflectGetter(field);
+            return handle != null ? accessor(handle) : null;
+        } catch (NoSuchFieldException e) {
+            return null;
+        }
+    }
+
+    private static Accessor handle(Method method) {
+        MethodHandle handle = unreflect(method);
+        return handle != null ? accessor(handle) : null;
+    }
+
+    private static Accessor accessor(MethodHandle handle) {
+        MethodHandle typed = handle.asType(ACCESSOR_TYPE);
+        return target -> (Object) typed.invokeExact(target);
+    }
+
+    /**
+     * A public method of a non public class (e.g. an anonymous implementation of a public interface)
+     * can't be called from outside, use the same method of a public super type instead.
+     */
+    private static MethodHandle unreflect(Method method) {
+        try {
+            return MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            for (Class<?> type = method.getDeclaringClass(); type != null; type = type.getSuperclass()) {
+                MethodHandle handle = unreflect(type, method);
+                if (handle != null) {
+                    return handle;
+                }
+            }
+            try {
+                method.setAccessible(true);
+                return MethodHandles.lookup().unreflect(method);
+            } catch (RuntimeException | IllegalAccessException ex) {
+                return null;
+            }
+        }
+    }
+
+    private static MethodHandle unreflect(Class<?> type, Method method) {
+        for (Class<?> candidate : type.getInterfaces()) {
+            try {
+                return MethodHandles.publicLookup().unreflect(candidate.getMethod(method.getName()));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                MethodHandle handle = unreflect(candidate, method);
+                if (handle != null) {
+                    return handle;
+                }
+            }
+        }
+        Class<?> superclass = type.getSuperclass();
+        if (superclass != null && Modifier.isPublic(superclass.getModifiers())) {
+            try {
+                return MethodHandles.publicLookup().unreflect(superclass.getMethod(method.getName()));
+            } catch (NoSuchMethodException | IllegalAccessException ignored) {
+            }
+        }
+        return null;
+    }
+
+    private static MethodHandle unreflectGetter(Field field) {
+        try {
+            return MethodHandles.publicLookup().unreflectGetter(field);
+        } catch (IllegalAccessException e) {
+            try {
+                field.setAccessible(true);
+                return MethodHandles.lookup().unreflectGetter(field);
+            } catch (RuntimeException | IllegalAccessException ex) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Reads one property of objects of one class.
+     */
+    @FunctionalInterface
+    interface Accessor {
+        Object get(Object target) throws Throwable;
+    }
+}
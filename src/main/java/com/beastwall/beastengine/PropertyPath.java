@@ -0,0 +1,69 @@
+package com.beastwall.beastengine;
+
+import java.lang.reflect.UndeclaredThrowableException;
+
+/**
+ * A compiled property path like {@code order.customer.name}, reading every property of the path in one call.
+ * Each step remembers the class it last saw and its accessor, so a path that always sees the same classes
+ * never goes back to the {@link PropertyAccessors} tables.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class PropertyPath {
+    private final String[] names;
+    private final Step[] steps;
+
+    private PropertyPath(String[] names) {
+        this.names = names;
+        this.steps = new Step[names.length];
+    }
+
+    /**
+     * Compile the properties of a path, not including its root variable.
+     *
+     * @param names The names of the properties, in order.
+     * @return The compiled path.
+     */
+    static PropertyPath of(String... names) {
+        return new PropertyPath(names);
+    }
+
+    /**
+     * Read the path.
+     *
+     * @param root The object to start from.
+     * @return The value at the end of the path, null as soon as one of the steps is null.
+     * @throws Exception Whatever a getter throws.
+     */
+    Object get(Object root) throws Exception {
+        Object value = root;
+        for (int i = 0; i < names.length && value != null; i++) {
+            Class<?> type = value.getClass();
+            // steps are immutable, a racing thread at worst resolves the same accessor again
+            Step step = steps[i];
+            if (step == null || step.type != type) {
+                step = new Step(type, PropertyAccessors.accessor(type, names[i]));
+                steps[i] = step;
+            }
+            try {
+                value = step.accessor.get(value);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new UndeclaredThrowableException(e);
+            }
+        }
+        return value;
+    }
+
+    private static final class Step {
+        final Class<?> type;
+        final PropertyAccessors.Accessor accessor;
+
+        Step(Class<?> type, PropertyAccessors.Accessor accessor) {
+            this.type = type;
+            this.accessor = accessor;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.beastwall.beastengine;
+
+import java.util.List;
+
+/**
+ * The result of a tracked render, it remembers which context variables every fragment of the output read,
+ * so the next render after a change only renders the fragments that read a changed variable again.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ * @see BeastHtmlEngine#renderTracked(String, Context)
+ * @see BeastHtmlEngine#rerender(RenderHandle, Context, java.util.Set)
+ */
+public final class RenderHandle {
+    final String componentName;
+    final Fragment root;
+    /**
+     * The top level context of the render, as it was before rendering.
+     */
+    final Context original;
+    private final List<Patch> patches;
+
+    RenderHandle(String componentName, Fragment root, Context original, List<Patch> patches) {
+        this.componentName = componentName;
+        this.root = root;
+        this.original = original;
+        this.patches = patches;
+    }
+
+    /**
+     * @return The name of the rendered component.
+     */
+    public String getComponentName() {
+        return componentName;
+    }
+
+    /**
+     * @return The whole output, the fragments of included components are wrapped in marker comments.
+     */
+    public String getOutput() {
+        return root.html();
+    }
+
+    /**
+     * @return The fragments that were rendered again, in document order, empty if nothing changed;
+     * a first render has a single patch for the whole output.
+     */
+    public List<Patch> getPatches() {
+        return patches;
+    }
+}
@@ -0,0 +1,58 @@
+package com.beastwall.beastengine;
+
+/**
+ * Receives the measurements of an engine's renders, see {@link BeastEngine#setRenderListener(RenderListener)}
+ * and {@link RenderMetrics} for a listener that aggregates them.
+ * Listeners are called from the rendering threads, sibling components rendered on the render executor
+ * report concurrently, so implementations must be thread safe and fast. Every method does nothing by default.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+public interface RenderListener {
+
+    /**
+     * A render is over, successfully or not.
+     *
+     * @param stats The measurements of the render.
+     */
+    default void renderCompleted(RenderStats stats) {
+    }
+
+    /**
+     * A component included by a render was rendered, its time includes the components it includes.
+     *
+     * @param componentName The name of the component.
+     * @param nanos         How long rendering the component took.
+     */
+    default void componentRendered(String componentName, long nanos) {
+    }
+
+    /**
+     * An expression the native evaluator can't handle was evaluated by the script engine.
+     *
+     * @param expression The source of the expression.
+     * @param nanos      How long the evaluation took.
+     */
+    default void scriptEvaluated(String expression, long nanos) {
+    }
+
+    /**
+     * A template was compiled, rendered components are only compiled again when they are changed or evicted.
+     *
+     * @param componentName The name of the component, null for a template string.
+     * @param nanos         How long compiling took.
+     */
+    default void templateCompiled(String componentName, long nanos) {
+    }
+
+    /**
+     * An expression failed and the render went on without its value: an attribute kept its raw value,
+     * or a variable path resolved to null.
+     *
+     * @param expression The source of the expression.
+     * @param error      What made it fail.
+     */
+    default void evaluationFailed(String expression, Throwable error) {
+    }
+}
@@ -0,0 +1,144 @@
+package com.beastwall.beastengine;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link RenderListener} that aggregates the measurements of an engine's renders: a render time histogram
+ * per component, expression evaluations by evaluator, compilations, loop iterations and output size.
+ * The engine's caches count their own hits and misses, see {@link BeastEngine#getComponentCacheStats()},
+ * {@link BeastEngine#getExpressionCacheStats()} and {@link BeastHtmlEngine#getFragmentCacheStats()}.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+public class RenderMetrics implements RenderListener {
+    /**
+     * The key of template strings in the component timings.
+     */
+    public static final String TEMPLATE = "<template>";
+
+    private final Map<String, TimingHistogram> componentTimes = new ConcurrentHashMap<>();
+    private volatile TimingHistogram scriptTimes = new TimingHistogram();
+    private final LongAdder renders = new LongAdder();
+    private final LongAdder failedRenders = new LongAdder();
+    private final LongAdder nativeEvaluations = new LongAdder();
+    private final LongAdder scriptEvaluations = new LongAdder();
+    private final LongAdder failedEvaluations = new LongAdder();
+    private final LongAdder compilations = new LongAdder();
+    private final LongAdder loopIterations = new LongAdder();
+    private final LongAdder outputSize = new LongAdder();
+
+    @Override
+    public void renderCompleted(RenderStats stats) {
+        renders.increment();
+        if (stats.isFailed()) {
+            failedRenders.increment();
+        }
+        componentRendered(stats.getComponentName() != null ? stats.getComponentName() : TEMPLATE, stats.getNanos());
+        nativeEvaluations.add(stats.getNativeEvaluations());
+        loopIterations.add(stats.getLoopIterations());
+        outputSize.add(stats.getOutputSize());
+    }
+
+    @Override
+    public void componentRendered(String componentName, long nanos) {
+        componentTimes.computeIfAbsent(componentName, name -> new TimingHistogram()).record(nanos);
+    }
+
+    @Override
+    public void scriptEvaluated(String expression, long nanos) {
+        scriptEvaluations.increment();
+        scriptTimes.record(nanos);
+    }
+
+    @Override
+    public void templateCompiled(String componentName, long nanos) {
+        compilations.increment();
+    }
+
+    @Override
+    public void evaluationFailed(String expression, Throwable error) {
+        failedEvaluations.increment();
+    }
+
+    /**
+     * @return The render times by component, top level renders and included components alike,
+     * template strings are under {@link #TEMPLATE}.
+     */
+    public Map<String, TimingHistogram> getComponentTimes() {
+        return Collections.unmodifiableMap(componentTimes);
+    }
+
+    /**
+     * @return The times of the evaluations of the script engine.
+     */
+    public TimingHistogram getScriptTimes() {
+        return scriptTimes;
+    }
+
+    public long getRenders() {
+        return renders.sum();
+    }
+
+    public long getFailedRenders() {
+        return failedRenders.sum();
+    }
+
+    public long getNativeEvaluations() {
+        return nativeEvaluations.sum();
+    }
+
+    public long getScriptEvaluations() {
+        return scriptEvaluations.sum();
+    }
+
+    /**
+     * @return The number of expressions that failed without failing the render.
+     */
+    public long getFailedEvaluations() {
+        return failedEvaluations.sum();
+    }
+
+    public long getCompilations() {
+        return compilations.sum();
+    }
+
+    public long getLoopIterations() {
+        return loopIterations.sum();
+    }
+
+    /**
+     * @return The total size of the outputs, in chars, or in bytes for renders to a stream or a channel.
+     */
+    public long getOutputSize() {
+        return outputSize.sum();
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void reset() {
+        componentTimes.clear();
+        scriptTimes = new TimingHistogram();
+        renders.reset();
+        failedRenders.reset();
+        nativeEvaluations.reset();
+        scriptEvaluations.reset();
+        failedEvaluations.reset();
+        compilations.reset();
+        loopIterations.reset();
+        outputSize.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "RenderMetrics{renders=" + getRenders() + ", failedRenders=" + getFailedRenders()
+                + ", nativeEvaluations=" + getNativeEvaluations() + ", scriptEvaluations=" + getScriptEvaluations()
+                + ", failedEvaluations=" + getFailedEvaluations() + ", compilations=" + getCompilations()
+                + ", loopIterations=" + getLoopIterations() + ", outputSize=" + getOutputSize()
+                + ", componentTimes=" + componentTimes + "}";
+    }
+}
@@ -0,0 +1,54 @@
+package com.beastwall.beastengine;
+
+import java.io.IOException;
+
+/**
+ * Output of a render.
+ * Dynamic values are appended as chars, static markup and cached fragments also come pre-encoded as UTF-8
+ * so outputs writing bytes don't encode them again.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ * @see CharRenderOutput
+ * @see ByteRenderOutput
+ */
+abstract class RenderOutput implements Appendable {
+
+    @Override
+    public abstract RenderOutput append(CharSequence csq) throws IOException;
+
+    @Override
+    public abstract RenderOutput append(CharSequence csq, int start, int end) throws IOException;
+
+    @Override
+    public abstract RenderOutput append(char c) throws IOException;
+
+    /**
+     * Append static markup, available both as chars and UTF-8 encoded.
+     *
+     * @param chars The markup.
+     * @param utf8  The same markup, UTF-8 encoded, it must not be modified.
+     * @throws IOException If the target fails.
+     */
+    abstract void appendStatic(String chars, byte[] utf8) throws IOException;
+
+    /**
+     * Append UTF-8 encoded output, e.g. a cached fragment.
+     *
+     * @param bytes The encoded output, it must not be modified.
+     * @throws IOException If the target fails.
+     */
+    abstract void appendUtf8(byte[] bytes) throws IOException;
+
+    /**
+     * @return The size of the output so far, in chars, or in bytes for outputs writing bytes.
+     */
+    abstract long size();
+
+    /**
+     * Write everything still buffered to the target and flush it.
+     *
+     * @throws IOException If the target fails.
+     */
+    abstract void finish() throws IOException;
+}
@@ -0,0 +1,71 @@
+package com.beastwall.beastengine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Publishes the output of a component render as UTF-8 chunks, every subscriber starts its own render.
+ * Chunks go through a {@link SubmissionPublisher}, whose bounded buffer holds the render back when the subscriber
+ * doesn't keep up.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class RenderPublisher implements Flow.Publisher<ByteBuffer> {
+    private final BeastHtmlEngine engine;
+    private final String componentName;
+    private final Context context;
+    private final Executor executor;
+
+    RenderPublisher(BeastHtmlEngine engine, String componentName, Context context, Executor executor) {
+        this.engine = engine;
+        this.componentName = componentName;
+        this.context = context;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>(executor, Flow.defaultBufferSize());
+        publisher.subscribe(subscriber);
+        engine.renderAsync(componentName, new Context(context), new PublishingStream(publisher)).whenComplete((ignored, failure) -> {
+            if (failure == null) {
+                publisher.close();
+            } else {
+                publisher.closeExceptionally(failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause() : failure);
+            }
+        });
+    }
+
+    /**
+     * Submits every write as a chunk, the output writes once per buffer size.
+     */
+    private static final class PublishingStream extends OutputStream {
+        private final SubmissionPublisher<ByteBuffer> publisher;
+
+        PublishingStream(SubmissionPublisher<ByteBuffer> publisher) {
+            this.publisher = publisher;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!publisher.hasSubscribers()) {
+                throw new IOException("The subscriber cancelled the render of the component");
+            }
+            // the output reuses its buffers
+            publisher.submit(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.beastwall.beastengine;
+
+import javax.script.Bindings;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Per-render state handed to every {@link PlanNode}.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class RenderState extends ContextScope {
+    final BeastHtmlEngine engine;
+    /**
+     * Whether this state renders a subtree on the render executor, or an item of a batch fanned out on it,
+     * those don't fork again.
+     */
+    final boolean forked;
+    /**
+     * The fragment being rendered by a tracked render, null if the render isn't tracked.
+     */
+    Fragment fragment;
+    /**
+     * The name of the component being rendered, null for a template string.
+     */
+    String component;
+    /**
+     * The components rendered since the {@code bs:cache} fragment being rendered started, null outside of one,
+     * see {@link FragmentCache}. The subtrees forked meanwhile add to it too.
+     */
+    Set<String> rendered;
+    /**
+     * The top level context of a tracked render as it was before rendering.
+     */
+    Context original;
+    /**
+     * The states of the subtrees this state forked, they are joined before the render completes
+     * and their counts are part of the render's.
+     */
+    private List<RenderState> forks;
+
+    RenderState(BeastHtmlEngine engine, Context context, DeferredValues deferred) {
+        this(engine, context, deferred, false);
+    }
+
+    /**
+     * @param forked Whether the render must not fork.
+     */
+    RenderState(BeastHtmlEngine engine, Context context, DeferredValues deferred, boolean forked) {
+        super(context, deferred, engine.getRenderListener());
+        this.engine = engine;
+        this.forked = forked;
+    }
+
+    /**
+     * Create the state of a subtree rendered on another thread, it works on a copy of the context and of the frames
+     * and borrows its own bindings, so it neither sees nor makes changes to the variables of this state.
+     * This state may hold pooled bindings while it waits for the fork, so the fork doesn't wait for the pool.
+     *
+     * @return The state of the subtree.
+     */
+    RenderState fork() {
+        Context copy = new Context(context);
+        RenderState forked = new RenderState(engine, copy, deferred, true);
+        forked.frame = frame != null ? frame.copy() : null;
+        forked.component = component;
+        forked.rendered = rendered;
+        forked.unpooledBindings = true;
+        if (forks == null) {
+            forks = new ArrayList<>();
+        }
+        forks.add(forked);
+        return forked;
+    }
+
+    @Override
+    long evaluationCount() {
+        long count = evaluations;
+        if (forks != null) {
+            for (RenderState fork : forks) {
+                count += fork.evaluations;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    long scriptEvaluationCount() {
+        long count = scriptEvaluations;
+        if (forks != null) {
+            for (RenderState fork : forks) {
+                count += fork.scriptEvaluations;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    long loopIterationCount() {
+        long count = loopIterations;
+        if (forks != null) {
+            for (RenderState fork : forks) {
+                count += fork.loopIterations;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public Object variable(String name) {
+        if (fragment != null) {
+            fragment.reads.add(name);
+        }
+        return super.variable(name);
+    }
+
+    @Override
+    public Object local(int slot, String name) {
+        if (fragment != null) {
+            fragment.reads.add(name);
+        }
+        return super.local(slot, name);
+    }
+
+    @Override
+    public Bindings bindings(String[] variables) {
+        if (fragment != null) {
+            Collections.addAll(fragment.reads, variables);
+        }
+        return super.bindings(variables);
+    }
+
+    /**
+     * Get the variables of a tracked render that are set by a component, a loop or a router,
+     * rather than the top level context.
+     *
+     * @return The names of the variables.
+     */
+    Set<String> locals() {
+        Set<String> locals = new HashSet<>();
+        context.forEachVariable((name, value) -> {
+            if (!original.containsKey(name) || original.get(name) != value) {
+                locals.add(name);
+            }
+        });
+        if (frame != null) {
+            frame.forEachVariable((name, value) -> locals.add(name));
+        }
+        return locals;
+    }
+}
@@ -0,0 +1,91 @@
+package com.beastwall.beastengine;
+
+/**
+ * The measurements of a single render, see {@link RenderListener#renderCompleted(RenderStats)}.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+public final class RenderStats {
+    private final String componentName;
+    private final long nanos;
+    private final long outputSize;
+    private final long expressionEvaluations;
+    private final long scriptEvaluations;
+    private final long loopIterations;
+    private final boolean failed;
+
+    RenderStats(String componentName, long nanos, long outputSize, long expressionEvaluations, long scriptEvaluations,
+                long loopIterations, boolean failed) {
+        this.componentName = componentName;
+        this.nanos = nanos;
+        this.outputSize = outputSize;
+        this.expressionEvaluations = expressionEvaluations;
+        this.scriptEvaluations = scriptEvaluations;
+        this.loopIterations = loopIterations;
+        this.failed = failed;
+    }
+
+    /**
+     * @return The name of the rendered component, null for a template string.
+     */
+    public String getComponentName() {
+        return componentName;
+    }
+
+    /**
+     * @return How long the render took.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return The size of the output, in chars, or in bytes for renders to a stream or a channel.
+     */
+    public long getOutputSize() {
+        return outputSize;
+    }
+
+    /**
+     * @return The number of expressions evaluated, natively or by the script engine.
+     */
+    public long getExpressionEvaluations() {
+        return expressionEvaluations;
+    }
+
+    /**
+     * @return The number of expressions evaluated by the native evaluator.
+     */
+    public long getNativeEvaluations() {
+        return expressionEvaluations - scriptEvaluations;
+    }
+
+    /**
+     * @return The number of expressions evaluated by the script engine.
+     */
+    public long getScriptEvaluations() {
+        return scriptEvaluations;
+    }
+
+    /**
+     * @return The number of loop iterations, of {@code bs:for}, {@code bs:repeat} and text {@code {{#for}}} loops.
+     */
+    public long getLoopIterations() {
+        return loopIterations;
+    }
+
+    /**
+     * @return Whether the render failed.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderStats{component=" + componentName + ", nanos=" + nanos + ", outputSize=" + outputSize
+                + ", nativeEvaluations=" + getNativeEvaluations() + ", scriptEvaluations=" + scriptEvaluations
+                + ", loopIterations=" + loopIterations + ", failed=" + failed + "}";
+    }
+}
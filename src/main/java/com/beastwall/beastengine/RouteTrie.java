@@ -0,0 +1,174 @@
+package com.beastwall.beastengine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The routes of a {@code bs:router}, compiled into a trie of path segments.
+ * A segment is either literal, matched ignoring case, a parameter {@code :name} matching any one segment,
+ * or, as the last segment, a wildcard {@code *} or {@code *name} matching the rest of the path, possibly empty.
+ * Literal segments win over parameters and parameters over wildcards, the first of two identical routes wins.
+ * Empty segments are ignored, so {@code /users/}, {@code users} and {@code /users} are the same path.
+ * Matching a path visits each of its segments once, unless a parameter leads to a dead end and a wildcard
+ * has to be tried instead, whatever the number of routes.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class RouteTrie {
+    private final Node root = new Node();
+    private final String[][] parameters;
+
+    /**
+     * @param paths The paths of the routes, in order.
+     * @throws IllegalArgumentException If a path isn't valid.
+     */
+    RouteTrie(String[] paths) {
+        this.parameters = new String[paths.length][];
+        for (int i = 0; i < paths.length; i++) {
+            add(paths[i], i);
+        }
+    }
+
+    private void add(String path, int route) {
+        List<String> names = new ArrayList<>();
+        Node node = root;
+        String[] segments = segments(path);
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            char first = segment.charAt(0);
+            if (first == '*') {
+                if (i != segments.length - 1) {
+                    throw new IllegalArgumentException("Wildcard before the end of route " + path);
+                }
+                names.add(segment.length() > 1 ? segment.substring(1) : null);
+                if (node.wildcardRoute < 0) {
+                    node.wildcardRoute = route;
+                }
+                parameters[route] = names.toArray(new String[0]);
+                return;
+            }
+            if (first == ':') {
+                if (segment.length() == 1) {
+                    throw new IllegalArgumentException("Unnamed parameter in route " + path);
+                }
+                names.add(segment.substring(1));
+                if (node.parameter == null) {
+                    node.parameter = new Node();
+                }
+                node = node.parameter;
+            } else {
+                if (node.literals == null) {
+                    node.literals = new HashMap<>();
+                }
+                node = node.literals.computeIfAbsent(segment.toLowerCase(Locale.ROOT), k -> new Node());
+            }
+        }
+        if (node.route < 0) {
+            node.route = route;
+        }
+        parameters[route] = names.toArray(new String[0]);
+    }
+
+    /**
+     * Check the path of a route.
+     *
+     * @throws IllegalArgumentException If the path isn't valid.
+     */
+    static void validate(String path) {
+        new RouteTrie(new String[]{path});
+    }
+
+    /**
+     * Find the route of a path.
+     *
+     * @param path   The path.
+     * @param values Receives the values of the route's parameters, in the order of {@link #parameters(int)},
+     *               at least {@link #maxParameters()} long.
+     * @return The index of the route, -1 if none matches.
+     */
+    int match(String path, String[] values) {
+        String lower = path.toLowerCase(Locale.ROOT);
+        // lower casing rarely changes the length, literals are then compared as they are
+        return match(root, lower.length() == path.length() ? lower : path, path, 0, values, 0);
+    }
+
+    private static int match(Node node, String lower, String path, int start, String[] values, int count) {
+        while (start < path.length() && path.charAt(start) == '/') {
+            start++;
+        }
+        if (start == path.length()) {
+            if (node.route >= 0) {
+                return node.route;
+            }
+            if (node.wildcardRoute >= 0) {
+                values[count] = "";
+                return node.wildcardRoute;
+            }
+            return -1;
+        }
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+            end = path.length();
+        }
+        if (node.literals != null) {
+            Node next = node.literals.get(lower.substring(start, end));
+            if (next != null) {
+                int route = match(next, lower, path, end, values, count);
+                if (route >= 0) {
+                    return route;
+                }
+            }
+        }
+        if (node.parameter != null) {
+            int route = match(node.parameter, lower, path, end, values, count + 1);
+            if (route >= 0) {
+                values[count] = path.substring(start, end);
+                return route;
+            }
+        }
+        if (node.wildcardRoute >= 0) {
+            values[count] = path.substring(start);
+            return node.wildcardRoute;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The names of the parameters of a route, in order, null for an unnamed wildcard.
+     */
+    String[] parameters(int route) {
+        return parameters[route];
+    }
+
+    /**
+     * @return The largest number of parameters of a route.
+     */
+    int maxParameters() {
+        int max = 0;
+        for (String[] names : parameters) {
+            max = Math.max(max, names.length);
+        }
+        return max;
+    }
+
+    private static String[] segments(String path) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments.toArray(new String[0]);
+    }
+
+    private static final class Node {
+        Map<String, Node> literals;
+        Node parameter;
+        int route = -1;
+        int wildcardRoute = -1;
+    }
+}
@@ -0,0 +1,26 @@
+package com.beastwall.beastengine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event of an expression evaluated by the script engine, only recorded above the threshold of the recording,
+ * 1 ms by default.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+@Name("com.beastwall.beastengine.SlowExpression")
+@Label("Slow Expression")
+@Category("Beast Engine")
+@Description("An expression evaluated by the script engine")
+@Threshold("1 ms")
+@StackTrace(false)
+final class SlowExpressionEvent extends jdk.jfr.Event {
+    @Label("Expression")
+    String expression;
+}
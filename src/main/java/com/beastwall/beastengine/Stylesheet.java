@@ -0,0 +1,75 @@
+package com.beastwall.beastengine;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A rendered stylesheet, with a hash of its content that only changes when the content does,
+ * e.g. for an {@code ETag} or a long-lived, cache busting URL.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+public final class Stylesheet {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String css;
+    final byte[] utf8;
+    private final String contentHash;
+
+    Stylesheet(String css) {
+        this.css = css;
+        this.utf8 = css.getBytes(StandardCharsets.UTF_8);
+        this.contentHash = hash(utf8);
+    }
+
+    /**
+     * @return The stylesheet.
+     */
+    public String getCss() {
+        return css;
+    }
+
+    /**
+     * @return The stylesheet, UTF-8 encoded.
+     */
+    public byte[] getBytes() {
+        return utf8.clone();
+    }
+
+    /**
+     * @return The SHA-256 of the UTF-8 encoded stylesheet, as 64 lowercase hex digits.
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @return A strong {@code ETag} header value for the stylesheet.
+     */
+    public String getETag() {
+        return '"' + contentHash + '"';
+    }
+
+    @Override
+    public String toString() {
+        return css;
+    }
+
+    private static String hash(byte[] bytes) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,79 @@
+package com.beastwall.beastengine;
+
+import java.util.Set;
+
+/**
+ * An immutable, compiled render plan of an HTML template or component.
+ * The template source is parsed and its {@code bs:*} tags are analysed once, the resulting plan
+ * can then be rendered any number of times, from any thread, without building a DOM.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+public final class Template {
+    private final String name;
+    final PlanNode[] nodes;
+    private final Set<String> components;
+    private final Set<String> variables;
+    private final long estimatedSize;
+    private final FrameLayout layout;
+
+    Template(String name, PlanNode[] nodes, Set<String> components, Set<String> variables, long estimatedSize) {
+        this.name = name;
+        this.nodes = nodes;
+        this.components = components;
+        this.variables = variables;
+        this.estimatedSize = estimatedSize;
+        this.layout = FrameLayout.bind(nodes);
+    }
+
+    /**
+     * @return The name of the component, null for a template string.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The estimated retained size of the plan in bytes.
+     */
+    public long estimatedSize() {
+        return estimatedSize;
+    }
+
+    /**
+     * @return The names of the components this template includes, through {@code bs:component} or a router.
+     */
+    public Set<String> getComponents() {
+        return components;
+    }
+
+    /**
+     * @return The top level variables the template's expressions reference, not including the ones of the components it includes.
+     */
+    public Set<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Render the plan, in a frame of its own for the variables it declares.
+     *
+     * @param state The state of the current render.
+     * @param out   The output to write to.
+     * @throws Exception If an error occurs during rendering.
+     */
+    void render(RenderState state, RenderOutput out) throws Exception {
+        String including = state.component;
+        Frame caller = state.frame;
+        state.component = name;
+        if (layout.names.length > 0) {
+            state.frame = new Frame(layout, caller);
+        }
+        try {
+            PlanNodes.renderAll(nodes, state, out);
+        } finally {
+            state.component = including;
+            state.frame = caller;
+        }
+    }
+}
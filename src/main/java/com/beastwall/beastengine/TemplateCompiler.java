@@ -0,0 +1,359 @@
+package com.beastwall.beastengine;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.*;
+import org.jsoup.parser.Parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles an HTML template into an immutable {@link Template}.
+ * The template is parsed with Jsoup once, then every node is turned into static markup or a {@link PlanNode};
+ * adjacent static markup is merged into a single chunk.
+ * Templates that declare a doctype or an {@code <html>} element are compiled as full documents,
+ * everything else as a body fragment, so nested components don't repeat the document skeleton.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class TemplateCompiler {
+    private static final Pattern DOCUMENT_PATTERN = Pattern.compile("(?i)<!doctype|<html[\\s>]");
+
+    private final List<PlanNode> nodes = new ArrayList<>();
+    private final StringBuilder pending = new StringBuilder();
+    private final Set<String> components;
+    private final Set<String> variables;
+    private final long[] size;
+    /**
+     * Whether the nodes are in a {@code <bs:raw>}, their text interpolations aren't escaped.
+     */
+    private boolean raw;
+
+    private TemplateCompiler(Set<String> components, Set<String> variables, long[] size) {
+        this.components = components;
+        this.variables = variables;
+        this.size = size;
+    }
+
+    /**
+     * Compile a template source.
+     *
+     * @param name   The name of the component, null for a template string.
+     * @param source The template source.
+     * @return The compiled template.
+     */
+    static Template compile(String name, String source) {
+        Document doc;
+        List<Node> roots;
+        if (DOCUMENT_PATTERN.matcher(source).find()) {
+            doc = Jsoup.parse(source, "", Parser.htmlParser());
+            roots = doc.childNodes();
+        } else {
+            doc = Jsoup.parseBodyFragment(source);
+            roots = doc.body().childNodes();
+        }
+        doc.outputSettings().prettyPrint(false);
+        Set<String> components = new LinkedHashSet<>();
+        Set<String> variables = new LinkedHashSet<>();
+        long[] size = {64};
+        PlanNode[] nodes = new TemplateCompiler(components, variables, size).compileNodes(roots);
+        return new Template(name, nodes, Collections.unmodifiableSet(components), Collections.unmodifiableSet(variables), size[0]);
+    }
+
+    private PlanNode[] compileNodes(List<Node> children) {
+        TemplateCompiler compiler = new TemplateCompiler(components, variables, size);
+        compiler.raw = raw;
+        for (Node child : children) {
+            compiler.compileNode(child);
+        }
+        return compiler.build();
+    }
+
+    private PlanNode[] build() {
+        flush();
+        PlanNode[] built = nodes.toArray(new PlanNode[0]);
+        int siblingComponents = 0;
+        for (PlanNode node : built) {
+            if (PlanNodes.isComponent(node)) {
+                siblingComponents++;
+            }
+        }
+        if (siblingComponents > 1) {
+            return new PlanNode[]{new PlanNodes.Siblings(built, siblingComponents)};
+        }
+        return built;
+    }
+
+    private void flush() {
+        if (pending.length() > 0) {
+            PlanNodes.Static chunk = new PlanNodes.Static(pending.toString());
+            nodes.add(chunk);
+            size[0] += 48 + ComponentRegistry.estimatedSize(chunk.html) + chunk.utf8.length;
+            pending.setLength(0);
+        }
+    }
+
+    private void add(PlanNode node) {
+        flush();
+        nodes.add(node);
+        // rough footprint of a dynamic node and its expressions
+        size[0] += 128;
+    }
+
+    private void compileNode(Node node) {
+        if (node instanceof TextNode) {
+            String text = ((TextNode) node).getWholeText();
+            if (text.contains("{{")) {
+                compileInterpolation(text);
+            } else {
+                pending.append(node.outerHtml());
+            }
+        } else if (node instanceof Element) {
+            compileElement((Element) node);
+        } else {
+            // data (script/style), comments, doctypes...
+            pending.append(node.outerHtml());
+        }
+    }
+
+    private void compileElement(Element element) {
+        switch (element.tagName()) {
+            case BeastEngine.TAG_PREFIX + "var":
+                compileVar(element);
+                break;
+            case BeastEngine.TAG_PREFIX + "if":
+                add(new PlanNodes.If(expression(element.attr("condition")), compileNodes(element.childNodes())));
+                break;
+            case BeastEngine.TAG_PREFIX + "switch":
+                compileSwitch(element);
+                break;
+            case BeastEngine.TAG_PREFIX + "for":
+                compileFor(element);
+                break;
+            case BeastEngine.TAG_PREFIX + "repeat":
+                compileRepeat(element);
+                break;
+            case BeastEngine.TAG_PREFIX + "component":
+                compileComponent(element);
+                break;
+            case BeastEngine.TAG_PREFIX + "cache":
+                add(new PlanNodes.Cache(expression(element.attr("key")), FragmentCache.parseTtl(element.attr("ttl")),
+                        compileNodes(element.childNodes())));
+                break;
+            case BeastEngine.TAG_PREFIX + "router":
+                compileRouter(element);
+                break;
+            case BeastEngine.TAG_PREFIX + "raw":
+                compileRaw(element);
+                break;
+            default:
+                compileMarkup(element);
+        }
+    }
+
+    private void compileVar(Element element) {
+        List<String> names = new ArrayList<>();
+        List<String> expressions = new ArrayList<>();
+        for (String expression : element.ownText().split(";")) {
+            String[] parts = expression.split("=", 2);
+            if (parts.length == 2) {
+                names.add(parts[0].trim());
+                expressions.add(expression(parts[1]));
+            }
+        }
+        add(new PlanNodes.Var(names.toArray(new String[0]), expressions.toArray(new String[0])));
+    }
+
+    private void compileFor(Element element) {
+        String item = element.attr("item");
+        boolean range = element.hasAttr("from") && !element.hasAttr("in");
+        if (!range) {
+            Expressions.variables(element.attr("in"), variables);
+        }
+        // what the body reads decides whether the loop sets its index and status, included components may read anything
+        Set<String> bodyComponents = new LinkedHashSet<>();
+        Set<String> bodyVariables = new LinkedHashSet<>();
+        PlanNode[] body = new TemplateCompiler(bodyComponents, bodyVariables, size).compileNodes(element.childNodes());
+        boolean includes = !bodyComponents.isEmpty();
+        components.addAll(bodyComponents);
+        variables.addAll(bodyVariables);
+        add(new PlanNodes.For(item, range ? null : element.attr("in"),
+                range ? expression(element.attr("from")) : null,
+                range ? expression(element.attr("to")) : null,
+                range && element.hasAttr("step") ? expression(element.attr("step")) : null,
+                includes || bodyVariables.contains(item + "_index"),
+                includes || bodyVariables.contains(item + "_loop"), body));
+    }
+
+    private void compileComponent(Element element) {
+        components.add(element.attr("name"));
+        PlanNode component = new PlanNodes.Component(element.attr("name"), element.hasAttr("static"));
+        if (element.hasAttr("cache-key")) {
+            component = new PlanNodes.Cache(expression(element.attr("cache-key")),
+                    FragmentCache.parseTtl(element.attr("cache-ttl")), new PlanNode[]{component});
+        }
+        add(component);
+    }
+
+    private void compileSwitch(Element element) {
+        List<String> matches = new ArrayList<>();
+        List<PlanNode[]> cases = new ArrayList<>();
+        Expressions.variables(element.attr("var"), variables);
+        for (Element caseElement : element.getElementsByTag(BeastEngine.TAG_PREFIX + "case")) {
+            Expressions.variables(caseElement.attr("match"), variables);
+            matches.add(caseElement.attr("match"));
+            cases.add(compileNodes(caseElement.childNodes()));
+        }
+        Element defaultElement = element.getElementsByTag(BeastEngine.TAG_PREFIX + "default").first();
+        add(new PlanNodes.Switch(element.attr("var"), matches.toArray(new String[0]),
+                cases.toArray(new PlanNode[0][]), defaultElement != null ? compileNodes(defaultElement.childNodes()) : null));
+    }
+
+    private void compileRepeat(Element element) {
+        String timesAttr = element.attr("times");
+        int times;
+        try {
+            times = Integer.parseInt(timesAttr);
+        } catch (NumberFormatException e) {
+            // resolved when rendering
+            times = -1;
+            Expressions.variables(timesAttr, variables);
+        }
+        add(new PlanNodes.Repeat(timesAttr, times, compileNodes(element.childNodes())));
+    }
+
+    private void compileRouter(Element element) {
+        List<Element> routes = new ArrayList<>();
+        for (Node child : element.childNodes()) {
+            if (child.nameIs("route")) {
+                routes.add((Element) child);
+            }
+        }
+        String[] paths = new String[routes.size()];
+        String[] components = new String[routes.size()];
+        boolean[] statics = new boolean[routes.size()];
+        for (int i = 0; i < routes.size(); i++) {
+            Element route = routes.get(i);
+            paths[i] = route.attr("path").trim();
+            components[i] = route.attr("component").trim();
+            this.components.add(components[i]);
+            statics[i] = route.attributes().hasKey("static");
+        }
+        add(new PlanNodes.Router(paths, components, statics));
+    }
+
+    private void compileRaw(Element element) {
+        boolean outer = raw;
+        raw = true;
+        for (Node child : element.childNodes()) {
+            compileNode(child);
+        }
+        raw = outer;
+    }
+
+    private void compileMarkup(Element element) {
+        String tagName = element.tagName();
+        if (tagName.startsWith(BeastEngine.TAG_PREFIX)) {
+            tagName = tagName.substring(BeastEngine.TAG_PREFIX.length());
+        }
+        pending.append('<').append(tagName);
+        for (Attribute attr : element.attributes()) {
+            String key = attr.getKey();
+            String value = attr.getValue();
+            if (key.startsWith(BeastEngine.TAG_PREFIX)) {
+                String name = key.substring(BeastEngine.TAG_PREFIX.length());
+                add(new PlanNodes.Attribute(name, value, null, new String[]{expression(value)},
+                        new Escaper[]{Escaper.forAttribute(name)}));
+            } else if (value.contains("{{")) {
+                List<String> literals = new ArrayList<>();
+                List<String> expressions = new ArrayList<>();
+                List<Escaper> escapers = new ArrayList<>();
+                split(value, literals, expressions, escapers);
+                attributeEscapers(key, literals, escapers);
+                literals.replaceAll(Escaper.ATTRIBUTE::escape);
+                add(new PlanNodes.Attribute(key, value, literals.toArray(new String[0]), expressions.toArray(new String[0]),
+                        escapers.toArray(new Escaper[0])));
+            } else {
+                pending.append(' ').append(attr.html());
+            }
+        }
+
+        // mirrors Jsoup's serialization of void and self closing tags
+        boolean selfClosing = element.childNodeSize() == 0 && element.tag().isSelfClosing();
+        if (selfClosing) {
+            pending.append(element.tag().isEmpty() ? ">" : " />");
+            return;
+        }
+        pending.append('>');
+        for (Node child : element.childNodes()) {
+            compileNode(child);
+        }
+        pending.append("</").append(tagName).append('>');
+    }
+
+    /**
+     * Record the variables an expression of the template references, the node holding it compiles it.
+     *
+     * @return The source of the expression.
+     */
+    private String expression(String source) {
+        Expressions.variables(source, variables);
+        return source;
+    }
+
+    private void compileInterpolation(String text) {
+        List<String> literals = new ArrayList<>();
+        List<String> expressions = new ArrayList<>();
+        List<Escaper> escapers = new ArrayList<>();
+        split(text, literals, expressions, escapers);
+        escapers.replaceAll(escaper -> raw ? Escaper.RAW : escaper == null ? Escaper.TEXT : escaper);
+        literals.replaceAll(Escaper.TEXT::escape);
+        add(new PlanNodes.Interpolation(literals.toArray(new String[0]), expressions.toArray(new String[0]),
+                escapers.toArray(new Escaper[0])));
+    }
+
+    /**
+     * Choose the escaper of each interpolation of an attribute value from the attribute and, in a URL,
+     * from the literals before it: the start of the URL, its path or its query.
+     */
+    private static void attributeEscapers(String name, List<String> literals, List<Escaper> escapers) {
+        Escaper escaper = Escaper.forAttribute(name);
+        StringBuilder before = new StringBuilder();
+        for (int i = 0; i < escapers.size(); i++) {
+            before.append(literals.get(i));
+            if (escapers.get(i) != null) {
+                continue;
+            }
+            if (escaper != Escaper.URL) {
+                escapers.set(i, escaper);
+            } else if (before.indexOf("?") >= 0 || before.indexOf("#") >= 0) {
+                escapers.set(i, Escaper.URL_QUERY);
+            } else {
+                escapers.set(i, i == 0 && before.toString().isBlank() ? Escaper.URL : Escaper.URL_PART);
+            }
+        }
+    }
+
+    /**
+     * Split text into literals and {@code {{ }}} expressions, there is always one more literal than expressions.
+     * The escaper of a {@code {{{ }}}} expression is {@link Escaper#RAW}, the others' are left null.
+     */
+    private void split(String text, List<String> literals, List<String> expressions, List<Escaper> escapers) {
+        Matcher matcher = BeastEngine.INTERPOLATION_PATTERN.matcher(text);
+        int lastIndex = 0;
+        while (matcher.find()) {
+            literals.add(text.substring(lastIndex, matcher.start()));
+            boolean unescaped = matcher.group(1) != null;
+            expressions.add(expression(unescaped ? matcher.group(1) : matcher.group(2)));
+            escapers.add(unescaped ? Escaper.RAW : null);
+            lastIndex = matcher.end();
+        }
+        literals.add(text.substring(lastIndex));
+    }
+}
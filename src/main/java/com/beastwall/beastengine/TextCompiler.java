@@ -0,0 +1,307 @@
+package com.beastwall.beastengine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles a text template into an immutable {@link TextTemplate}, in a single scan of the source.
+ * Besides {@code {{ expression }}} interpolations, the scanner understands block tags:
+ * <pre>
+ * {{#if cond}} ... {{#elseif cond}} ... {{#else}} ... {{/if}}
+ * {{#for item in items}} ... {{/for}}
+ * {{#switch value}} {{#case 'a'}} ... {{#default}} ... {{/switch}}
+ * {{! a comment }}
+ * </pre>
+ * A block tag or comment alone on its line doesn't leave an empty line behind: the whitespace before it
+ * and the line break after it are dropped with the tag.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class TextCompiler {
+    private static final Pattern FOR_PATTERN = Pattern.compile("([a-zA-Z_$][a-zA-Z0-9_$]*)\\s+in\\s+(.+)", Pattern.DOTALL);
+
+    private final String source;
+    private final List<Object> tokens = new ArrayList<>();
+    private final Set<String> variables = new LinkedHashSet<>();
+    private long size = 64;
+    private int next;
+    /**
+     * The tag that ended the last block.
+     */
+    private Tag end;
+
+    private TextCompiler(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Compile a template source.
+     *
+     * @param name   The name of the component, null for a template string.
+     * @param source The template source.
+     * @return The compiled template.
+     * @throws IllegalArgumentException If a tag isn't closed or blocks don't match.
+     */
+    static TextTemplate compile(String name, String source) {
+        TextCompiler compiler = new TextCompiler(source);
+        compiler.scan();
+        TextPlanNode[] nodes = compiler.block(null);
+        return new TextTemplate(name, nodes, Collections.unmodifiableSet(compiler.variables), compiler.size);
+    }
+
+    /**
+     * Split the source into literal strings and {@link Tag}s.
+     */
+    private void scan() {
+        int length = source.length();
+        int position = 0;
+        int open;
+        while ((open = source.indexOf("{{", position)) >= 0) {
+            int close = closing(open + 2);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed {{ at line " + line(open));
+            }
+            String content = source.substring(open + 2, close).trim();
+            if (content.isEmpty()) {
+                throw new IllegalArgumentException("Empty {{ }} at line " + line(open));
+            }
+            char kind = content.charAt(0);
+            // {{ !flag }} is an expression, only {{! }} is a comment
+            if (kind != '#' && kind != '/' && (kind != '!' || source.charAt(open + 2) != '!')) {
+                kind = '=';
+            }
+            int literalEnd = open;
+            int tagEnd = close + 2;
+            if (kind == '#' || kind == '/' || kind == '!') {
+                // a standalone tag takes its line with it
+                int lineStart = source.lastIndexOf('\n', open - 1) + 1;
+                int lineEnd = source.indexOf('\n', tagEnd);
+                if (lineEnd < 0) {
+                    lineEnd = length;
+                }
+                if (lineStart >= position && blank(lineStart, open) && blank(tagEnd, lineEnd)) {
+                    literalEnd = lineStart;
+                    tagEnd = Math.min(lineEnd + 1, length);
+                }
+            }
+            if (literalEnd > position) {
+                tokens.add(source.substring(position, literalEnd));
+            }
+            if (kind != '!') {
+                tokens.add(kind == '=' ? new Tag(kind, content, open) : new Tag(kind, content.substring(1).trim(), open));
+            }
+            position = tagEnd;
+        }
+        if (position < length) {
+            tokens.add(source.substring(position));
+        }
+    }
+
+    /**
+     * Find the {@code }}} closing a tag, braces inside string literals don't count.
+     */
+    private int closing(int from) {
+        int length = source.length();
+        for (int i = from; i < length - 1; i++) {
+            char c = source.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                for (i++; i < length && source.charAt(i) != c; i++) {
+                    if (source.charAt(i) == '\\') {
+                        i++;
+                    }
+                }
+            } else if (c == '}' && source.charAt(i + 1) == '}') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean blank(int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = source.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int line(int offset) {
+        int line = 1;
+        for (int i = 0; i < offset; i++) {
+            if (source.charAt(i) == '\n') {
+                line++;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Compile tokens until one of the tags ending a block, which is then left in {@link #end}.
+     *
+     * @param opening The tag opening the block, null for the template itself.
+     * @param enders  The keywords of the tags that end the block.
+     */
+    private TextPlanNode[] block(Tag opening, String... enders) {
+        List<TextPlanNode> nodes = new ArrayList<>();
+        StringBuilder pending = new StringBuilder();
+        while (next < tokens.size()) {
+            Object token = tokens.get(next++);
+            if (token instanceof String) {
+                pending.append((String) token);
+                continue;
+            }
+            flush(pending, nodes);
+            Tag tag = (Tag) token;
+            for (String ender : enders) {
+                if (ender.equals(tag.keyword)) {
+                    end = tag;
+                    return nodes.toArray(new TextPlanNode[0]);
+                }
+            }
+            switch (tag.keyword) {
+                case "=":
+                    nodes.add(new TextPlanNodes.Interpolation(expression(tag.argument)));
+                    break;
+                case "if":
+                    nodes.add(compileIf(tag));
+                    break;
+                case "for":
+                    nodes.add(compileFor(tag));
+                    break;
+                case "switch":
+                    nodes.add(compileSwitch(tag));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected " + tag + " at line " + line(tag.offset));
+            }
+            size += 32;
+        }
+        flush(pending, nodes);
+        if (opening != null) {
+            throw new IllegalArgumentException("Unclosed " + opening + " at line " + line(opening.offset));
+        }
+        return nodes.toArray(new TextPlanNode[0]);
+    }
+
+    private void flush(StringBuilder pending, List<TextPlanNode> nodes) {
+        if (pending.length() > 0) {
+            String text = pending.toString();
+            nodes.add(new TextPlanNodes.Literal(text));
+            // the chars and the encoded bytes
+            size += 112 + 3L * text.length();
+            pending.setLength(0);
+        }
+    }
+
+    private TextPlanNode compileIf(Tag tag) {
+        List<Expression> conditions = new ArrayList<>();
+        List<TextPlanNode[]> branches = new ArrayList<>();
+        conditions.add(expression(argument(tag)));
+        branches.add(block(tag, "elseif", "else", "/if"));
+        TextPlanNode[] otherwise = null;
+        while (end.keyword.equals("elseif")) {
+            conditions.add(expression(argument(end)));
+            branches.add(block(tag, "elseif", "else", "/if"));
+        }
+        if (end.keyword.equals("else")) {
+            otherwise = block(tag, "/if");
+        }
+        return new TextPlanNodes.If(conditions.toArray(new Expression[0]), branches.toArray(new TextPlanNode[0][]), otherwise);
+    }
+
+    private TextPlanNode compileFor(Tag tag) {
+        Matcher matcher = FOR_PATTERN.matcher(tag.argument);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Expected {{#for item in items}} at line " + line(tag.offset) + ": " + tag);
+        }
+        String list = matcher.group(2).trim();
+        Expression expression = expression(list);
+        return new TextPlanNodes.For(matcher.group(1), list, expression, block(tag, "/for"));
+    }
+
+    private TextPlanNode compileSwitch(Tag tag) {
+        Expression value = expression(argument(tag));
+        List<Expression> matches = new ArrayList<>();
+        List<TextPlanNode[]> cases = new ArrayList<>();
+        TextPlanNode[] defaultCase = null;
+        for (TextPlanNode node : block(tag, "case", "default", "/switch")) {
+            if (!(node instanceof TextPlanNodes.Literal) || !((TextPlanNodes.Literal) node).text.isBlank()) {
+                throw new IllegalArgumentException("Only {{#case}} and {{#default}} may appear in " + tag + " at line " + line(tag.offset));
+            }
+        }
+        while (!end.keyword.equals("/switch")) {
+            Tag branch = end;
+            TextPlanNode[] body = block(tag, "case", "default", "/switch");
+            if (branch.keyword.equals("case")) {
+                matches.add(expression(argument(branch)));
+                cases.add(body);
+            } else {
+                defaultCase = body;
+            }
+        }
+        return new TextPlanNodes.Switch(value, matches.toArray(new Expression[0]), cases.toArray(new TextPlanNode[0][]), defaultCase);
+    }
+
+    private String argument(Tag tag) {
+        if (tag.argument.isEmpty()) {
+            throw new IllegalArgumentException("Missing expression in " + tag + " at line " + line(tag.offset));
+        }
+        return tag.argument;
+    }
+
+    private Expression expression(String source) {
+        Expressions.variables(source, variables);
+        return Expressions.compile(source);
+    }
+
+    /**
+     * A {@code {{ }}} tag.
+     */
+    private static final class Tag {
+        /**
+         * {@code =} for interpolations, the block keyword, e.g. {@code if}, or the closing tag, e.g. {@code /if}.
+         */
+        final String keyword;
+        final String argument;
+        final int offset;
+
+        Tag(char kind, String content, int offset) {
+            this.offset = offset;
+            if (kind == '=') {
+                keyword = "=";
+                argument = content;
+                return;
+            }
+            int space = 0;
+            while (space < content.length() && !Character.isWhitespace(content.charAt(space))) {
+                space++;
+            }
+            String word = content.substring(0, space);
+            String rest = content.substring(space).trim();
+            if (word.equals("else") && rest.startsWith("if") && (rest.length() == 2 || Character.isWhitespace(rest.charAt(2)))) {
+                // {{#else if cond}}
+                word = "elseif";
+                rest = rest.substring(2).trim();
+            }
+            keyword = kind == '/' ? "/" + word : word;
+            argument = rest;
+        }
+
+        @Override
+        public String toString() {
+            if (keyword.equals("=")) {
+                return "{{ " + argument + " }}";
+            }
+            String prefix = keyword.startsWith("/") ? "{{" : "{{#";
+            return prefix + keyword + (argument.isEmpty() ? "" : " " + argument) + "}}";
+        }
+    }
+}
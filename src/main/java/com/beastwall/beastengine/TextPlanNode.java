@@ -0,0 +1,20 @@
+package com.beastwall.beastengine;
+
+/**
+ * A single step of a compiled {@link TextTemplate}.
+ * Text nodes are immutable and shared between renders and threads, all per-render state lives in the {@link ContextScope}.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+interface TextPlanNode {
+
+    /**
+     * Render this node.
+     *
+     * @param scope The variables of the current render.
+     * @param out   The output the node writes to.
+     * @throws Exception If an error occurs during rendering.
+     */
+    void render(ContextScope scope, RenderOutput out) throws Exception;
+}
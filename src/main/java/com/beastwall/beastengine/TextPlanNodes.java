@@ -0,0 +1,167 @@
+package com.beastwall.beastengine;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * The {@link TextPlanNode} implementations produced by {@link TextCompiler}.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class TextPlanNodes {
+
+    private TextPlanNodes() {
+    }
+
+    static void renderAll(TextPlanNode[] nodes, ContextScope scope, RenderOutput out) throws Exception {
+        for (TextPlanNode node : nodes) {
+            node.render(scope, out);
+        }
+    }
+
+    /**
+     * Literal text, kept both as chars and UTF-8 encoded.
+     */
+    static final class Literal implements TextPlanNode {
+        final String text;
+        final byte[] utf8;
+
+        Literal(String text) {
+            this.text = text;
+            this.utf8 = text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void render(ContextScope scope, RenderOutput out) throws Exception {
+            out.appendStatic(text, utf8);
+        }
+    }
+
+    /**
+     * {@code {{ expression }}}, written as is, text output isn't escaped.
+     */
+    static final class Interpolation implements TextPlanNode {
+        final Expression expression;
+
+        Interpolation(Expression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public void render(ContextScope scope, RenderOutput out) throws Exception {
+            Object result = scope.evaluate(expression);
+            if (result != null) {
+                out.append(result.toString());
+            }
+        }
+    }
+
+    /**
+     * {@code {{#if}}} with its {@code {{#elseif}}} and {@code {{#else}}} branches.
+     */
+    static final class If implements TextPlanNode {
+        final Expression[] conditions;
+        final TextPlanNode[][] branches;
+        final TextPlanNode[] otherwise;
+
+        If(Expression[] conditions, TextPlanNode[][] branches, TextPlanNode[] otherwise) {
+            this.conditions = conditions;
+            this.branches = branches;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        public void render(ContextScope scope, RenderOutput out) throws Exception {
+            for (int i = 0; i < conditions.length; i++) {
+                if (Expressions.isTrue(scope.evaluate(conditions[i]))) {
+                    renderAll(branches[i], scope, out);
+                    return;
+                }
+            }
+            if (otherwise != null) {
+                renderAll(otherwise, scope, out);
+            }
+        }
+    }
+
+    /**
+     * {@code {{#for item in items}}} over anything {@link Loops} iterates over, the body sees the item,
+     * its index as {@code item_index} and the {@link LoopStatus} {@code item_loop}.
+     */
+    static final class For implements TextPlanNode {
+        final String itemName;
+        final String indexName;
+        final String statusName;
+        final String listSource;
+        final Expression list;
+        final TextPlanNode[] body;
+
+        For(String itemName, String listSource, Expression list, TextPlanNode[] body) {
+            this.itemName = itemName;
+            this.indexName = itemName + "_index";
+            this.statusName = itemName + "_loop";
+            this.listSource = listSource;
+            this.list = list;
+            this.body = body;
+        }
+
+        @Override
+        public void render(ContextScope scope, RenderOutput out) throws Exception {
+            Object items = scope.evaluate(list);
+            if (items == null) {
+                throw new RuntimeException("Collection '" + listSource + "' not found in context");
+            }
+            Context layer = scope.push();
+            LoopStatus status = new LoopStatus();
+            scope.put(statusName, status);
+            int index = 0;
+            try {
+                Iterator<?> iterator = Loops.iterator(items, listSource);
+                while (iterator.hasNext()) {
+                    Object item = iterator.next();
+                    status.next(!iterator.hasNext());
+                    scope.put(itemName, item);
+                    scope.put(indexName, index++);
+                    renderAll(body, scope, out);
+                }
+            } finally {
+                scope.loopIterations += index;
+                Loops.close(items);
+                scope.pop(layer);
+            }
+        }
+    }
+
+    /**
+     * {@code {{#switch value}}} with its {@code {{#case}}} and {@code {{#default}}} branches,
+     * cases are compared with the loose equality of {@code ==}.
+     */
+    static final class Switch implements TextPlanNode {
+        final Expression value;
+        final Expression[] matches;
+        final TextPlanNode[][] cases;
+        final TextPlanNode[] defaultCase;
+
+        Switch(Expression value, Expression[] matches, TextPlanNode[][] cases, TextPlanNode[] defaultCase) {
+            this.value = value;
+            this.matches = matches;
+            this.cases = cases;
+            this.defaultCase = defaultCase;
+        }
+
+        @Override
+        public void render(ContextScope scope, RenderOutput out) throws Exception {
+            Object switchValue = scope.evaluate(value);
+            for (int i = 0; i < matches.length; i++) {
+                if (Expressions.looseEquals(switchValue, scope.evaluate(matches[i]))) {
+                    renderAll(cases[i], scope, out);
+                    return;
+                }
+            }
+            if (defaultCase != null) {
+                renderAll(defaultCase, scope, out);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.beastwall.beastengine;
+
+import java.util.Set;
+
+/**
+ * An immutable, compiled text template: the literal text and {@code {{ }}} tags of the source, scanned once.
+ * It can be rendered any number of times, from any thread.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ * @see TextCompiler
+ */
+public final class TextTemplate {
+    private final String name;
+    private final TextPlanNode[] nodes;
+    private final Set<String> variables;
+    private final long estimatedSize;
+
+    TextTemplate(String name, TextPlanNode[] nodes, Set<String> variables, long estimatedSize) {
+        this.name = name;
+        this.nodes = nodes;
+        this.variables = variables;
+        this.estimatedSize = estimatedSize;
+    }
+
+    /**
+     * @return The name of the component, null for a template string.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The estimated retained size of the template in bytes.
+     */
+    public long estimatedSize() {
+        return estimatedSize;
+    }
+
+    /**
+     * @return The top level variables the template's expressions reference.
+     */
+    public Set<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Render the template.
+     *
+     * @param scope The variables of the current render.
+     * @param out   The output to write to.
+     * @throws Exception If an error occurs during rendering.
+     */
+    void render(ContextScope scope, RenderOutput out) throws Exception {
+        TextPlanNodes.renderAll(nodes, scope, out);
+    }
+}
@@ -0,0 +1,55 @@
+package com.beastwall.beastengine;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * A variable and a path of properties, e.g. {@code order.customer.name}, as the {@code var} and {@code match} of
+ * {@code bs:switch}, the {@code times} of {@code bs:repeat} and the {@code in} of {@code bs:for} reference them.
+ * It is split once when the template is compiled, reading it is a lookup of the variable followed by
+ * the steps of a {@link PropertyPath}, nothing is allocated nor cached per render.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+final class VariablePath {
+    final String source;
+    private final String variable;
+    private final PropertyPath properties;
+    /**
+     * The slot of the variable if the template declares it, -1 otherwise, see {@link FrameLayout}.
+     */
+    private int slot = -1;
+
+    VariablePath(String source) {
+        this.source = source;
+        String[] parts = source.split("\\.");
+        this.variable = parts[0];
+        this.properties = PropertyPath.of(Arrays.copyOfRange(parts, 1, parts.length));
+    }
+
+    /**
+     * Read the variable from its slot if the template declares it where the path is.
+     *
+     * @param slots Gives the slot of a declared variable, null for the other variables.
+     */
+    void bind(Function<String, Integer> slots) {
+        Integer declared = slots.apply(variable);
+        slot = declared != null ? declared : -1;
+    }
+
+    /**
+     * Read the path, a failure is reported to the render and reads as null.
+     *
+     * @param state The state of the render.
+     * @return The value, null if the variable or one of the properties is null.
+     */
+    Object get(RenderState state) {
+        try {
+            return properties.get(slot >= 0 ? state.local(slot, variable) : state.variable(variable));
+        } catch (Throwable e) {
+            state.evaluationFailed(source, e);
+            return null;
+        }
+    }
+}
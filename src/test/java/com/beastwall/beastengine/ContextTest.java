@@ -0,0 +1,73 @@
+package com.beastwall.beastengine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Contexts layered on a parent, see {@link Context#child()}.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+class ContextTest {
+    private final Context site = Context.immutable(Map.of("title", "Site", "user", "guest"), Locale.ENGLISH);
+
+    @Test
+    void removingAnInheritedVariableHidesIt() {
+        Context request = site.child();
+        assertEquals("guest", request.remove("user"));
+        assertNull(request.get("user"));
+        assertFalse(request.containsKey("user"));
+        assertEquals("fallback", request.getOrDefault("user", "fallback"));
+        assertEquals(Map.of("title", "Site"), request);
+        assertEquals(Set.of("title"), request.keySet());
+        assertEquals("guest", site.get("user"));
+    }
+
+    @Test
+    void puttingARemovedVariableShowsIt() {
+        Context request = site.child();
+        request.remove("user");
+        request.put("user", "ann");
+        assertEquals("ann", request.get("user"));
+        request.remove("user");
+        assertFalse(request.containsKey("user"));
+    }
+
+    @Test
+    void copiesKeepRemovedVariablesHidden() {
+        Context request = site.child();
+        request.remove("user");
+        Context copy = new Context(request);
+        assertFalse(copy.containsKey("user"));
+        assertEquals(Map.of("title", "Site"), copy);
+    }
+
+    @Test
+    void clearingHidesEveryInheritedVariable() {
+        Context request = site.child();
+        request.put("page", 1);
+        request.clear();
+        assertTrue(request.isEmpty());
+        assertNull(request.get("title"));
+    }
+
+    @Test
+    void removingAnInheritedVariableRerendersWithoutIt() throws Exception {
+        BeastHtmlEngine engine = new BeastHtmlEngine(new InMemoryComponentSource()
+                .put("app.component.html", "<p>{{ user != null ? user : 'nobody' }}</p>"));
+        Context request = site.child();
+        RenderHandle handle = engine.renderTracked("app", request);
+        request.remove("user");
+        handle = engine.rerender(handle, request, Set.of("user"));
+        assertTrue(handle.getOutput().contains("<p>nobody</p>"), handle.getOutput());
+    }
+}
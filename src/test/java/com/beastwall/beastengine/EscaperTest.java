@@ -0,0 +1,46 @@
+package com.beastwall.beastengine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Escaping of interpolated attribute values, see {@link Escaper}.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+class EscaperTest {
+    private final BeastHtmlEngine engine = new BeastHtmlEngine();
+
+    private String link(String template, String a, String b) throws Exception {
+        Context context = new Context(Locale.ENGLISH);
+        context.put("a", a);
+        context.put("b", b);
+        return engine.process(template, context);
+    }
+
+    @Test
+    void scriptUrlAfterEmptyInterpolationIsBlocked() throws Exception {
+        String template = "<a href=\"{{ a }}{{ b }}\">x</a>";
+        assertEquals("<a href=\"about:invalid\">x</a>", link(template, "", "javascript:alert(1)"));
+        assertEquals("<a href=\"about:invalid\">x</a>", link(template, " ", "javascript:alert(1)"));
+        assertEquals("<a href=\"about:invalid\">x</a>", link(template, null, "javascript:alert(1)"));
+    }
+
+    @Test
+    void scriptUrlSplitAcrossInterpolationsIsBlocked() throws Exception {
+        assertEquals("<a href=\"about:invalid\">x</a>", link("<a href=\"{{ a }}{{ b }}\">x</a>", "java", "script:alert(1)"));
+        assertEquals("<a href=\"about:invalid\">x</a>", link("<a href=\"{{ a }}script:alert(1)\">x</a>", "java", null));
+    }
+
+    @Test
+    void safeUrlFromSeveralInterpolationsIsKept() throws Exception {
+        String template = "<a href=\"{{ a }}{{ b }}\">x</a>";
+        assertEquals("<a href=\"https://ex.com/p?q=1\">x</a>", link(template, "https://ex.com", "/p?q=1"));
+        assertEquals("<a href=\"/users/42\">x</a>", link(template, "", "/users/42"));
+        assertEquals("<a href=\"/users/42\">x</a>", link("<a href=\"/users/{{ a }}{{ b }}\">x</a>", "4", "2"));
+    }
+}
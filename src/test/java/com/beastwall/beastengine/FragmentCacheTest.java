@@ -0,0 +1,60 @@
+package com.beastwall.beastengine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Invalidation of {@code bs:cache} fragments when components change, see {@link FragmentCache}.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+class FragmentCacheTest {
+    private final InMemoryComponentSource source = new InMemoryComponentSource()
+            .put("app.component.html", "<main><bs:cache key=\"'menu'\"><bs:component name=\"menu\"></bs:component>"
+                    + "</bs:cache><bs:cache key=\"'side'\"><bs:component name=\"side\"></bs:component></bs:cache></main>")
+            .put("menu/menu.component.html", "<ul><li>{{ n }}</li></ul>")
+            .put("side/side.component.html", "<aside><bs:component name=\"note\"></bs:component></aside>")
+            .put("note/note.component.html", "<p>{{ n }}</p>");
+    private final BeastHtmlEngine engine = new BeastHtmlEngine(source);
+
+    private String render(int n) throws Exception {
+        Context context = new Context(Locale.ENGLISH);
+        context.put("n", n);
+        return engine.processComponent("app", context);
+    }
+
+    @Test
+    void changingAComponentKeepsUnrelatedFragments() throws Exception {
+        assertEquals("<main><ul><li>1</li></ul><aside><p>1</p></aside></main>", render(1));
+        source.put("menu/menu.component.html", "<ol><li>{{ n }}</li></ol>");
+        assertEquals("<main><ol><li>2</li></ol><aside><p>1</p></aside></main>", render(2));
+    }
+
+    @Test
+    void changingAComponentDropsTheFragmentsThatRenderedItIndirectly() throws Exception {
+        assertEquals("<main><ul><li>1</li></ul><aside><p>1</p></aside></main>", render(1));
+        source.put("note/note.component.html", "<b>{{ n }}</b>");
+        assertEquals("<main><ul><li>1</li></ul><aside><b>2</b></aside></main>", render(2));
+    }
+
+    @Test
+    void changingAComponentInsideAStaticOutputDropsTheFragment() throws Exception {
+        source.put("app.component.html", "<main><bs:component name=\"side\" static></bs:component>"
+                + "<bs:cache key=\"'side'\"><bs:component name=\"side\" static></bs:component></bs:cache></main>");
+        assertEquals("<main><aside><p>1</p></aside><aside><p>1</p></aside></main>", render(1));
+        source.put("note/note.component.html", "<b>{{ n }}</b>");
+        assertEquals("<main><aside><b>2</b></aside><aside><b>2</b></aside></main>", render(2));
+    }
+
+    @Test
+    void changingTheOwnerOfAFragmentDropsIt() throws Exception {
+        assertEquals("<main><ul><li>1</li></ul><aside><p>1</p></aside></main>", render(1));
+        source.put("app.component.html", "<div><bs:cache key=\"'menu'\"><bs:component name=\"menu\"></bs:component>"
+                + "</bs:cache></div>");
+        assertEquals("<div><ul><li>2</li></ul></div>", render(2));
+    }
+}
@@ -0,0 +1,58 @@
+package com.beastwall.beastengine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Warming up from a snapshot, see {@link BeastHtmlEngine#warmUp(Path)}.
+ *
+ * @author github.com/rasmi-aw
+ * @author beastwall.com
+ */
+class WarmUpTest {
+    @TempDir
+    Path directory;
+
+    private final InMemoryComponentSource source = new InMemoryComponentSource()
+            .put("app.component.html", "<p>{{ title }}</p><bs:component name=\"card\"></bs:component>")
+            .put("card/card.component.html", "<div>card</div>");
+
+    private static String render(BeastHtmlEngine engine) throws Exception {
+        Context context = new Context(Locale.ENGLISH);
+        context.put("title", "T");
+        return engine.processComponent("app", context);
+    }
+
+    @Test
+    void changedComponentsAreWrittenToANewVersion() throws Exception {
+        Path snapshot = directory.resolve("plans.snapshot");
+        BeastHtmlEngine first = new BeastHtmlEngine(source);
+        assertEquals(2, first.warmUp(snapshot));
+        assertTrue(Files.isRegularFile(directory.resolve("plans.snapshot.1")));
+
+        BeastHtmlEngine unchanged = new BeastHtmlEngine(source);
+        unchanged.warmUp(snapshot);
+        assertFalse(Files.exists(directory.resolve("plans.snapshot.2")));
+
+        // the first engines keep the first version mapped while it is replaced
+        source.put("card/card.component.html", "<div>new card</div>");
+        BeastHtmlEngine changed = new BeastHtmlEngine(source);
+        changed.warmUp(snapshot);
+        assertTrue(Files.isRegularFile(directory.resolve("plans.snapshot.2")));
+        assertEquals("<p>T</p><div>new card</div>", render(changed));
+        assertEquals("<p>T</p><div>new card</div>", render(first));
+
+        BeastHtmlEngine restarted = new BeastHtmlEngine(source);
+        restarted.warmUp(snapshot);
+        assertEquals("<p>T</p><div>new card</div>", render(restarted));
+        assertFalse(Files.exists(directory.resolve("plans.snapshot.3")));
+    }
+}